@@ -9,15 +9,25 @@ import org.example.model.point.RawPoint;
 import org.example.model.point.TaggedPoint;
 import org.example.repository.LocalRepository;
 import org.example.repository.impl.LocalRepositoryImpl;
+import org.example.repository.manifest.BatchManifest;
+import org.example.repository.partition.PartitionKey;
+import org.example.service.pipeline.ParallelTrackPipeline;
 import org.example.service.postprocessing.DataPostprocessingModule;
 import org.example.service.preprocessing.DataPreprocessingModule;
+import org.example.service.preprocessing.TrajectorySimplifier;
+import org.example.service.preprocessing.TrajectorySmoother;
+import org.example.service.preprocessing.filter.FilterConfig;
+import org.example.service.preprocessing.filter.FilterThresholds;
 import org.example.service.tagging.MapLoadingModule;
+import org.example.service.tagging.MapRegistry;
 import org.example.service.tagging.RoomMatchingModule;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class TempStaticAnalysis {
 
@@ -30,21 +40,48 @@ public class TempStaticAnalysis {
     Meta meta = new Meta();
     LocalRepository repo = new LocalRepositoryImpl();
     repo.loadCsv();
-    DataPreprocessingModule preprocessor = new DataPreprocessingModule();
     MapLoadingModule mapLoader = new MapLoadingModule(repo);
+    // bounds from the loaded map envelope, default rms / velocity limits
+    DataPreprocessingModule preprocessor = new DataPreprocessingModule(FilterConfig.forMap(mapLoader.floorMap(), FilterThresholds.LEGACY));
     RoomMatchingModule roomMatcher = new RoomMatchingModule(mapLoader);
-    DataPostprocessingModule postprocessor = new DataPostprocessingModule(5, 4000, 6000);
+    int L = 5;
+    long tauMs = 4000;
+    DataPostprocessingModule postprocessor = new DataPostprocessingModule(L, tauMs, 6000);
 
     List<Batch> batches = repo.loadBatches("localRepository/input/batches", 8);
 
-    List<RawPoint> rawPoints = preprocessor.merge(batches);
-    List<RawPoint> rawPointsSorted = preprocessor.sort(rawPoints);
-    List<RawPoint> rawPointsDeduplicated = preprocessor.deduplicate(rawPointsSorted);
-    List<RawPoint> rawPointsFiltered = preprocessor.filter(rawPointsDeduplicated);
-
-    List<TaggedPoint> taggedPoints = roomMatcher.labelMultiPoints(rawPointsFiltered);
-
-    ScriptInputBundle input = postprocessor.buildBundle(taggedPoints, meta);
+    List<String> options = Arrays.asList(args);
+    // "simplify": dead-band compression before tagging, tolerance = room boundary buffer, burst = L, heartbeat = tauMs
+    // "smooth": hampel filter + recomputed velocity after preprocessing
+    // both per track only (the merged list of all devices is no track), so only with "parallel"
+    TrajectorySmoother smoother = options.contains("smooth") ? TrajectorySmoother.forMatching(roomMatcher.epsBoundary(), FilterThresholds.LEGACY.maxVelocity) : null;
+    TrajectorySimplifier simplifier = options.contains("simplify") ? TrajectorySimplifier.forMatching(roomMatcher.epsBoundary(), L, tauMs) : null;
+    if (smoother != null && !options.contains("parallel")) {throw new IllegalArgumentException("smooth runs per track, use it with parallel");}
+    if (simplifier != null && !options.contains("parallel")) {throw new IllegalArgumentException("simplify runs per track, use it with parallel");}
+
+    ScriptInputBundle input;
+    if (options.contains("stored")) {
+        // the batch store instead of the json files: per device/session track, compacted hours from their columnar files
+        if (!options.contains("parallel") || options.contains("maps")) {throw new IllegalArgumentException("stored runs per track on the default map, use it with parallel and without maps");}
+        if (!BatchManifest.exists(Paths.get(LocalRepositoryImpl.BATCH_DIR).toAbsolutePath().normalize())) {throw new IllegalStateException("no batch store under " + LocalRepositoryImpl.BATCH_DIR);}
+        List<PartitionKey> partitions = repo.listPartitions(Long.MIN_VALUE, Long.MAX_VALUE);
+        input = new ParallelTrackPipeline(preprocessor, smoother, simplifier, roomMatcher, postprocessor, ForkJoinPool.commonPool()).bundle(repo, partitions, meta);
+    } else if (options.contains("parallel") && options.contains("maps")) {
+        // one track per device/session/map, each tagged on the map its batches name
+        // offline run: its own registry with the application.properties defaults (map dir, cache 16, no grid), no reloads
+        MapRegistry maps = new MapRegistry(repo, MapLoadingModule.DEFAULT_MAP_DIR, 16, 0);
+        input = new ParallelTrackPipeline(preprocessor, smoother, simplifier, maps, postprocessor, ForkJoinPool.commonPool()).bundle(batches, meta);
+    } else if (options.contains("parallel")) {
+        // one track per device/session, tracks run on the fork-join pool
+        input = new ParallelTrackPipeline(preprocessor, smoother, simplifier, roomMatcher, postprocessor, ForkJoinPool.commonPool()).bundle(batches, meta);
+    } else {
+        // merge + sort + deduplicate + filter in one k-way merge pass
+        List<RawPoint> rawPointsFiltered = preprocessor.preprocess(batches);
+
+        List<TaggedPoint> taggedPoints = roomMatcher.labelMultiPoints(rawPointsFiltered);
+
+        input = postprocessor.buildBundle(taggedPoints, meta);
+    }
 
     ObjectMapper om = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
     String json = om.writeValueAsString(input);
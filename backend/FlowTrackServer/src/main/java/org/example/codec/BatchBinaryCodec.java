@@ -0,0 +1,220 @@
+package org.example.codec;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * compact binary encoding of Batch (media type application/x-flowtrack-batch)
+ *
+ * layout, all integers are varints (zigzag for signed values):
+ * - magic "FTB" + version byte
+ * - header strings: batchId, deviceId, sessionId, source, coordRef, buildingId, floorId, mapId
+ *   (length + 1, 0 = null, then UTF-8 bytes)
+ * - startTimeMs, endTimeMs, count, n = number of points
+ * - xyScale, auxScale: quantization steps per unit (1000 = mm / 0.001)
+ * - columns, n values each:
+ *   time (first absolute, then delta), x (delta), y (delta), velocity, rms (delta), dt, anchorsUsed
+ *   accepted as a bitset of (n + 7) / 8 bytes
+ *
+ * the same layout is produced by TrackBatchBinaryEncoder in the mobile prototypeApp, keep them in sync
+ */
+public final class BatchBinaryCodec {
+
+    public static final String MEDIA_TYPE = "application/x-flowtrack-batch";
+
+    static final byte[] MAGIC = {'F', 'T', 'B'};
+    static final int VERSION = 1;
+    static final int XY_SCALE = 1000;
+    static final int AUX_SCALE = 1000;
+    /** defensive limits for untrusted input */
+    static final int MAX_POINTS = 1_000_000;
+    static final int MAX_STRING_BYTES = 4096;
+
+    private BatchBinaryCodec() {}
+
+    public static byte[] encode(Batch batch) {
+        List<RawPoint> pts = batch.points != null ? batch.points : new ArrayList<RawPoint>();
+        int n = pts.size();
+        Writer w = new Writer(64 + n * 12);
+
+        w.bytes(MAGIC);
+        w.raw(VERSION);
+
+        w.string(batch.batchId);
+        w.string(batch.deviceId);
+        w.string(batch.sessionId);
+        w.string(batch.source);
+        w.string(batch.coordRef);
+        w.string(batch.buildingId);
+        w.string(batch.floorId);
+        w.string(batch.mapId);
+
+        w.zigzag(batch.startTimeMs);
+        w.zigzag(batch.endTimeMs);
+        w.zigzag(batch.count);
+        w.varint(n);
+
+        w.varint(XY_SCALE);
+        w.varint(AUX_SCALE);
+
+        long prev = 0;
+        for (RawPoint p : pts) { w.zigzag(p.time - prev); prev = p.time; }
+        prev = 0;
+        for (RawPoint p : pts) { long q = quantize(p.x, XY_SCALE); w.zigzag(q - prev); prev = q; }
+        prev = 0;
+        for (RawPoint p : pts) { long q = quantize(p.y, XY_SCALE); w.zigzag(q - prev); prev = q; }
+        for (RawPoint p : pts) { w.zigzag(quantize(p.velocity, AUX_SCALE)); }
+        prev = 0;
+        for (RawPoint p : pts) { long q = quantize(p.rms, AUX_SCALE); w.zigzag(q - prev); prev = q; }
+        for (RawPoint p : pts) { w.zigzag(quantize(p.dt, AUX_SCALE)); }
+        for (RawPoint p : pts) { w.zigzag(p.anchorsUsed); }
+
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            if (pts.get(i).accepted) bits |= 1 << (i & 7);
+            if ((i & 7) == 7 || i == n - 1) { w.raw(bits); bits = 0; }
+        }
+        return w.toByteArray();
+    }
+
+    public static Batch decode(byte[] buf) {
+        Reader r = new Reader(buf);
+
+        for (byte m : MAGIC) {
+            if (r.raw() != (m & 0xFF)) {throw new IllegalArgumentException("not a flowtrack binary batch");}
+        }
+        int version = r.raw();
+        if (version != VERSION) {throw new IllegalArgumentException("unsupported binary batch version: " + version);}
+
+        Batch b = new Batch();
+        b.batchId = r.string();
+        b.deviceId = r.string();
+        b.sessionId = r.string();
+        b.source = r.string();
+        b.coordRef = r.string();
+        b.buildingId = r.string();
+        b.floorId = r.string();
+        b.mapId = r.string();
+
+        b.startTimeMs = r.zigzag();
+        b.endTimeMs = r.zigzag();
+        b.count = (int) r.zigzag();
+        int n = (int) r.varint();
+        if (n < 0 || n > MAX_POINTS) {throw new IllegalArgumentException("invalid point count: " + n);}
+
+        double xyStep = 1.0 / positive(r.varint());
+        double auxStep = 1.0 / positive(r.varint());
+        // every point takes at least one byte in each of the 7 varint columns, plus its accepted bit:
+        // a count the rest of the input can not hold is rejected before anything is allocated for it
+        if (7L * n + (n + 7) / 8 > r.remaining()) {throw new IllegalArgumentException("point count " + n + " does not fit the remaining " + r.remaining() + " bytes");}
+
+        RawPoint[] pts = new RawPoint[n];
+        long acc = 0;
+        for (int i = 0; i < n; i++) {
+            acc += r.zigzag();
+            RawPoint p = new RawPoint();
+            p.time = acc;
+            pts[i] = p;
+        }
+        acc = 0;
+        for (int i = 0; i < n; i++) { acc += r.zigzag(); pts[i].x = acc * xyStep; }
+        acc = 0;
+        for (int i = 0; i < n; i++) { acc += r.zigzag(); pts[i].y = acc * xyStep; }
+        for (int i = 0; i < n; i++) { pts[i].velocity = r.zigzag() * auxStep; }
+        acc = 0;
+        for (int i = 0; i < n; i++) { acc += r.zigzag(); pts[i].rms = acc * auxStep; }
+        for (int i = 0; i < n; i++) { pts[i].dt = r.zigzag() * auxStep; }
+        for (int i = 0; i < n; i++) { pts[i].anchorsUsed = (int) r.zigzag(); }
+
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            if ((i & 7) == 0) bits = r.raw();
+            pts[i].accepted = (bits & (1 << (i & 7))) != 0;
+        }
+
+        List<RawPoint> points = new ArrayList<RawPoint>(n);
+        for (RawPoint p : pts) points.add(p);
+        b.points = points;
+        return b;
+    }
+
+    private static long quantize(double v, int scale) {
+        return Math.round(v * scale);
+    }
+
+    private static long positive(long scale) {
+        if (scale <= 0) {throw new IllegalArgumentException("invalid quantization scale: " + scale);}
+        return scale;
+    }
+
+    /** growable output with varint helpers */
+    private static final class Writer extends ByteArrayOutputStream {
+        Writer(int size) { super(size); }
+
+        void raw(int b) { write(b); }
+
+        void bytes(byte[] b) { write(b, 0, b.length); }
+
+        void varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void zigzag(long v) { varint((v << 1) ^ (v >> 63)); }
+
+        void string(String s) {
+            if (s == null) { varint(0); return; }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length + 1L);
+            bytes(b);
+        }
+    }
+
+    /** bounds-checked cursor over the input */
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) { this.buf = buf; }
+
+        int remaining() { return buf.length - pos; }
+
+        int raw() {
+            if (pos >= buf.length) {throw new IllegalArgumentException("truncated binary batch at byte " + pos);}
+            return buf[pos++] & 0xFF;
+        }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = raw();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("malformed varint at byte " + pos);
+        }
+
+        long zigzag() {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String string() {
+            long len = varint();
+            if (len == 0) return null;
+            len -= 1;
+            if (len > MAX_STRING_BYTES || pos + len > buf.length) {throw new IllegalArgumentException("invalid string length: " + len);}
+            String s = new String(buf, pos, (int) len, StandardCharsets.UTF_8);
+            pos += (int) len;
+            return s;
+        }
+    }
+}
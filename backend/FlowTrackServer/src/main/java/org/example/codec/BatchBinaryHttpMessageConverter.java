@@ -0,0 +1,46 @@
+package org.example.codec;
+
+import org.example.model.bundle.Batch;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+
+/**
+ * lets @RequestBody Batch accept Content-Type application/x-flowtrack-batch
+ * - Spring Boot picks up HttpMessageConverter beans automatically, json stays the default
+ */
+@Component
+public class BatchBinaryHttpMessageConverter extends AbstractHttpMessageConverter<Batch> {
+
+    public static final MediaType BINARY_BATCH = MediaType.parseMediaType(BatchBinaryCodec.MEDIA_TYPE);
+
+    public BatchBinaryHttpMessageConverter() {
+        super(BINARY_BATCH);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Batch.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected Batch readInternal(Class<? extends Batch> clazz, HttpInputMessage input) throws IOException {
+        byte[] body = StreamUtils.copyToByteArray(input.getBody());
+        try {
+            return BatchBinaryCodec.decode(body);
+        } catch (IllegalArgumentException e) {
+            throw new HttpMessageNotReadableException("invalid binary batch: " + e.getMessage(), e, input);
+        }
+    }
+
+    @Override
+    protected void writeInternal(Batch batch, HttpOutputMessage output) throws IOException {
+        output.getBody().write(BatchBinaryCodec.encode(batch));
+    }
+}
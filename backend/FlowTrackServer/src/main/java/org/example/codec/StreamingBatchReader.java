@@ -0,0 +1,266 @@
+package org.example.codec;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * parse a json Batch from a stream without materializing the whole point list
+ * - points are read one by one with the Jackson streaming parser and handed out in chunks
+ * - validation runs while parsing: empty payload, and with strictCount also more points than
+ *   the declared count (as soon as it happens) and count vs actual at the end
+ *   (the prototype app still sends a fixed count, so strictCount is opt-in)
+ * - if header fields arrive after "points" (e.g. alphabetic field order), chunks are spilled
+ *   to a temp file and replayed once the header is complete, so memory stays bounded either way
+ * - an upload that produces more than one chunk is stored as parts "batchId#0", "batchId#1", ...
+ */
+public class StreamingBatchReader {
+
+    /** receives each chunk as a Batch holding the header fields and a slice of points */
+    public interface ChunkSink {
+        void accept(Batch part) throws Exception;
+    }
+
+    /** what was read, for the response */
+    public static class Result {
+        public String batchId;
+        public String deviceId;
+        public int points;
+        public int chunks;
+    }
+
+    private static final String[] HEADER_FIELDS = {
+            "batchId", "deviceId", "sessionId", "source", "coordRef",
+            "startTimeMs", "endTimeMs", "count", "buildingId", "floorId", "mapId"
+    };
+    private static final int ALL_HEADER_FIELDS = (1 << HEADER_FIELDS.length) - 1;
+
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final int chunkSize;
+    private final boolean strictCount;
+
+    public StreamingBatchReader(int chunkSize, boolean strictCount) {
+        if (chunkSize <= 0) {throw new IllegalArgumentException("chunkSize has to be > 0");}
+        this.chunkSize = chunkSize;
+        this.strictCount = strictCount;
+    }
+
+    /** wrap the raw body according to Content-Encoding (gzip, deflate, identity or null) */
+    public static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return body;
+        String enc = contentEncoding.trim().toLowerCase();
+        if (enc.isEmpty() || enc.equals("identity")) return body;
+        if (enc.equals("gzip") || enc.equals("x-gzip")) return new GZIPInputStream(body, 1 << 16);
+        if (enc.equals("deflate")) return new InflaterInputStream(body);
+        throw new IllegalArgumentException("unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    public Result read(InputStream in, ChunkSink sink) throws Exception {
+        try (JsonParser p = mapper.getFactory().createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {throw new IllegalArgumentException("invalid payload: batch has to be a json object");}
+
+            Batch header = new Batch();
+            Chunker chunker = null;
+            int seen = 0;
+
+            try {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.getCurrentName();
+                    JsonToken t = p.nextToken();
+                    int bit = headerBit(field);
+                    if (bit != 0) {
+                        readHeaderField(header, field, p, t);
+                        seen |= bit;
+                        if (strictCount && chunker != null && header.count > 0 && chunker.total > header.count) {
+                            throw new IllegalArgumentException("invalid payload: " + chunker.total + " points but count=" + header.count);
+                        }
+                    } else if (field.equals("points")) {
+                        if (t == JsonToken.VALUE_NULL) continue;
+                        if (t != JsonToken.START_ARRAY) {throw new IllegalArgumentException("invalid payload: points has to be an array");}
+                        // header complete before points: stream straight to the sink, otherwise spill
+                        chunker = new Chunker(header, sink, seen != ALL_HEADER_FIELDS);
+                        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+                            if (t == JsonToken.VALUE_NULL) continue;
+                            if (t != JsonToken.START_OBJECT) {throw new IllegalArgumentException("invalid payload: point has to be an object");}
+                            RawPoint rp = mapper.readValue(p, RawPoint.class);
+                            if (strictCount && header.count > 0 && chunker.total >= header.count) {
+                                throw new IllegalArgumentException("invalid payload: more points than count=" + header.count);
+                            }
+                            chunker.add(rp);
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+
+                if (chunker == null || chunker.total == 0) {
+                    throw new IllegalArgumentException("invalid payload: locations can not be empty");
+                }
+                if (header.count > 0 && header.count != chunker.total) {
+                    if (strictCount) {throw new IllegalArgumentException("invalid payload: " + chunker.total + " points but count=" + header.count);}
+                    System.err.println("batch " + header.batchId + ": count=" + header.count + " but " + chunker.total + " points, stored anyway");
+                }
+                chunker.finish();
+            } catch (Exception e) {
+                if (chunker != null) chunker.discard();
+                throw e;
+            }
+
+            Result r = new Result();
+            r.batchId = header.batchId;
+            r.deviceId = header.deviceId;
+            r.points = chunker.total;
+            r.chunks = chunker.emitted;
+            return r;
+        }
+    }
+
+    private static int headerBit(String field) {
+        for (int i = 0; i < HEADER_FIELDS.length; i++) {
+            if (HEADER_FIELDS[i].equals(field)) return 1 << i;
+        }
+        return 0;
+    }
+
+    private static void readHeaderField(Batch b, String field, JsonParser p, JsonToken t) throws IOException {
+        boolean isNull = t == JsonToken.VALUE_NULL;
+        switch (field) {
+            case "batchId": b.batchId = isNull ? null : p.getValueAsString(); break;
+            case "deviceId": b.deviceId = isNull ? null : p.getValueAsString(); break;
+            case "sessionId": b.sessionId = isNull ? null : p.getValueAsString(); break;
+            case "source": b.source = isNull ? null : p.getValueAsString(); break;
+            case "coordRef": b.coordRef = isNull ? null : p.getValueAsString(); break;
+            case "buildingId": b.buildingId = isNull ? null : p.getValueAsString(); break;
+            case "floorId": b.floorId = isNull ? null : p.getValueAsString(); break;
+            case "mapId": b.mapId = isNull ? null : p.getValueAsString(); break;
+            case "startTimeMs": b.startTimeMs = p.getValueAsLong(); break;
+            case "endTimeMs": b.endTimeMs = p.getValueAsLong(); break;
+            case "count": b.count = p.getValueAsInt(); break;
+            default: p.skipChildren();
+        }
+    }
+
+    /**
+     * collects points into chunks
+     * - keeps one full chunk back so a single-chunk upload keeps its original batchId
+     * - in spill mode chunks go to a temp file until finish(), when the header is known
+     */
+    private final class Chunker {
+        final Batch header;
+        final ChunkSink sink;
+        final boolean spill;
+
+        List<RawPoint> current = new ArrayList<RawPoint>();
+        List<RawPoint> held;
+        int total;
+        int emitted;
+        int spilledChunks;
+        Path spillFile;
+        DataOutputStream spillOut;
+
+        Chunker(Batch header, ChunkSink sink, boolean spill) {
+            this.header = header;
+            this.sink = sink;
+            this.spill = spill;
+        }
+
+        void add(RawPoint p) throws Exception {
+            current.add(p);
+            total++;
+            if (current.size() == chunkSize) {
+                if (spill) {
+                    spillChunk(current);
+                    current.clear();
+                } else {
+                    if (held != null) emit(held, true);
+                    held = current;
+                    current = new ArrayList<RawPoint>(chunkSize);
+                }
+            }
+        }
+
+        void finish() throws Exception {
+            if (spill) {
+                if (spillOut == null) {
+                    emit(current, false);
+                    return;
+                }
+                spillOut.close();
+                boolean multi = spilledChunks > 1 || !current.isEmpty();
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile), 1 << 16))) {
+                    for (int i = 0; i < spilledChunks; i++) emit(readChunk(in), multi);
+                } finally {
+                    Files.deleteIfExists(spillFile);
+                }
+                if (!current.isEmpty()) emit(current, multi);
+                return;
+            }
+            // parts once anything was emitted already, or when a partial chunk follows the held one
+            boolean multi = emitted > 0 || (held != null && !current.isEmpty());
+            if (held != null) emit(held, multi);
+            if (!current.isEmpty()) emit(current, multi);
+        }
+
+        void discard() throws IOException {
+            if (spillOut != null) {
+                spillOut.close();
+                Files.deleteIfExists(spillFile);
+            }
+        }
+
+        private void emit(List<RawPoint> pts, boolean asPart) throws Exception {
+            Batch part = new Batch(header.mapId, header.floorId, header.buildingId, pts.size(),
+                    pts.get(pts.size() - 1).time, pts.get(0).time, pts, header.coordRef, header.source,
+                    header.sessionId, header.deviceId, asPart ? header.batchId + "#" + emitted : header.batchId);
+            sink.accept(part);
+            emitted++;
+        }
+
+        private void spillChunk(List<RawPoint> pts) throws IOException {
+            if (spillOut == null) {
+                spillFile = Files.createTempFile("batch-stream-", ".spill");
+                spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 1 << 16));
+            }
+            spillOut.writeInt(pts.size());
+            for (RawPoint p : pts) {
+                spillOut.writeLong(p.time);
+                spillOut.writeDouble(p.x);
+                spillOut.writeDouble(p.y);
+                spillOut.writeDouble(p.velocity);
+                spillOut.writeBoolean(p.accepted);
+                spillOut.writeInt(p.anchorsUsed);
+                spillOut.writeDouble(p.rms);
+                spillOut.writeDouble(p.dt);
+            }
+            spilledChunks++;
+        }
+
+        private List<RawPoint> readChunk(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            if (n <= 0 || n > chunkSize) {throw new EOFException("corrupt spill file: " + spillFile);}
+            List<RawPoint> pts = new ArrayList<RawPoint>(n);
+            for (int i = 0; i < n; i++) {
+                pts.add(new RawPoint(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readBoolean(), in.readInt(), in.readDouble(), in.readDouble()));
+            }
+            return pts;
+        }
+    }
+}
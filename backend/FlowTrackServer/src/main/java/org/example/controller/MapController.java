@@ -0,0 +1,38 @@
+package org.example.controller;
+
+import org.example.service.tagging.MapReloader;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class MapController {
+
+    private final MapReloader reloader;
+
+    public MapController(MapReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    // rebuild one map file (?file=test_map_001.json) or every map of the map beans, calls keep running on the old maps meanwhile
+    // groundwork: the server does not tag with these beans yet, the offline analysis loads its maps itself
+    // 200: file -> reloaded / not loaded, 422 when a map failed to build (its old version stays in use)
+    @PostMapping("/maps/reload")
+    public ResponseEntity<Map<String, String>> reload(@RequestParam(value = "file", required = false) String file) {
+        Map<String, String> result;
+        if (file == null || file.isEmpty()) {
+            result = reloader.reloadAll();
+        } else {
+            result = new LinkedHashMap<String, String>();
+            result.put(file, reloader.reload(file));
+        }
+        boolean failed = false;
+        for (String r : result.values()) failed |= r.startsWith("failed");
+        return ResponseEntity.status(failed ? HttpStatus.UNPROCESSABLE_ENTITY : HttpStatus.OK).body(result);
+    }
+}
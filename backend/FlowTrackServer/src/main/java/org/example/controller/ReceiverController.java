@@ -5,7 +5,12 @@ import org.example.model.bundle.Batch;
 import org.example.model.internet.RespondToMobile;
 import org.example.service.listerning.ReceiverService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -19,17 +24,39 @@ public class ReceiverController {
     // final: can only assign onceFlowTrackServerReceiver
     // use Interface type: decouple, Controller does not care how to implement, only care about available method
     private final ReceiverService receiveService;
+    // true: queue the batch and answer 202 at once, storage is done by ingest workers
+    private final boolean asyncIngest;
 
-    public ReceiverController(ReceiverService service){
+    public ReceiverController(ReceiverService service,
+                              @Value("${flowtrack.ingest.async:false}") boolean asyncIngest){
         this.receiveService = service;
+        this.asyncIngest = asyncIngest;
     }
 
     @PostMapping("/FlowTrackServerListenerToMobile") // auto listen port:3000 with path FlowTrackServerReceiver
     // @RequestBody auto transfer HTTP body json to assigned data type: TrackBatch
     public ResponseEntity<RespondToMobile> receive(@Valid @RequestBody Batch batch) throws Exception {
+        if (asyncIngest) {
+            RespondToMobile respond = receiveService.enqueueBatchFromMobile(batch);
+            if (!respond.processResult) {
+                // queue full: tell client to back off instead of piling up request threads
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(respond.retryAfterSeconds))
+                        .body(respond);
+            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(respond);
+        }
         RespondToMobile respond = receiveService.receiveBatchFromMobile(batch);
         // ResponseEntity: state code, response head and body
         // response body transfer to json
         return ResponseEntity.ok(respond);
     }
+
+    // compressed uploads (Content-Encoding: gzip/deflate) are parsed as a stream instead of being bound to one Batch
+    @PostMapping(value = "/FlowTrackServerListenerToMobile", consumes = MediaType.APPLICATION_JSON_VALUE, headers = HttpHeaders.CONTENT_ENCODING)
+    public ResponseEntity<RespondToMobile> receiveStream(HttpServletRequest request) throws Exception {
+        RespondToMobile respond = receiveService.receiveBatchStreamFromMobile(
+                request.getInputStream(), request.getHeader(HttpHeaders.CONTENT_ENCODING));
+        return ResponseEntity.ok(respond);
+    }
 }
@@ -0,0 +1,20 @@
+package org.example.model.bundle.scriptuse;
+
+public class DoorFlow {
+    /** doorway id of the map */
+    public String door_id;
+
+    /** room on the from side of the door */
+    public String from;
+
+    /** room on the to side of the door */
+    public String to;
+
+    /** crossings from -> to */
+    public int count_forward;
+
+    /** crossings to -> from */
+    public int count_backward;
+
+    public DoorFlow(){}
+}
@@ -1,5 +1,7 @@
 package org.example.model.bundle.scriptuse;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
@@ -27,5 +29,12 @@ public class ScriptInputBundle {
      */
     public List<SwitchAggregated> rs_aggregated;
 
+    /**
+     * crossings per doorway, counted per track; null (left out of the json) when the map has no doorways
+     * or no door was crossed
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<DoorFlow> door_flows;
+
     public ScriptInputBundle(){};
 }
\ No newline at end of file
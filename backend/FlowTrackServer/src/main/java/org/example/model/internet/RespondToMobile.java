@@ -2,16 +2,43 @@ package org.example.model.internet;
 
 public class RespondToMobile {
 
+    /** batch is durable on server */
+    public static final String STATUS_STORED = "stored";
+    /** batch accepted into ingest queue, will be persisted asynchronously */
+    public static final String STATUS_QUEUED = "queued";
+    /** same deviceId + batchId was stored before, nothing written, client can drop the batch */
+    public static final String STATUS_DUPLICATE = "duplicate";
+    /** ingest queue full, client should retry after retryAfterSeconds */
+    public static final String STATUS_REJECTED = "rejected";
+
     public String packageId;
     public boolean processResult;
+    public String status;
+    /** only set when rejected */
+    public Integer retryAfterSeconds;
 
     public RespondToMobile() {}
 
     public static RespondToMobile of(String packageId, boolean processResult){
+        return of(packageId, processResult, processResult ? STATUS_STORED : STATUS_REJECTED);
+    }
+
+    public static RespondToMobile of(String packageId, boolean processResult, String status){
         RespondToMobile respond = new RespondToMobile();
         respond.packageId = packageId;
         respond.processResult = processResult;
+        respond.status = status;
+
+        return respond;
+    }
+
+    public static RespondToMobile duplicate(String packageId){
+        return of(packageId, true, STATUS_DUPLICATE);
+    }
 
+    public static RespondToMobile rejected(String packageId, int retryAfterSeconds){
+        RespondToMobile respond = of(packageId, false, STATUS_REJECTED);
+        respond.retryAfterSeconds = retryAfterSeconds;
         return respond;
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package org.example.model.map;
 
 import java.util.List;
+import java.util.Locale;
 
 public class FloorMap {
     public String map_id;
@@ -16,4 +17,13 @@ public class FloorMap {
     public List<Room> rooms;
     public List<Doorway> doorways;
     public Meta meta;
+
+    /**
+     * id as batches and map files are matched on: lower case, every run of other characters than
+     * letters and digits -> "_", no "_" at the ends ("Room 2320" and "room_2320" -> "room_2320"); null stays null
+     */
+    public static String normalizeId(String id) {
+        if (id == null) return null;
+        return id.trim().toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", "_").replaceAll("^_+|_+$", "");
+    }
 }
@@ -9,9 +9,12 @@ public  class RoomGeom {
     public final Polygon polygon;
     public final PreparedGeometry prepared;
     public final Envelope envelope;
+    /** position of the room in the floor map */
+    public final int index;
 
-    public RoomGeom(Room room, Polygon polygon, PreparedGeometry prepared) {
+    public RoomGeom(Room room, Polygon polygon, PreparedGeometry prepared, int index) {
         this.room = room;
+        this.index = index;
         this.polygon = polygon;
         this.prepared = prepared;
         this.envelope = polygon.getEnvelopeInternal();
@@ -0,0 +1,138 @@
+package org.example.model.point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * points as parallel primitive arrays (struct of arrays) instead of one object per point
+ * - index i over [0, size) is one point
+ * - roomIdx[i] points into rooms (room id dictionary), -1 = no room / not labelled yet
+ */
+public class PointBuffer {
+
+    public static final int NO_ROOM = -1;
+
+    public int size;
+    public long[] time;
+    public double[] x;
+    public double[] y;
+    public double[] velocity;
+    public double[] rms;
+    public double[] dt;
+    public int[] anchorsUsed;
+    public boolean[] accepted;
+    public int[] roomIdx;
+
+    /** room id dictionary for roomIdx */
+    private final List<String> rooms = new ArrayList<String>();
+    private final Map<String, Integer> roomIndex = new HashMap<String, Integer>();
+
+    public PointBuffer(int capacity) {
+        int c = Math.max(16, capacity);
+        time = new long[c];
+        x = new double[c];
+        y = new double[c];
+        velocity = new double[c];
+        rms = new double[c];
+        dt = new double[c];
+        anchorsUsed = new int[c];
+        accepted = new boolean[c];
+        roomIdx = new int[c];
+    }
+
+    public PointBuffer(){ this(16); }
+
+    public static PointBuffer of(List<RawPoint> points) {
+        PointBuffer b = new PointBuffer(points == null ? 0 : points.size());
+        if (points != null) {
+            for (RawPoint p : points) if (p != null) b.add(p);
+        }
+        return b;
+    }
+
+    public void add(RawPoint p) {
+        add(p.time, p.x, p.y, p.velocity, p.accepted, p.anchorsUsed, p.rms, p.dt);
+    }
+
+    public void add(long t, double px, double py, double v, boolean acc, int anchors, double r, double d) {
+        if (size == time.length) grow(size + 1);
+        int i = size++;
+        time[i] = t;
+        x[i] = px;
+        y[i] = py;
+        velocity[i] = v;
+        accepted[i] = acc;
+        anchorsUsed[i] = anchors;
+        rms[i] = r;
+        dt[i] = d;
+        roomIdx[i] = NO_ROOM;
+    }
+
+    /** copy point i of another buffer (room label included) */
+    public void add(PointBuffer src, int i) {
+        add(src.time[i], src.x[i], src.y[i], src.velocity[i], src.accepted[i], src.anchorsUsed[i], src.rms[i], src.dt[i]);
+        setRoom(size - 1, src.roomId(i));
+    }
+
+    public void clear() { size = 0; }
+
+    // ---------------- rooms ----------------
+
+    /** dictionary index of a room id, added on first use; null -> NO_ROOM */
+    public int roomIndexOf(String roomId) {
+        if (roomId == null) return NO_ROOM;
+        Integer idx = roomIndex.get(roomId);
+        if (idx == null) {
+            idx = rooms.size();
+            rooms.add(roomId);
+            roomIndex.put(roomId, idx);
+        }
+        return idx;
+    }
+
+    public void setRoom(int i, String roomId) { roomIdx[i] = roomIndexOf(roomId); }
+
+    /** room id of point i (the dictionary instance, so equal rooms are the same String), null if none */
+    public String roomId(int i) {
+        int r = roomIdx[i];
+        return r == NO_ROOM ? null : rooms.get(r);
+    }
+
+    public String roomName(int roomIndex) { return roomIndex == NO_ROOM ? null : rooms.get(roomIndex); }
+
+    public int roomCount() { return rooms.size(); }
+
+    // ---------------- conversion ----------------
+
+    public RawPoint rawPoint(int i) {
+        return new RawPoint(time[i], x[i], y[i], velocity[i], accepted[i], anchorsUsed[i], rms[i], dt[i]);
+    }
+
+    public List<RawPoint> toRawPoints() {
+        List<RawPoint> out = new ArrayList<RawPoint>(size);
+        for (int i = 0; i < size; i++) out.add(rawPoint(i));
+        return out;
+    }
+
+    public List<TaggedPoint> toTaggedPoints() {
+        List<TaggedPoint> out = new ArrayList<TaggedPoint>(size);
+        for (int i = 0; i < size; i++) out.add(new TaggedPoint(time[i], x[i], y[i], roomId(i)));
+        return out;
+    }
+
+    private void grow(int min) {
+        int c = Math.max(min, time.length + (time.length >> 1));
+        time = Arrays.copyOf(time, c);
+        x = Arrays.copyOf(x, c);
+        y = Arrays.copyOf(y, c);
+        velocity = Arrays.copyOf(velocity, c);
+        rms = Arrays.copyOf(rms, c);
+        dt = Arrays.copyOf(dt, c);
+        anchorsUsed = Arrays.copyOf(anchorsUsed, c);
+        accepted = Arrays.copyOf(accepted, c);
+        roomIdx = Arrays.copyOf(roomIdx, c);
+    }
+}
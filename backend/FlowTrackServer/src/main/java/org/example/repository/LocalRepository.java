@@ -2,7 +2,10 @@ package org.example.repository;
 
 import org.example.model.bundle.Batch;
 import org.example.model.map.FloorMap;
+import org.example.repository.columnar.ColumnarPointFile;
+import org.example.repository.partition.PartitionKey;
 
+import java.io.IOException;
 import java.util.List;
 
 
@@ -13,5 +16,22 @@ public interface LocalRepository {
 
     public List<Batch> loadBatches(String dir, int size);
 
+    /** stored batches overlapping [fromMs, toMs] (point time), ordered by start; deviceId null = every device */
+    public List<Batch> loadBatches(String deviceId, long fromMs, long toMs);
+
+    /** device/session/hour partitions holding batches that overlap [fromMs, toMs], sorted by device, session, hour */
+    public List<PartitionKey> listPartitions(long fromMs, long toMs);
+
+    /** batches of one partition ordered by start, one device's track needs no global sort */
+    public List<Batch> openPartition(PartitionKey key);
+
+    /**
+     * memory-mapped columnar copy of a partition's points (time sorted), null when the partition is not
+     * compacted into a single file yet (read it with openPartition then); the caller closes it
+     */
+    public default ColumnarPointFile openPointFile(PartitionKey key) throws IOException {
+        return null;
+    }
+
     public void saveBatches(Batch batches) throws Exception;
 }
@@ -0,0 +1,298 @@
+package org.example.repository.columnar;
+
+import org.example.model.point.RawPoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * time-sorted points in column blocks, read through a memory map
+ * - block = [time long*n][x double*n][y double*n][velocity double*n][rms double*n][dt double*n]
+ *           [anchorsUsed int*n][accepted byte*n], padded to 8 bytes
+ * - block directory after the blocks: per block [long offset][int count][long minTime][long maxTime],
+ *   so a time range skips whole blocks without touching them
+ * - then the map id and source the points were recorded with (one filter chain for the whole file):
+ *   per string [int utf8 length, -1 = null][bytes]
+ * - trailer: [long directoryOffset][long points][int blocks][int MAGIC]; little endian throughout
+ * - write once (temp + fsync + rename), files are never modified in place
+ * the cursor reads columns with absolute gets on the map: no object per point unless asked for
+ */
+public class ColumnarPointFile implements Closeable {
+
+    public static final String SUFFIX = ".cols";
+    public static final int DEFAULT_BLOCK_POINTS = 4096;
+
+    private static final int MAGIC = 0x46545043; // "FTPC"
+    private static final int TRAILER_BYTES = 24;
+    private static final int DIR_ENTRY_BYTES = 28;
+    /** bytes per point over all columns */
+    private static final int ROW_BYTES = 8 * 6 + 4 + 1;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long[] blockOffset;
+    private final int[] blockCount;
+    private final long[] blockMin;
+    private final long[] blockMax;
+    private final long points;
+    private final String mapId;
+    private final String source;
+
+    private ColumnarPointFile(Path file, FileChannel channel, MappedByteBuffer map, long[] blockOffset, int[] blockCount,
+                              long[] blockMin, long[] blockMax, long points, String mapId, String source) {
+        this.file = file;
+        this.channel = channel;
+        this.map = map;
+        this.blockOffset = blockOffset;
+        this.blockCount = blockCount;
+        this.blockMin = blockMin;
+        this.blockMax = blockMax;
+        this.points = points;
+        this.mapId = mapId;
+        this.source = source;
+    }
+
+    // ---------------- write ----------------
+
+    /** points have to be sorted by time, no map id / source */
+    public static void write(Path file, List<RawPoint> points, int blockPoints) throws IOException {
+        write(file, points, blockPoints, null, null);
+    }
+
+    /** points have to be sorted by time; mapId / source of every point, null when unknown */
+    public static void write(Path file, List<RawPoint> points, int blockPoints, String mapId, String source) throws IOException {
+        if (blockPoints <= 0) {throw new IllegalArgumentException("blockPoints has to be > 0");}
+        for (int i = 1; i < points.size(); i++) {
+            if (points.get(i).time < points.get(i - 1).time) {throw new IllegalArgumentException("points have to be sorted by time, index " + i);}
+        }
+
+        int blocks = (points.size() + blockPoints - 1) / blockPoints;
+        ByteBuffer dir = ByteBuffer.allocate(blocks * DIR_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer block = ByteBuffer.allocate(padded(Math.min(points.size(), blockPoints) * ROW_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = 0;
+            for (int from = 0; from < points.size(); from += blockPoints) {
+                int n = Math.min(blockPoints, points.size() - from);
+                block.clear();
+                for (int i = 0; i < n; i++) block.putLong(points.get(from + i).time);
+                for (int i = 0; i < n; i++) block.putDouble(points.get(from + i).x);
+                for (int i = 0; i < n; i++) block.putDouble(points.get(from + i).y);
+                for (int i = 0; i < n; i++) block.putDouble(points.get(from + i).velocity);
+                for (int i = 0; i < n; i++) block.putDouble(points.get(from + i).rms);
+                for (int i = 0; i < n; i++) block.putDouble(points.get(from + i).dt);
+                for (int i = 0; i < n; i++) block.putInt(points.get(from + i).anchorsUsed);
+                for (int i = 0; i < n; i++) block.put(points.get(from + i).accepted ? (byte) 1 : (byte) 0);
+                while (block.position() % 8 != 0) block.put((byte) 0);
+                block.flip();
+                dir.putLong(offset).putInt(n).putLong(points.get(from).time).putLong(points.get(from + n - 1).time);
+                offset += writeFully(ch, block);
+            }
+            dir.flip();
+            long dirOffset = offset;
+            writeFully(ch, dir);
+            byte[] mapBytes = mapId == null ? null : mapId.getBytes(StandardCharsets.UTF_8);
+            byte[] sourceBytes = source == null ? null : source.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer meta = ByteBuffer.allocate(8 + (mapBytes == null ? 0 : mapBytes.length) + (sourceBytes == null ? 0 : sourceBytes.length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            putString(meta, mapBytes);
+            putString(meta, sourceBytes);
+            meta.flip();
+            writeFully(ch, meta);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putLong(dirOffset).putLong(points.size()).putInt(blocks).putInt(MAGIC).flip();
+            writeFully(ch, trailer);
+            ch.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------------- read ----------------
+
+    public static ColumnarPointFile open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = ch.size();
+            if (size < TRAILER_BYTES) {throw new IOException("not a columnar point file: " + file.getFileName());}
+            if (size > Integer.MAX_VALUE) {throw new IOException("columnar point file too large to map: " + file.getFileName());}
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            int t = (int) size - TRAILER_BYTES;
+            long dirOffset = map.getLong(t);
+            long points = map.getLong(t + 8);
+            int blocks = map.getInt(t + 16);
+            long metaOffset = dirOffset + (long) blocks * DIR_ENTRY_BYTES;
+            if (map.getInt(t + 20) != MAGIC || blocks < 0 || dirOffset < 0 || metaOffset + 8 > t) {
+                throw new IOException("corrupt columnar point file: " + file.getFileName());
+            }
+            map.position((int) metaOffset);
+            String mapId = getString(map, t, file);
+            String source = getString(map, t, file);
+            if (map.position() != t) {throw new IOException("corrupt columnar point file: " + file.getFileName());}
+            long[] offset = new long[blocks];
+            int[] count = new int[blocks];
+            long[] min = new long[blocks];
+            long[] max = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                int e = (int) dirOffset + b * DIR_ENTRY_BYTES;
+                offset[b] = map.getLong(e);
+                count[b] = map.getInt(e + 8);
+                min[b] = map.getLong(e + 12);
+                max[b] = map.getLong(e + 20);
+            }
+            return new ColumnarPointFile(file, ch, map, offset, count, min, max, points, mapId, source);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public long size() { return points; }
+
+    public int blockCount() { return blockCount.length; }
+
+    public int blockSize(int block) { return blockCount[block]; }
+
+    public long blockMinTime(int block) { return blockMin[block]; }
+
+    public long blockMaxTime(int block) { return blockMax[block]; }
+
+    public Path file() { return file; }
+
+    /** map id of the points, null when unknown */
+    public String mapId() { return mapId; }
+
+    /** source of the points, null when unknown */
+    public String source() { return source; }
+
+    /** points with fromMs <= time <= toMs in time order */
+    public Cursor cursor(long fromMs, long toMs) {
+        return new Cursor(fromMs, toMs);
+    }
+
+    /** the map itself stays valid until it is garbage collected (no portable unmap on java 8) */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * reusable view of the current point, fields are overwritten by next()
+     */
+    public final class Cursor {
+        public long time;
+        public double x;
+        public double y;
+        public double velocity;
+        public double rms;
+        public double dt;
+        public int anchorsUsed;
+        public boolean accepted;
+
+        private final long fromMs;
+        private final long toMs;
+        private int block = -1;
+        private int row;
+        private int n;
+        private int base;
+
+        private Cursor(long fromMs, long toMs) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+        }
+
+        /** move to the next point in range, false when done */
+        public boolean next() {
+            while (true) {
+                if (block >= 0 && row < n) {
+                    long t = map.getLong(base + row * 8);
+                    if (t > toMs) {
+                        block = blockCount.length; // sorted: nothing after this
+                        n = 0;
+                        return false;
+                    }
+                    if (t < fromMs) {
+                        row++;
+                        continue;
+                    }
+                    load(t);
+                    row++;
+                    return true;
+                }
+                if (!nextBlock()) return false;
+            }
+        }
+
+        public RawPoint toRawPoint() {
+            return new RawPoint(time, x, y, velocity, accepted, anchorsUsed, rms, dt);
+        }
+
+        private boolean nextBlock() {
+            while (++block < blockCount.length) {
+                if (blockMax[block] < fromMs) continue;
+                if (blockMin[block] > toMs) {
+                    block = blockCount.length;
+                    return false;
+                }
+                n = blockCount[block];
+                base = (int) blockOffset[block];
+                row = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void load(long t) {
+            int i = row;
+            time = t;
+            x = map.getDouble(base + (n + i) * 8);
+            y = map.getDouble(base + (2 * n + i) * 8);
+            velocity = map.getDouble(base + (3 * n + i) * 8);
+            rms = map.getDouble(base + (4 * n + i) * 8);
+            dt = map.getDouble(base + (5 * n + i) * 8);
+            anchorsUsed = map.getInt(base + 6 * n * 8 + i * 4);
+            accepted = map.get(base + 6 * n * 8 + n * 4 + i) != 0;
+        }
+    }
+
+    private static void putString(ByteBuffer buf, byte[] utf8) {
+        buf.putInt(utf8 == null ? -1 : utf8.length);
+        if (utf8 != null) buf.put(utf8);
+    }
+
+    /** string at the map position, which moves past it; end = first byte after the metadata */
+    private static String getString(MappedByteBuffer map, int end, Path file) throws IOException {
+        if (map.position() + 4 > end) {throw new IOException("corrupt columnar point file: " + file.getFileName());}
+        int len = map.getInt();
+        if (len == -1) return null;
+        if (len < 0 || map.position() + len > end) {throw new IOException("corrupt columnar point file: " + file.getFileName());}
+        byte[] utf8 = new byte[len];
+        map.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static int padded(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static int writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        int n = buf.remaining();
+        while (buf.hasRemaining()) ch.write(buf);
+        return n;
+    }
+}
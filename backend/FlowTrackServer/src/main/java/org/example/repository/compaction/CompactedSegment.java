@@ -0,0 +1,97 @@
+package org.example.repository.compaction;
+
+import org.example.repository.log.SegmentedBatchLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip file of log-format records ([int length][int crc32][payload]...)
+ * - offsets are positions in the uncompressed stream, so one record needs a scan up to it;
+ *   bulk reads should use scan() once per file
+ * - written to a temp file, fsynced and renamed into place (never seen half written)
+ */
+public final class CompactedSegment {
+
+    public static final String SUFFIX = ".log.gz";
+
+    /** callback for scan */
+    public interface Visitor {
+        void visit(long offset, byte[] payload) throws IOException;
+    }
+
+    private CompactedSegment() {}
+
+    /** write payloads in order, returns the offset of each */
+    public static long[] write(Path file, List<byte[]> payloads) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] offsets = new long[payloads.size()];
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            GZIPOutputStream gz = new GZIPOutputStream(fos, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gz, 1 << 16));
+            long offset = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = offset;
+                offset += SegmentedBatchLog.writeRecord(out, payloads.get(i));
+            }
+            out.flush();
+            gz.finish();
+            fos.getChannel().force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return offsets;
+    }
+
+    public static void scan(Path file, Visitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16), 1 << 16))) {
+            long offset = 0;
+            byte[] payload;
+            while ((payload = SegmentedBatchLog.readRecord(in)) != null) {
+                visitor.visit(offset, payload);
+                offset += SegmentedBatchLog.HEADER_BYTES + payload.length;
+            }
+        }
+    }
+
+    public static byte[] readAt(Path file, long offset) throws IOException {
+        byte[] found;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16), 1 << 16))) {
+            long pos = 0;
+            while (pos < offset) {
+                int len = in.readInt();
+                in.readInt();
+                if (len <= 0 || pos + SegmentedBatchLog.HEADER_BYTES + len > offset) {throw new IOException("no record at " + file.getFileName() + ":" + offset);}
+                skipFully(in, len);
+                pos += SegmentedBatchLog.HEADER_BYTES + len;
+            }
+            found = SegmentedBatchLog.readRecord(in);
+        } catch (EOFException e) {
+            found = null;
+        }
+        if (found == null) {throw new IOException("no record at " + file.getFileName() + ":" + offset);}
+        return found;
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        int left = n;
+        while (left > 0) {
+            int k = in.skipBytes(left);
+            if (k <= 0) throw new EOFException();
+            left -= k;
+        }
+    }
+}
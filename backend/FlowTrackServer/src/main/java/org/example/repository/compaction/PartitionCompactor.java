@@ -0,0 +1,193 @@
+package org.example.repository.compaction;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+import org.example.repository.columnar.ColumnarPointFile;
+import org.example.repository.log.SegmentedBatchLog;
+import org.example.repository.manifest.BatchManifest;
+import org.example.repository.manifest.BatchRef;
+import org.example.repository.partition.PartitionKey;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * merges the small files of a closed partition (part_N.log from the partitioner, earlier compacted files)
+ * into one time-sorted compressed file compact_<highest id>.log.gz
+ * - closed: the partition hour ended more than graceMs ago and none of its batches is still in the log
+ * - only partitions marked dirty are looked at (markDirty, by the partitioner), plus every partition once
+ *   on the first round after a start; a round costs the partitions changed since the last one
+ * - legacy batch_*.json files (offset < 0) are never inputs: they stay where they are and are read as before
+ * - order: write temp + fsync + atomic rename, then manifest moves, then tombstone + delete inputs;
+ *   readers go through the manifest, so they see the old or the new file, never a missing batch
+ * - an input file still holding batches of another partition (name collision) is kept
+ * - next to every compacted file a columnar copy of its points (compact_<id>.cols) is written for
+ *   offline scans, it lives and dies with the compacted file; only when all batches of the partition
+ *   share one mapId and source (stored in the file, they pick the filter chain), a partition mixing them
+ *   has no columnar copy and is read batch by batch
+ * not thread safe: run it on the same single thread as the partitioner
+ */
+public class PartitionCompactor {
+
+    private final Path root;
+    private final String logSubdir;
+    private final BatchManifest manifest;
+    private final ObjectMapper mapper;
+    private final long graceMs;
+    /** partitions that got new files since they were last looked at */
+    private final TreeSet<PartitionKey> dirty = new TreeSet<PartitionKey>();
+    private boolean scanned;
+
+    public PartitionCompactor(Path root, String logSubdir, BatchManifest manifest, ObjectMapper mapper, long graceMs) {
+        this.root = root;
+        this.logSubdir = logSubdir;
+        this.manifest = manifest;
+        this.mapper = mapper;
+        this.graceMs = graceMs;
+    }
+
+    /** the partitioner wrote files of these partitions */
+    public void markDirty(Collection<PartitionKey> keys) {
+        dirty.addAll(keys);
+    }
+
+    /** compact every closed dirty partition that has more than one file or a file not compacted yet; returns partitions compacted */
+    public int compact(long nowMs) throws IOException {
+        if (!scanned) {
+            // files written before this start: look at every partition once
+            for (BatchRef ref : manifest.find(null, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                if (ref.offset >= 0) dirty.add(PartitionKey.of(ref));
+            }
+            scanned = true;
+        }
+        long cutoff = nowMs - graceMs;
+        int done = 0;
+        String logPrefix = logSubdir + "/";
+        Iterator<PartitionKey> it = dirty.iterator();
+        while (it.hasNext()) {
+            PartitionKey key = it.next();
+            if (key.hourEndMs() >= cutoff) continue; // still open, stays dirty
+            List<BatchRef> refs = new ArrayList<BatchRef>();
+            Set<String> files = new LinkedHashSet<String>();
+            boolean inLog = false;
+            for (BatchRef r : manifest.find(key.deviceId, key.hourStartMs, key.hourEndMs())) {
+                if (!key.contains(r) || r.offset < 0) continue;
+                refs.add(r);
+                files.add(r.file);
+                if (r.file.startsWith(logPrefix)) inLog = true;
+            }
+            // in the log: the partitioner marks it again once it moved the batches out
+            if (inLog || files.isEmpty() || (files.size() == 1 && files.iterator().next().endsWith(CompactedSegment.SUFFIX))) {
+                it.remove();
+                continue;
+            }
+            try {
+                compactPartition(key, refs, files);
+                done++;
+                it.remove();
+            } catch (IOException ex) {
+                // stays dirty, retried next round
+                System.err.println("fail to compact partition " + key + ", inputs kept. reason: " + ex.getMessage());
+            }
+        }
+        sweepTombstones();
+        return done;
+    }
+
+    private void compactPartition(PartitionKey key, List<BatchRef> refs, Set<String> files) throws IOException {
+        Map<String, Map<Long, byte[]>> payloadsByFile = new HashMap<String, Map<Long, byte[]>>();
+        for (String file : files) payloadsByFile.put(file, readFile(file));
+
+        List<BatchRef> sorted = new ArrayList<BatchRef>(refs);
+        sorted.sort(Comparator.comparingLong((BatchRef r) -> r.startMs).thenComparingLong(r -> r.id));
+        List<byte[]> payloads = new ArrayList<byte[]>(sorted.size());
+        long maxId = 0;
+        for (BatchRef r : sorted) {
+            byte[] p = payloadsByFile.get(r.file).get(r.offset);
+            if (p == null) {throw new IOException("batch " + r.batchId + " not found at " + r.file + ":" + r.offset);}
+            payloads.add(p);
+            maxId = Math.max(maxId, r.id);
+        }
+
+        String target = key.dirName() + "/compact_" + maxId + CompactedSegment.SUFFIX;
+        Path targetPath = root.resolve(target);
+        Files.createDirectories(targetPath.getParent());
+        long[] offsets = CompactedSegment.write(targetPath, payloads);
+
+        List<RawPoint> points = new ArrayList<RawPoint>();
+        String mapId = null, source = null;
+        boolean oneChain = true;
+        for (int i = 0; i < payloads.size(); i++) {
+            Batch b = mapper.readValue(payloads.get(i), Batch.class);
+            if (i == 0) {
+                mapId = b.mapId;
+                source = b.source;
+            } else if (!Objects.equals(mapId, b.mapId) || !Objects.equals(source, b.source)) {
+                oneChain = false;
+            }
+            if (b.points == null) continue;
+            for (RawPoint rp : b.points) if (rp != null) points.add(rp);
+        }
+        Path columns = root.resolve(columnsOf(target));
+        if (oneChain) {
+            points.sort(Comparator.comparingLong(rp -> rp.time)); // stable: equal times keep batch order
+            ColumnarPointFile.write(columns, points, ColumnarPointFile.DEFAULT_BLOCK_POINTS, mapId, source);
+        } else {
+            Files.deleteIfExists(columns);
+        }
+
+        for (int i = 0; i < sorted.size(); i++) {
+            manifest.move(sorted.get(i).id, target, offsets[i]);
+        }
+        for (String file : files) {
+            if (file.equals(target) || !manifest.inFile(file).isEmpty()) continue;
+            manifest.tombstone(file);
+            if (file.endsWith(CompactedSegment.SUFFIX)) manifest.tombstone(columnsOf(file));
+        }
+    }
+
+    /** columnar sidecar of a compacted file */
+    public static String columnsOf(String compactedFile) {
+        return compactedFile.substring(0, compactedFile.length() - CompactedSegment.SUFFIX.length()) + ColumnarPointFile.SUFFIX;
+    }
+
+    /** offset -> record payload of everything in the file */
+    private Map<Long, byte[]> readFile(String file) throws IOException {
+        final Map<Long, byte[]> out = new HashMap<Long, byte[]>();
+        Path path = root.resolve(file);
+        if (file.endsWith(CompactedSegment.SUFFIX)) {
+            CompactedSegment.scan(path, out::put);
+        } else {
+            for (BatchRef r : manifest.inFile(file)) {
+                out.put(r.offset, SegmentedBatchLog.readRecordAt(path, r.offset));
+            }
+        }
+        return out;
+    }
+
+    /** delete tombstoned files, also the ones left by a crash after the tombstone was written */
+    private void sweepTombstones() {
+        for (String file : manifest.tombstones()) {
+            if (!manifest.inFile(file).isEmpty()) continue;
+            try {
+                Files.deleteIfExists(root.resolve(file));
+                manifest.forgetTombstone(file);
+            } catch (IOException e) {
+                System.err.println("fail to delete compacted input " + file + ". reason: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package org.example.repository.dedup;
+
+import org.example.model.bundle.Batch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * idempotency index keyed on deviceId + batchId
+ * - bloom filter answers "never seen" without touching disk
+ * - key set on disk: keys.dat holds the 128 bit murmur3 fingerprint + storedAt of every live key, sorted by
+ *   fingerprint (fixed 24 byte records); a sparse index of every 64th fingerprint stays in memory, so a
+ *   lookup is one 1.5 KB block read
+ * - keys committed since the last merge are appended to keys.log and kept in a small in-memory table until a
+ *   background compaction merges them into keys.dat, dropping keys older than the retention window and
+ *   rebuilding the bloom filter (bloom can not delete)
+ * memory is the bloom filter plus about MERGE_KEYS recent keys, whatever the number of stored keys
+ *
+ * usage: reserve() before storing, then commit() after the batch is durable or release() on failure
+ */
+@Component
+public class BatchDedupIndex {
+
+    private static final String KEY_FILE = "keys.dat";
+    private static final String LOG_FILE = "keys.log";
+    /** keys.log renamed while its keys are merged */
+    private static final String FROZEN_LOG_FILE = "keys.log.merging";
+    private static final int RECORD_BYTES = 24;
+    private static final int BLOCK_RECORDS = 64;
+    /** recent keys that trigger a background merge */
+    static final int MERGE_KEYS = 10000;
+    private static final long CLOSE_WAIT_SECONDS = 60;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final long retentionMs;
+    private final long expectedKeys;
+    private final double falsePositiveRate;
+
+    private volatile BloomFilter bloom;
+    /** committed since the last merge began: key -> storedAt */
+    private volatile Map<String, Long> recent = new ConcurrentHashMap<String, Long>();
+    /** keys being merged into keys.dat, still answered from memory until the merge is published */
+    private volatile Map<String, Long> merging = Collections.emptyMap();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    /** sorted key file; lookups hold the read lock, publishing a merged file the write lock */
+    private final ReadWriteLock runLock = new ReentrantReadWriteLock();
+    private FileChannel run;
+    private long runRecords;
+    /** first fingerprint of every BLOCK_RECORDS records of keys.dat, a lookup reads one block */
+    private long[] blockH1 = new long[0], blockH2 = new long[0];
+
+    // guarded by this
+    private BufferedWriter out;
+
+    private final ScheduledExecutorService compactor;
+    /** one merge at a time */
+    private final Object compactLock = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    public BatchDedupIndex(@Value("${flowtrack.dedup.enabled:true}") boolean enabled,
+                           @Value("${flowtrack.dedup.dir:localRepository/input/batches/dedup}") String dir,
+                           @Value("${flowtrack.dedup.retention-hours:72}") long retentionHours,
+                           @Value("${flowtrack.dedup.expected-keys:1000000}") long expectedKeys,
+                           @Value("${flowtrack.dedup.false-positive-rate:0.01}") double falsePositiveRate) throws IOException {
+        this.enabled = enabled;
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.retentionMs = TimeUnit.HOURS.toMillis(Math.max(1, retentionHours));
+        this.expectedKeys = Math.max(1000, expectedKeys);
+        this.falsePositiveRate = falsePositiveRate;
+        this.bloom = new BloomFilter(this.expectedKeys, falsePositiveRate);
+        if (!enabled) {
+            this.compactor = null;
+            return;
+        }
+        load();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dedup-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        // expired keys leave keys.dat even when few new keys arrive
+        compactor.scheduleWithFixedDelay(this::compactQuietly, 1, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * deviceId|batchId, null when the batch can not be identified (never deduplicated)
+     * - the key splits at its first '|', so a deviceId holding '|' is not identified either
+     *   ("a|b" + "c" would be the key of "a" + "b|c")
+     */
+    public static String keyOf(Batch batch) {
+        if (batch == null || batch.batchId == null || batch.deviceId == null) return null;
+        if (batch.deviceId.indexOf('|') >= 0) return null;
+        String key = batch.deviceId + "|" + batch.batchId;
+        if (key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0 || key.indexOf('\t') >= 0) return null;
+        return key;
+    }
+
+    /** true if the batch may be stored now; false if it is already stored or another request is storing it */
+    public boolean reserve(String key) {
+        if (!enabled || key == null) return true;
+        if (isStored(key)) return false;
+        if (!inFlight.add(key)) return false;
+        // a commit may have landed between the check and the add
+        if (isStored(key)) {
+            inFlight.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /** batch is durable: remember the key; a full in-memory table is merged into keys.dat in the background */
+    public void commit(String key) {
+        if (!enabled || key == null) return;
+        long now = System.currentTimeMillis();
+        int size;
+        synchronized (this) {
+            // under the lock so a merge can not publish a bloom filter or rotate keys.log without this key
+            bloom.add(key);
+            recent.put(key, now);
+            inFlight.remove(key);
+            size = recent.size();
+            if (out != null) {
+                try {
+                    out.write(Long.toString(now));
+                    out.write('\t');
+                    out.write(key);
+                    out.write('\n');
+                    out.flush();
+                } catch (IOException e) {
+                    // key stays in memory until the next merge, only a restart before it could let one retry through
+                    System.err.println("fail to persist dedup key " + key + ". reason: " + e.getMessage());
+                }
+            }
+        }
+        if (size >= MERGE_KEYS && compacting.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                compacting.set(false);
+                compactQuietly();
+            });
+        }
+    }
+
+    /** storing failed: let the next retry through */
+    public void release(String key) {
+        if (!enabled || key == null) return;
+        inFlight.remove(key);
+    }
+
+    public boolean contains(String key) {
+        return enabled && key != null && isStored(key);
+    }
+
+    /** live keys in keys.dat plus keys not merged yet (keys.dat may still hold expired ones until the next merge) */
+    public long size() {
+        runLock.readLock().lock();
+        try {
+            return runRecords + recent.size() + merging.size();
+        } finally {
+            runLock.readLock().unlock();
+        }
+    }
+
+    /** keys held in memory until the next merge */
+    public int recentSize() { return recent.size() + merging.size(); }
+
+    private boolean isStored(String key) {
+        if (!bloom.mightContain(key)) return false;
+        Long at = recent.get(key);
+        if (at == null) at = merging.get(key);
+        if (at == null) at = findOnDisk(key);
+        return isLive(at);
+    }
+
+    private boolean isLive(Long storedAt) {
+        return storedAt != null && System.currentTimeMillis() - storedAt < retentionMs;
+    }
+
+    // ---------------- key file ----------------
+
+    /** storedAt of the key in keys.dat, null when absent */
+    private Long findOnDisk(String key) {
+        long[] h = BloomFilter.hash(key);
+        runLock.readLock().lock();
+        try {
+            // last block whose first key <= h, then one read of that block
+            int lo = 0, hi = blockH1.length - 1, block = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(blockH1[mid], blockH2[mid], h[0], h[1]) <= 0) {
+                    block = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (block < 0) return null;
+            long first = (long) block * BLOCK_RECORDS;
+            int records = (int) Math.min(BLOCK_RECORDS, runRecords - first);
+            ByteBuffer buf = ByteBuffer.allocate(records * RECORD_BYTES);
+            long pos = first * RECORD_BYTES;
+            while (buf.hasRemaining()) {
+                if (run.read(buf, pos + buf.position()) < 0) throw new EOFException("dedup key file truncated");
+            }
+            lo = 0;
+            hi = records - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(buf.getLong(mid * RECORD_BYTES), buf.getLong(mid * RECORD_BYTES + 8), h[0], h[1]);
+                if (c == 0) return buf.getLong(mid * RECORD_BYTES + 16);
+                if (c < 0) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            return null;
+        } catch (IOException e) {
+            // a read error must not drop a batch: treat as not stored
+            System.err.println("fail to read dedup key file. reason: " + e.getMessage());
+            return null;
+        } finally {
+            runLock.readLock().unlock();
+        }
+    }
+
+    private static int compare(long a1, long a2, long b1, long b2) {
+        int c = Long.compare(a1, b1);
+        return c != 0 ? c : Long.compare(a2, b2);
+    }
+
+    /** startup: open keys.dat, take back keys of an interrupted merge and of keys.log, then merge them */
+    private void load() throws IOException {
+        Files.createDirectories(dir);
+        Map<String, Long> pending = new ConcurrentHashMap<String, Long>();
+        readLog(dir.resolve(FROZEN_LOG_FILE), pending);
+        readLog(dir.resolve(LOG_FILE), pending);
+        recent = pending;
+        Path file = dir.resolve(KEY_FILE);
+        if (!Files.isRegularFile(file)) Files.write(file, new byte[0]);
+        openRun(file);
+        compact();
+    }
+
+    private void readLog(Path file, Map<String, Long> into) throws IOException {
+        if (!Files.isRegularFile(file)) return;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0 || tab == line.length() - 1) continue; // torn last line
+                long ts;
+                try {
+                    ts = Long.parseLong(line.substring(0, tab));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                into.merge(line.substring(tab + 1), ts, Math::max);
+            }
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            // keys stay in memory and keys.log, the next merge tries again
+            System.err.println("fail to compact dedup keys. reason: " + e.getMessage());
+        }
+    }
+
+    /**
+     * merge the in-memory keys into keys.dat, drop expired keys and rebuild the bloom filter.
+     * runs on the compactor thread (or at startup), commits only wait for the short freeze / publish steps
+     */
+    private void compact() throws IOException {
+        synchronized (compactLock) {
+            Path log = dir.resolve(LOG_FILE);
+            Path frozenLog = dir.resolve(FROZEN_LOG_FILE);
+            // 1) freeze: new commits go to a fresh table and keys.log
+            Map<String, Long> frozen;
+            synchronized (this) {
+                if (out != null) out.close();
+                out = null;
+                if (Files.exists(log)) {
+                    if (Files.exists(frozenLog)) {
+                        // leftover of a failed merge: its keys are in recent too, keep them in one file
+                        appendFile(log, frozenLog);
+                        Files.delete(log);
+                    } else {
+                        Files.move(log, frozenLog, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                frozen = recent;
+                merging = frozen;
+                recent = new ConcurrentHashMap<String, Long>();
+                out = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+
+            // 2) merge keys.dat and the frozen keys into a new sorted file, outside the lock
+            long now = System.currentTimeMillis();
+            long[][] add = new long[frozen.size()][];
+            int n = 0;
+            for (Map.Entry<String, Long> e : frozen.entrySet()) {
+                if (now - e.getValue() >= retentionMs) continue;
+                long[] h = BloomFilter.hash(e.getKey());
+                add[n++] = new long[]{h[0], h[1], e.getValue()};
+            }
+            Arrays.sort(add, 0, n, (a, b) -> compare(a[0], a[1], b[0], b[1]));
+            Path file = dir.resolve(KEY_FILE);
+            Path tmp = dir.resolve(KEY_FILE + ".tmp");
+            BloomFilter fresh = mergeRun(file, add, n, tmp, now);
+
+            // 3) publish: bloom with the keys committed meanwhile, the new file, then drop the frozen table
+            synchronized (this) {
+                for (String key : recent.keySet()) fresh.add(key);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                runLock.writeLock().lock();
+                try {
+                    if (run != null) run.close();
+                    run = null;
+                    openRun(file);
+                } finally {
+                    runLock.writeLock().unlock();
+                }
+                bloom = fresh;
+                merging = Collections.emptyMap();
+                Files.deleteIfExists(frozenLog);
+            }
+        }
+    }
+
+    /** keys.dat merged with add[0..n) into tmp, expired records dropped; the bloom filter of the result */
+    private BloomFilter mergeRun(Path file, long[][] add, int n, Path tmp, long now) throws IOException {
+        long existing;
+        runLock.readLock().lock();
+        try {
+            existing = runRecords;
+        } finally {
+            runLock.readLock().unlock();
+        }
+        BloomFilter fresh = new BloomFilter(Math.max(expectedKeys, 2L * (existing + n + recent.size())), falsePositiveRate);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+             DataOutputStream w = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            long read = 0;
+            long[] cur = null;
+            int i = 0;
+            while (true) {
+                if (cur == null && read < existing) {
+                    cur = new long[]{in.readLong(), in.readLong(), in.readLong()};
+                    read++;
+                }
+                long[] next;
+                if (cur != null && i < n) {
+                    int c = compare(cur[0], cur[1], add[i][0], add[i][1]);
+                    if (c < 0) {
+                        next = cur;
+                        cur = null;
+                    } else if (c > 0) {
+                        next = add[i++];
+                    } else {
+                        next = new long[]{cur[0], cur[1], Math.max(cur[2], add[i][2])};
+                        cur = null;
+                        i++;
+                    }
+                } else if (cur != null) {
+                    next = cur;
+                    cur = null;
+                } else if (i < n) {
+                    next = add[i++];
+                } else {
+                    break;
+                }
+                if (now - next[2] >= retentionMs) continue;
+                w.writeLong(next[0]);
+                w.writeLong(next[1]);
+                w.writeLong(next[2]);
+                fresh.add(next[0], next[1]);
+            }
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        return fresh;
+    }
+
+    /** caller holds the write lock, or runs before the index is shared */
+    private void openRun(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        long size = ch.size();
+        if (size % RECORD_BYTES != 0) {
+            ch.close();
+            throw new IOException("dedup key file size is not a multiple of " + RECORD_BYTES + ": " + file);
+        }
+        long records = size / RECORD_BYTES;
+        int blocks = (int) ((records + BLOCK_RECORDS - 1) / BLOCK_RECORDS);
+        long[] h1 = new long[blocks], h2 = new long[blocks];
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        for (int b = 0; b < blocks; b++) {
+            buf.clear();
+            long pos = (long) b * BLOCK_RECORDS * RECORD_BYTES;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) throw new EOFException("dedup key file truncated");
+            }
+            h1[b] = buf.getLong(0);
+            h2[b] = buf.getLong(8);
+        }
+        run = ch;
+        runRecords = records;
+        blockH1 = h1;
+        blockH2 = h2;
+    }
+
+    private static void appendFile(Path from, Path to) throws IOException {
+        try (FileChannel src = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long pos = 0, size = src.size();
+            while (pos < size) pos += src.transferTo(pos, size - pos, dst);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (compactor != null) {
+            // a running merge finishes, interrupting it would leave keys.log.merging for the next start
+            compactor.shutdown();
+            try {
+                if (!compactor.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    System.err.println("dedup merge still running after " + CLOSE_WAIT_SECONDS + "s, closing anyway");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+        runLock.writeLock().lock();
+        try {
+            if (run != null) run.close();
+            run = null;
+            runRecords = 0;
+            blockH1 = blockH2 = new long[0];
+        } finally {
+            runLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.repository.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free bloom filter over strings
+ * - k bit positions from double hashing of one 128-bit murmur3 hash
+ * - mightContain == false means definitely never added
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    public BloomFilter(long expectedItems, double falsePositiveRate) {
+        if (expectedItems <= 0) {throw new IllegalArgumentException("expectedItems has to be > 0");}
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {throw new IllegalArgumentException("falsePositiveRate has to be in (0,1)");}
+        long m = (long) Math.ceil(-expectedItems * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, m);
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) m / expectedItems * Math.log(2)));
+    }
+
+    public void add(String key) {
+        long[] h = hash(key);
+        add(h[0], h[1]);
+    }
+
+    /** add by the two halves of hash(key) */
+    public void add(long h1, long h2) {
+        long combined = h1;
+        for (int i = 0; i < hashCount; i++) {
+            long idx = (combined & Long.MAX_VALUE) % bitCount;
+            int word = (int) (idx >>> 6);
+            long mask = 1L << idx;
+            long cur;
+            while (((cur = bits.get(word)) & mask) == 0) {
+                if (bits.compareAndSet(word, cur, cur | mask)) break;
+            }
+            combined += h2;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long[] h = hash(key);
+        long combined = h[0];
+        for (int i = 0; i < hashCount; i++) {
+            long idx = (combined & Long.MAX_VALUE) % bitCount;
+            if ((bits.get((int) (idx >>> 6)) & (1L << idx)) == 0) return false;
+            combined += h[1];
+        }
+        return true;
+    }
+
+    /** murmur3 x64 128-bit of the UTF-8 bytes, seed 0 */
+    static long[] hash(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h1 = 0;
+        long h2 = 0;
+        int len = data.length;
+        int blocks = len / 16;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        for (int i = len - 1; i >= tail; i--) {
+            int shift = ((i - tail) & 7) * 8;
+            if (i - tail >= 8) k2 ^= (data[i] & 0xFFL) << shift;
+            else k1 ^= (data[i] & 0xFFL) << shift;
+        }
+        if (k2 != 0) { k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2; }
+        if (k1 != 0) { k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1; }
+
+        h1 ^= len; h2 ^= len;
+        h1 += h2; h2 += h1;
+        h1 = fmix(h1); h2 = fmix(h2);
+        h1 += h2; h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return (b[off] & 0xFFL) | (b[off + 1] & 0xFFL) << 8 | (b[off + 2] & 0xFFL) << 16 | (b[off + 3] & 0xFFL) << 24
+                | (b[off + 4] & 0xFFL) << 32 | (b[off + 5] & 0xFFL) << 40 | (b[off + 6] & 0xFFL) << 48 | (b[off + 7] & 0xFFL) << 56;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,276 @@
+package org.example.repository.impl;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+import org.example.repository.jdbc.JdbcSchema;
+import org.example.repository.jdbc.MultiRowInsert;
+import org.example.repository.jdbc.SimpleConnectionPool;
+import org.example.repository.manifest.BatchRef;
+import org.example.repository.partition.PartitionKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * batches and raw points in an embedded database (H2 file mode by default)
+ * - schema is the liquibase changelog, applied on startup
+ * - points are written with multi-row inserts in one transaction per batch
+ * - time range queries use the (device_id, point_start_ms) / (point_start_ms) indexes; the lower
+ *   bound is from - longest batch span, so the scan never starts at the beginning of the table
+ * - a load is two queries whatever the batch count: the headers, then their points joined on the same query
+ * - the changelog also holds ft_tagged_point / ft_stay_segment for analysis results; nothing writes them yet
+ * floor maps stay json files (MapFileRepository)
+ */
+@Repository
+@ConditionalOnProperty(name = "flowtrack.repository", havingValue = "jdbc")
+public class JdbcRepositoryImpl extends MapFileRepository {
+
+    private static final String BATCH_COLUMNS = "id, batch_id, device_id, session_id, source, coord_ref, building_id, floor_id, map_id, "
+            + "start_time_ms, end_time_ms, declared_count, point_count";
+
+    private final SimpleConnectionPool pool;
+    private final MultiRowInsert<RawPoint> rawPointInsert;
+    /** longest point_end_ms - point_start_ms of any stored batch */
+    private final AtomicLong maxBatchSpanMs = new AtomicLong();
+
+    public JdbcRepositoryImpl(@Value("${flowtrack.jdbc.url:jdbc:h2:file:./localRepository/db/flowtrack}") String url,
+                              @Value("${flowtrack.jdbc.user:sa}") String user,
+                              @Value("${flowtrack.jdbc.password:}") String password,
+                              @Value("${flowtrack.jdbc.pool-size:4}") int poolSize,
+                              @Value("${flowtrack.jdbc.insert-rows:200}") int insertRows) throws SQLException {
+        this.pool = new SimpleConnectionPool(url, user, password, poolSize);
+        JdbcSchema.migrate(pool.open());
+
+        this.rawPointInsert = new MultiRowInsert<RawPoint>("ft_raw_point",
+                new String[]{"batch_pk", "seq", "t", "x", "y", "velocity", "accepted", "anchors_used", "rms", "dt"}, insertRows);
+
+        maxBatchSpanMs.set(pool.execute(c -> queryLong(c, "SELECT COALESCE(MAX(point_end_ms - point_start_ms), 0) FROM ft_batch")));
+    }
+
+    // ---------------- batches ----------------
+
+    @Override
+    public void saveBatches(Batch batch) throws Exception {
+        if (batch == null) {throw new IllegalArgumentException("batch can not be null");}
+        final BatchRef ref = BatchRef.of(batch);
+        final List<RawPoint> points = new ArrayList<RawPoint>(batch.points == null ? 0 : batch.points.size());
+        if (batch.points != null) {
+            for (RawPoint p : batch.points) if (p != null) points.add(p);
+        }
+
+        // raised first: a query running while this commits must still reach back far enough
+        maxBatchSpanMs.accumulateAndGet(ref.endMs - ref.startMs, Math::max);
+        pool.inTransaction(c -> {
+            long pk;
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO ft_batch (batch_id, device_id, session_id, source, coord_ref, "
+                    + "building_id, floor_id, map_id, start_time_ms, end_time_ms, declared_count, point_start_ms, point_end_ms, point_count, stored_at) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+                int i = 1;
+                setString(ps, i++, batch.batchId);
+                setString(ps, i++, batch.deviceId);
+                setString(ps, i++, batch.sessionId);
+                setString(ps, i++, batch.source);
+                setString(ps, i++, batch.coordRef);
+                setString(ps, i++, batch.buildingId);
+                setString(ps, i++, batch.floorId);
+                setString(ps, i++, batch.mapId);
+                ps.setLong(i++, batch.startTimeMs);
+                ps.setLong(i++, batch.endTimeMs);
+                ps.setInt(i++, batch.count);
+                ps.setLong(i++, ref.startMs);
+                ps.setLong(i++, ref.endMs);
+                ps.setInt(i++, ref.count);
+                ps.setLong(i, System.currentTimeMillis());
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (!keys.next()) {throw new SQLException("no generated key for batch " + batch.batchId);}
+                    pk = keys.getLong(1);
+                }
+            }
+            final long batchPk = pk;
+            final int[] seq = {0};
+            rawPointInsert.insert(c, points, (ps, i, p) -> {
+                ps.setLong(i++, batchPk);
+                ps.setInt(i++, seq[0]++);
+                ps.setLong(i++, p.time);
+                ps.setDouble(i++, p.x);
+                ps.setDouble(i++, p.y);
+                ps.setDouble(i++, p.velocity);
+                ps.setBoolean(i++, p.accepted);
+                ps.setInt(i++, p.anchorsUsed);
+                ps.setDouble(i++, p.rms);
+                ps.setDouble(i++, p.dt);
+                return i;
+            });
+            return null;
+        });
+    }
+
+    /** dir is a file repository path and is ignored here: the first `size` stored batches */
+    @Override
+    public List<Batch> loadBatches(String dir, int size) {
+        if (size <= 0) {throw new IllegalArgumentException("size has to larger > 0");}
+        return queryBatches("SELECT " + BATCH_COLUMNS + " FROM ft_batch ORDER BY id FETCH FIRST ? ROWS ONLY", (long) size);
+    }
+
+    @Override
+    public List<Batch> loadBatches(String deviceId, long fromMs, long toMs) {
+        if (fromMs > toMs) return new ArrayList<Batch>();
+        StringBuilder sql = new StringBuilder("SELECT ").append(BATCH_COLUMNS).append(" FROM ft_batch WHERE ");
+        List<Object> params = new ArrayList<Object>(4);
+        if (deviceId != null) {
+            sql.append("device_id = ? AND ");
+            params.add(deviceId);
+        }
+        sql.append("point_start_ms >= ? AND point_start_ms <= ? AND point_end_ms >= ? ORDER BY point_start_ms, id");
+        params.add(lowerBound(fromMs, maxBatchSpanMs.get()));
+        params.add(toMs);
+        params.add(fromMs);
+        return queryBatches(sql.toString(), params.toArray());
+    }
+
+    @Override
+    public List<PartitionKey> listPartitions(long fromMs, long toMs) {
+        final TreeSet<PartitionKey> keys = new TreeSet<PartitionKey>();
+        if (fromMs > toMs) return new ArrayList<PartitionKey>();
+        try {
+            pool.execute(c -> {
+                try (PreparedStatement ps = c.prepareStatement("SELECT device_id, session_id, point_start_ms FROM ft_batch "
+                        + "WHERE point_start_ms >= ? AND point_start_ms <= ? AND point_end_ms >= ?")) {
+                    ps.setLong(1, lowerBound(fromMs, maxBatchSpanMs.get()));
+                    ps.setLong(2, toMs);
+                    ps.setLong(3, fromMs);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) keys.add(new PartitionKey(rs.getString(1), rs.getString(2), rs.getLong(3)));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("fail to list partitions", e);
+        }
+        return new ArrayList<PartitionKey>(keys);
+    }
+
+    @Override
+    public List<Batch> openPartition(PartitionKey key) {
+        if (key == null) {throw new IllegalArgumentException("partition key can not be null");}
+        StringBuilder sql = new StringBuilder("SELECT ").append(BATCH_COLUMNS).append(" FROM ft_batch WHERE ");
+        List<Object> params = new ArrayList<Object>(4);
+        if (key.deviceId == null) {
+            sql.append("device_id IS NULL AND ");
+        } else {
+            sql.append("device_id = ? AND ");
+            params.add(key.deviceId);
+        }
+        if (key.sessionId == null) {
+            sql.append("session_id IS NULL AND ");
+        } else {
+            sql.append("session_id = ? AND ");
+            params.add(key.sessionId);
+        }
+        sql.append("point_start_ms >= ? AND point_start_ms <= ? ORDER BY point_start_ms, id");
+        params.add(key.hourStartMs);
+        params.add(key.hourEndMs());
+        return queryBatches(sql.toString(), params.toArray());
+    }
+
+    /**
+     * batch headers, then the points of all of them in one join against the same header query; no ORDER BY
+     * (it would sort every point), each point goes to its seq slot of its batch
+     */
+    private List<Batch> queryBatches(final String sql, final Object... params) {
+        try {
+            return pool.execute(c -> {
+                List<Batch> out = new ArrayList<Batch>();
+                Map<Long, RawPoint[]> pointsByPk = new HashMap<Long, RawPoint[]>();
+                List<Long> pks = new ArrayList<Long>();
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    bindAll(ps, params);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            long pk = rs.getLong(1);
+                            pks.add(pk);
+                            pointsByPk.put(pk, new RawPoint[rs.getInt(13)]);
+                            out.add(new Batch(rs.getString(9), rs.getString(8), rs.getString(7), rs.getInt(12), rs.getLong(11),
+                                    rs.getLong(10), null, rs.getString(6), rs.getString(5), rs.getString(4), rs.getString(3), rs.getString(2)));
+                        }
+                    }
+                }
+                if (out.isEmpty()) return out;
+                try (PreparedStatement ps = c.prepareStatement("SELECT p.batch_pk, p.seq, p.t, p.x, p.y, p.velocity, p.accepted, "
+                        + "p.anchors_used, p.rms, p.dt FROM (" + sql + ") b JOIN ft_raw_point p ON p.batch_pk = b.id")) {
+                    bindAll(ps, params);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            long pk = rs.getLong(1);
+                            int seq = rs.getInt(2);
+                            RawPoint[] points = pointsByPk.get(pk);
+                            if (points == null) continue; // stored after the header query ran
+                            if (seq >= points.length) {
+                                points = Arrays.copyOf(points, seq + 1);
+                                pointsByPk.put(pk, points);
+                            }
+                            points[seq] = new RawPoint(rs.getLong(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6),
+                                    rs.getBoolean(7), rs.getInt(8), rs.getDouble(9), rs.getDouble(10));
+                        }
+                    }
+                }
+                for (int b = 0; b < out.size(); b++) {
+                    RawPoint[] points = pointsByPk.get(pks.get(b));
+                    List<RawPoint> list = new ArrayList<RawPoint>(points.length);
+                    for (RawPoint p : points) if (p != null) list.add(p);
+                    out.get(b).points = list;
+                }
+                return out;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("fail to load batches: " + sql, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.close();
+    }
+
+    // ---------------- helpers ----------------
+
+    private static long lowerBound(long fromMs, long span) {
+        return fromMs - span < fromMs ? fromMs - span : Long.MIN_VALUE;
+    }
+
+    private static long queryLong(Connection c, String sql) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static void bindAll(PreparedStatement ps, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object p = params[i];
+            if (p instanceof Long) ps.setLong(i + 1, (Long) p);
+            else setString(ps, i + 1, (String) p);
+        }
+    }
+
+    private static void setString(PreparedStatement ps, int i, String s) throws SQLException {
+        if (s == null) ps.setNull(i, Types.VARCHAR);
+        else ps.setString(i, s);
+    }
+}
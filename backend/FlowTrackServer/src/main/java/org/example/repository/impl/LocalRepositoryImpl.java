@@ -1,140 +1,59 @@
 package org.example.repository.impl;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import org.example.model.bundle.Batch;
-import org.example.model.map.FloorMap;
-import org.example.model.map.Meta;
-import org.example.model.map.Room;
-import org.example.model.map.Vertex;
-import org.example.repository.LocalRepository;
+import org.example.repository.columnar.ColumnarPointFile;
+import org.example.repository.compaction.CompactedSegment;
+import org.example.repository.compaction.PartitionCompactor;
+import org.example.repository.log.LogPosition;
+import org.example.repository.log.SegmentedBatchLog;
+import org.example.repository.manifest.BatchManifest;
+import org.example.repository.manifest.BatchRef;
+import org.example.repository.partition.BatchPartitioner;
+import org.example.repository.partition.PartitionKey;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
-import com.opencsv.CSVReader;
-import java.io.File;
-import java.io.FileReader;
+import javax.annotation.PreDestroy;
 import java.nio.file.*;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Instant;
-import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Repository
-public class LocalRepositoryImpl implements LocalRepository {
-
-    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-    @Override
-    public void loadCsv()  throws Exception{
-
-        String inputDir = "localRepository/input/csv";
-        String outputDir = "localRepository/input/maps";
-
-        File folder = new File(inputDir);
-        if (!folder.exists() || !folder.isDirectory()) {throw new IllegalArgumentException("Input directory does not exist: " + inputDir);}
-
-        File outFolder = new File(outputDir);
-        if (!outFolder.exists()) {outFolder.mkdirs();}
-
-        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
-
-        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".csv"));
-        if (files == null || files.length == 0) {System.out.println("No CSV files found in: " + inputDir);return;}
-
-        for (File csvFile : files) {
-            FloorMap floorMap = new FloorMap();
-            try (CSVReader reader = new CSVReader(new FileReader(csvFile))) {
-                String[] line;
-
-                while ((line = reader.readNext()) != null) {
-                    if (line.length == 0 || line[0].trim().equalsIgnoreCase("id")) {
-                        break;
-                    }
-                    String key = line[0].trim();
-                    String value = (line.length > 1) ? line[1].trim() : "";
-
-                    switch (key) {
-                        case "map_id": floorMap.map_id = value; break;
-                        case "floor_id": floorMap.floor_id = value; break;
-                        case "building_id": floorMap.building_id = value; break;
-                        case "name": floorMap.name = value; break;
-                        case "description": floorMap.description = value; break;
-                        case "units": floorMap.units = value; break;
-                        case "crs": floorMap.crs = value; break;
-                        case "meta_version":
-                            if (floorMap.meta == null) floorMap.meta = new Meta();
-                            floorMap.meta.map_version = value;
-                            break;
-                        case "meta_author":
-                            if (floorMap.meta == null) floorMap.meta = new Meta();
-                            floorMap.meta.author = value;
-                            break;
-                    }
-                }
-
-                if (floorMap.meta == null) floorMap.meta = new Meta();
-                floorMap.meta.created_at = LocalDate.now().toString();
-                floorMap.rooms = new ArrayList<>();
-                floorMap.doorways = new ArrayList<>();
-
-                while ((line = reader.readNext()) != null) {
-                    if (line.length == 0) continue;
-
-                    Room room = new Room();
-                    room.id = line[0];
-                    room.name = line[1];
-                    room.type = line[2];
-                    room.vertices = new ArrayList<>();
-
-                    for (int i = 3; i < line.length; i += 2) {
-                        if (i + 1 >= line.length || line[i].isEmpty() || line[i+1].isEmpty()) break;
-                        double x = Double.parseDouble(line[i]);
-                        double y = Double.parseDouble(line[i + 1]);
-                        room.vertices.add(new Vertex(x, y));
-                    }
-                    floorMap.rooms.add(room);
-                }
-            }
-
-            String baseName = (floorMap.name != null && !floorMap.name.isEmpty())
-                    ? floorMap.name
-                    : csvFile.getName().replace(".csv", "");
-
-            File outFile = new File(outputDir, baseName + ".json");
-            mapper.writeValue(outFile, floorMap);
-
-            System.out.println("Converted: " + csvFile.getName() + " → " + outFile.getAbsolutePath());
-        }
-    }
-
-    @Override
-    public FloorMap loadMapSetting(String dir, String fileName){
-
-        if (dir == null || dir.isEmpty()) {throw new IllegalArgumentException("dir cannot be empty");}
-        if (fileName == null || fileName.isEmpty()) {throw new IllegalArgumentException("fileName cannot be empty");}
-        if (!fileName.toLowerCase().endsWith(".json")) {throw new IllegalArgumentException("fileName has to be .json file");}
-
-        Path folder = Paths.get(dir);
-        if (!Files.isDirectory(folder)) {throw new IllegalStateException("directory do not exist: " + folder.toAbsolutePath());}
-
-        Path jsonPath = folder.resolve(fileName);
-        if (!Files.isRegularFile(jsonPath)) {throw new IllegalStateException("file do not exist: " + jsonPath.toAbsolutePath());}
-
-        try (BufferedReader reader = Files.newBufferedReader(jsonPath, StandardCharsets.UTF_8)) {
-            // JSON file to FloorMap model
-            return mapper.readValue(reader, FloorMap.class);
-        } catch (IOException e) {
-            throw new RuntimeException("read or map JSON fail: " + jsonPath.toAbsolutePath(), e);
-        }
-    }
+@ConditionalOnProperty(name = "flowtrack.repository", havingValue = "file", matchIfMissing = true)
+public class LocalRepositoryImpl extends MapFileRepository {
+
+    /** incoming batches are appended to a segmented log under the batch dir */
+    public static final String BATCH_DIR = "localRepository/input/batches";
+    public static final String BATCH_LOG_SUBDIR = "log";
+    private static final long LOG_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long LOG_SEGMENT_AGE_MS = 10 * 60 * 1000;
+    private static final int LOG_GROUP_COMMIT_MAX = 1024;
+    /** a partition is compacted once its hour ended this long ago */
+    private static final long COMPACT_GRACE_MS = 60 * 60 * 1000;
+    private static final long COMPACT_INTERVAL_MS = 10 * 60 * 1000;
+
+    // opened on first write, read-only users (offline analysis) never start the writer thread
+    private volatile SegmentedBatchLog batchLog;
+    // opened on first write or first indexed read
+    private volatile BatchManifest manifest;
+    // one background thread: sealed log segments -> device/session/hour partitions, then periodic compaction
+    private volatile ScheduledExecutorService storageWorker;
 
     @Override
     public List<Batch> loadBatches(String dir, int size){
@@ -144,6 +63,12 @@ public class LocalRepositoryImpl implements LocalRepository {
         Path folder = Paths.get(dir);
         if (!Files.isDirectory(folder)) {throw new IllegalStateException("directory does not exist: " + folder.toAbsolutePath());}
 
+        // once indexed, batches may have moved into partitions / compacted files: the manifest knows where
+        if (folder.toAbsolutePath().normalize().equals(batchRoot()) && BatchManifest.exists(batchRoot())) {
+            BatchManifest m = manifestOrFail();
+            return readBatches(m, m.oldest(size));
+        }
+
         try {
             List<Path> files = new ArrayList<Path>();
             try (DirectoryStream<Path> ds = Files.newDirectoryStream(folder, "*.json")) {
@@ -151,22 +76,33 @@ public class LocalRepositoryImpl implements LocalRepository {
                     if (Files.isRegularFile(p)) files.add(p);
                 }
             }
-            if (files.isEmpty()) {return new ArrayList<Batch>();}
-            files.sort(new Comparator<Path>() {
-                @Override public int compare(Path a, Path b) {
-                    try {
-                        long ta = Files.getLastModifiedTime(a).toMillis();
-                        long tb = Files.getLastModifiedTime(b).toMillis();
-                        return Long.compare(ta, tb);
-                    } catch (IOException e) { return 0; }
+            // stat every file once and keep only the `size` oldest in a bounded max-heap
+            PriorityQueue<FileAge> newest = new PriorityQueue<FileAge>(Math.min(size, files.size()) + 1, new Comparator<FileAge>() {
+                @Override public int compare(FileAge a, FileAge b) { return Long.compare(b.mtime, a.mtime); }
+            });
+            for (Path f : files) {
+                long mtime;
+                try {
+                    mtime = Files.getLastModifiedTime(f).toMillis();
+                } catch (IOException e) { mtime = Long.MAX_VALUE; }
+                if (newest.size() < size) {
+                    newest.add(new FileAge(f, mtime));
+                } else if (mtime < newest.peek().mtime) {
+                    newest.poll();
+                    newest.add(new FileAge(f, mtime));
                 }
+            }
+            List<FileAge> picked = new ArrayList<FileAge>(newest);
+            picked.sort(new Comparator<FileAge>() {
+                @Override public int compare(FileAge a, FileAge b) { return Long.compare(a.mtime, b.mtime); }
             });
 
-            int n = Math.min(size, files.size());
-            List<Batch> out = new ArrayList<Batch>(n);
+            int n = picked.size();
+            final List<Batch> out = new ArrayList<Batch>(n);
 
+            // 1) legacy one-file-per-batch json
             for (int i = 0; i < n; i++) {
-                Path f = files.get(i);
+                Path f = picked.get(i).path;
                 try (BufferedReader reader = Files.newBufferedReader(f, StandardCharsets.UTF_8)) {
                     Batch tb = mapper.readValue(reader, Batch.class);
                     out.add(tb);
@@ -174,26 +110,278 @@ public class LocalRepositoryImpl implements LocalRepository {
                     System.err.println("fail to read batch list, skipped: " + f.toAbsolutePath() + ". reason: " + e.getMessage());
                 }
             }
+
+            // 2) batch log, in append order
+            Path logDir = folder.resolve(BATCH_LOG_SUBDIR);
+            if (out.size() < size && Files.isDirectory(logDir)) {
+                final int limit = size;
+                try {
+                    SegmentedBatchLog.scan(logDir, (pos, payload) -> {
+                        if (out.size() >= limit) throw new ScanLimitReached();
+                        try {
+                            out.add(mapper.readValue(payload, Batch.class));
+                        } catch (IOException e) {
+                            System.err.println("fail to read batch record, skipped: " + pos + ". reason: " + e.getMessage());
+                        }
+                    });
+                } catch (ScanLimitReached ignored) {
+                    // enough batches
+                }
+            }
             return out;
         } catch (IOException e) {
             throw new RuntimeException("fail to read directory: " + folder.toAbsolutePath(), e);
         }
     }
 
+    @Override
+    public List<Batch> loadBatches(String deviceId, long fromMs, long toMs) {
+        BatchManifest m = manifestOrFail();
+        return readBatches(m, m.find(deviceId, fromMs, toMs));
+    }
+
+    @Override
+    public List<PartitionKey> listPartitions(long fromMs, long toMs) {
+        TreeSet<PartitionKey> keys = new TreeSet<PartitionKey>();
+        for (BatchRef ref : manifestOrFail().find(null, fromMs, toMs)) keys.add(PartitionKey.of(ref));
+        return new ArrayList<PartitionKey>(keys);
+    }
+
+    @Override
+    public List<Batch> openPartition(PartitionKey key) {
+        if (key == null) {throw new IllegalArgumentException("partition key can not be null");}
+        BatchManifest m = manifestOrFail();
+        List<BatchRef> refs = new ArrayList<BatchRef>();
+        for (BatchRef ref : m.find(key.deviceId, key.hourStartMs, key.hourEndMs())) {
+            if (key.contains(ref)) refs.add(ref);
+        }
+        return readBatches(m, refs);
+    }
+
+    @Override
+    public ColumnarPointFile openPointFile(PartitionKey key) throws IOException {
+        if (key == null) {throw new IllegalArgumentException("partition key can not be null");}
+        BatchManifest m = manifestOrFail();
+        String file = null;
+        for (BatchRef ref : m.find(key.deviceId, key.hourStartMs, key.hourEndMs())) {
+            if (!key.contains(ref)) continue;
+            if (!ref.file.endsWith(CompactedSegment.SUFFIX) || (file != null && !file.equals(ref.file))) return null;
+            file = ref.file;
+        }
+        if (file == null) return null;
+        try {
+            return ColumnarPointFile.open(m.root().resolve(PartitionCompactor.columnsOf(file)));
+        } catch (NoSuchFileException e) {
+            return null; // recompacted meanwhile
+        }
+    }
+
     @Override
     public void saveBatches(Batch batch) throws Exception{
+        // compact json, one log record per batch; returns once the record is fsynced (group commit)
+        // the manifest entry is added by the log writer right after the fsync, in log order
+        byte[] record = mapper.writeValueAsBytes(batch);
+        batchLog().append(record, BatchRef.of(batch));
+    }
 
-        final Path OUTPUT_DIR = Paths.get("localRepository","input","maps").toAbsolutePath().normalize();
-        final ObjectMapper om = new ObjectMapper();
+    /** in ref order; each compressed file is decompressed once for all refs pointing into it */
+    private List<Batch> readBatches(BatchManifest m, List<BatchRef> refs) {
+        Map<String, Map<Long, byte[]>> compacted = new HashMap<String, Map<Long, byte[]>>();
+        for (BatchRef ref : refs) {
+            if (!ref.file.endsWith(CompactedSegment.SUFFIX) || compacted.containsKey(ref.file)) continue;
+            Map<Long, byte[]> records = new HashMap<Long, byte[]>();
+            try {
+                CompactedSegment.scan(m.root().resolve(ref.file), records::put);
+            } catch (IOException e) {
+                // recompacted meanwhile or unreadable: fall back to one read per ref
+            }
+            compacted.put(ref.file, records);
+        }
 
-        String fname = "batch_" + Instant.now().toEpochMilli() + ".json";
-        String json = om.writerWithDefaultPrettyPrinter().writeValueAsString(batch);// transfer TrackBatch to json
+        List<Batch> out = new ArrayList<Batch>(refs.size());
+        for (BatchRef ref : refs) {
+            try {
+                Map<Long, byte[]> records = compacted.get(ref.file);
+                byte[] payload = records == null ? null : records.get(ref.offset);
+                out.add(payload != null ? mapper.readValue(payload, Batch.class) : readBatch(m, ref));
+            } catch (IOException e) {
+                System.err.println("fail to read batch " + ref.batchId + " at " + ref.file + ":" + ref.offset + ", skipped. reason: " + e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    /** a partitioner or compactor may move the record between lookup and read: look it up once more */
+    private Batch readBatch(BatchManifest m, BatchRef ref) throws IOException {
+        try {
+            return readBatchAt(m.root(), ref);
+        } catch (NoSuchFileException e) {
+            BatchRef moved = m.get(ref.id);
+            if (moved == null || moved.file.equals(ref.file)) throw e;
+            return readBatchAt(m.root(), moved);
+        }
+    }
+
+    private Batch readBatchAt(Path root, BatchRef ref) throws IOException {
+        Path file = root.resolve(ref.file);
+        if (ref.offset < 0) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                return mapper.readValue(reader, Batch.class);
+            }
+        }
+        if (ref.file.endsWith(CompactedSegment.SUFFIX)) {
+            return mapper.readValue(CompactedSegment.readAt(file, ref.offset), Batch.class);
+        }
+        return mapper.readValue(SegmentedBatchLog.readRecordAt(file, ref.offset), Batch.class);
+    }
+
+    private BatchManifest manifestOrFail() {
+        try {
+            return manifest();
+        } catch (IOException e) {
+            throw new RuntimeException("fail to open batch manifest: " + batchRoot(), e);
+        }
+    }
+
+    private SegmentedBatchLog batchLog() throws IOException {
+        SegmentedBatchLog log = batchLog;
+        if (log == null) {
+            synchronized (this) {
+                log = batchLog;
+                if (log == null) {
+                    final BatchManifest m = manifest();
+                    Path logDir = batchRoot().resolve(BATCH_LOG_SUBDIR);
+                    log = new SegmentedBatchLog(logDir, LOG_SEGMENT_BYTES, LOG_SEGMENT_AGE_MS, LOG_GROUP_COMMIT_MAX);
+                    log.setCommitListener((pos, attachment) -> {
+                        try {
+                            m.add(((BatchRef) attachment).at(logFile(pos), pos.offset));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+
+                    final BatchPartitioner partitioner = new BatchPartitioner(m.root(), BATCH_LOG_SUBDIR, m);
+                    final PartitionCompactor compactor = new PartitionCompactor(m.root(), BATCH_LOG_SUBDIR, m, mapper, COMPACT_GRACE_MS);
+                    final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "batch-storage");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    log.setSealListener(id -> worker.execute(() -> partition(partitioner, compactor, id)));
+                    // segments left by the previous run are sealed already
+                    for (long id : log.sealedSegments()) worker.execute(() -> partition(partitioner, compactor, id));
+                    // same thread as the partitioner, so the two never touch a partition at once
+                    worker.scheduleWithFixedDelay(() -> compact(compactor, m), COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    storageWorker = worker;
+                    batchLog = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * open the manifest and catch it up with what is on disk
+     * - first run (no manifest yet): index the legacy batch_*.json files once
+     * - every run: index log records written after the last indexed position (crash between fsync and manifest write)
+     */
+    private BatchManifest manifest() throws IOException {
+        BatchManifest m = manifest;
+        if (m == null) {
+            synchronized (this) {
+                m = manifest;
+                if (m == null) {
+                    Path root = batchRoot();
+                    boolean firstRun = !BatchManifest.exists(root);
+                    m = BatchManifest.open(root);
+                    if (firstRun) indexLegacyFiles(m, root);
+
+                    final BatchManifest target = m;
+                    LogPosition last = m.lastLogPosition(BATCH_LOG_SUBDIR);
+                    SegmentedBatchLog.scanAfter(root.resolve(BATCH_LOG_SUBDIR), last, (pos, payload) -> {
+                        try {
+                            target.add(BatchRef.of(mapper.readValue(payload, Batch.class)).at(logFile(pos), pos.offset));
+                        } catch (IOException e) {
+                            System.err.println("fail to index batch record " + pos + ", skipped. reason: " + e.getMessage());
+                        }
+                    });
+                    manifest = m;
+                }
+            }
+        }
+        return m;
+    }
+
+    private static void partition(BatchPartitioner partitioner, PartitionCompactor compactor, long segmentId) {
+        try {
+            compactor.markDirty(partitioner.partition(segmentId));
+        } catch (IOException | RuntimeException e) {
+            // the segment stays in the log and is picked up again on the next start
+            System.err.println("fail to partition batch log segment " + segmentId + ". reason: " + e.getMessage());
+        }
+    }
+
+    private static void compact(PartitionCompactor compactor, BatchManifest manifest) {
+        try {
+            int n = compactor.compact(System.currentTimeMillis());
+            if (n > 0) System.out.println("compacted " + n + " batch partitions");
+            if (manifest.checkpointIfGrown()) System.out.println("batch manifest rewritten, " + manifest.lines() + " lines");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("batch compaction failed, retried next round. reason: " + e.getMessage());
+        }
+    }
+
+    private void indexLegacyFiles(BatchManifest m, Path root) throws IOException {
+        if (!Files.isDirectory(root)) return;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root, "*.json")) {
+            for (Path p : ds) {
+                try (BufferedReader reader = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                    m.add(BatchRef.of(mapper.readValue(reader, Batch.class)).at(p.getFileName().toString(), -1));
+                } catch (IOException e) {
+                    System.err.println("fail to index batch file, skipped: " + p.toAbsolutePath() + ". reason: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static Path batchRoot() {
+        return Paths.get(BATCH_DIR).toAbsolutePath().normalize();
+    }
+
+    private static String logFile(LogPosition pos) {
+        return BATCH_LOG_SUBDIR + "/" + SegmentedBatchLog.segmentFileName(pos.segment);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        SegmentedBatchLog log = batchLog;
+        if (log != null) log.close();
+        ScheduledExecutorService worker = storageWorker;
+        if (worker != null) {
+            // no interrupt: it would close a partition file channel mid-write; pending compaction rounds are dropped
+            worker.shutdown();
+            try {
+                worker.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        BatchManifest m = manifest;
+        if (m != null) m.close();
+    }
+
+    private static final class FileAge {
+        final Path path;
+        final long mtime;
+
+        FileAge(Path path, long mtime) {
+            this.path = path;
+            this.mtime = mtime;
+        }
+    }
 
-        Files.write(
-                OUTPUT_DIR.resolve(fname),
-                json.getBytes(StandardCharsets.UTF_8),
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING
-        );
+    /** stop a log scan early */
+    private static final class ScanLimitReached extends RuntimeException {
+        ScanLimitReached() { super(null, null, false, false); }
     }
 }
@@ -0,0 +1,42 @@
+package org.example.repository.jdbc;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.LiquibaseException;
+import liquibase.resource.ClassLoaderResourceAccessor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/** brings the database schema up to the changelog on the classpath (no spring-jdbc, so no boot auto-config) */
+public final class JdbcSchema {
+
+    public static final String CHANGELOG = "db/changelog/flowtrack-changelog.xml";
+
+    private JdbcSchema() {}
+
+    /** runs pending change sets; closes the connection */
+    public static void migrate(Connection connection) {
+        Database db = null;
+        try {
+            db = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            try (Liquibase liquibase = new Liquibase(CHANGELOG, new ClassLoaderResourceAccessor(JdbcSchema.class.getClassLoader()), db)) {
+                liquibase.update(new Contexts(), new LabelExpression());
+            }
+        } catch (LiquibaseException e) {
+            throw new IllegalStateException("database schema migration failed: " + CHANGELOG, e);
+        } finally {
+            if (db == null) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // nothing left to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.repository.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * INSERT INTO t (c1..cn) VALUES (?..?), (?..?), ... with rowsPerStatement rows per statement
+ * - full statements share one PreparedStatement and go to the driver as one jdbc batch
+ * - the remainder is a single shorter statement
+ * one round trip per jdbc batch instead of one per row
+ */
+public class MultiRowInsert<T> {
+
+    /** binds one row starting at parameter index idx, returns the next free index */
+    public interface RowBinder<T> {
+        int bind(PreparedStatement ps, int idx, T row) throws SQLException;
+    }
+
+    /** full statements per executeBatch */
+    private static final int STATEMENTS_PER_BATCH = 16;
+
+    private final String prefix;
+    private final String rowPlaceholders;
+    private final int rowsPerStatement;
+    private final String fullSql;
+
+    public MultiRowInsert(String table, String[] columns, int rowsPerStatement) {
+        if (columns.length == 0) {throw new IllegalArgumentException("columns can not be empty");}
+        if (rowsPerStatement <= 0) {throw new IllegalArgumentException("rowsPerStatement has to be > 0");}
+        this.prefix = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ";
+        StringBuilder row = new StringBuilder(columns.length * 3 + 2).append('(');
+        for (int i = 0; i < columns.length; i++) row.append(i == 0 ? "?" : ", ?");
+        this.rowPlaceholders = row.append(')').toString();
+        this.rowsPerStatement = rowsPerStatement;
+        this.fullSql = sql(rowsPerStatement);
+    }
+
+    /** insert every row on the given connection, returns the number of rows written */
+    public int insert(Connection c, List<T> rows, RowBinder<T> binder) throws SQLException {
+        int n = rows.size();
+        int full = n / rowsPerStatement;
+        int i = 0;
+        if (full > 0) {
+            try (PreparedStatement ps = c.prepareStatement(fullSql)) {
+                for (int s = 0; s < full; s++) {
+                    int idx = 1;
+                    for (int r = 0; r < rowsPerStatement; r++) idx = binder.bind(ps, idx, rows.get(i++));
+                    ps.addBatch();
+                    if ((s + 1) % STATEMENTS_PER_BATCH == 0) ps.executeBatch();
+                }
+                if (full % STATEMENTS_PER_BATCH != 0) ps.executeBatch();
+            }
+        }
+        int rest = n - i;
+        if (rest > 0) {
+            try (PreparedStatement ps = c.prepareStatement(sql(rest))) {
+                int idx = 1;
+                while (i < n) idx = binder.bind(ps, idx, rows.get(i++));
+                ps.executeUpdate();
+            }
+        }
+        return n;
+    }
+
+    private String sql(int rows) {
+        StringBuilder sb = new StringBuilder(prefix.length() + rows * (rowPlaceholders.length() + 2));
+        sb.append(prefix);
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) sb.append(", ");
+            sb.append(rowPlaceholders);
+        }
+        return sb.toString();
+    }
+}
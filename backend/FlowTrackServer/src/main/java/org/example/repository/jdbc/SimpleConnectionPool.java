@@ -0,0 +1,133 @@
+package org.example.repository.jdbc;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * small fixed-size connection pool over DriverManager
+ * - at most maxSize connections exist, callers wait up to 30 s for one
+ * - a connection that failed to roll back is dropped instead of returned
+ */
+public class SimpleConnectionPool implements Closeable {
+
+    /** unit of work on one connection */
+    public interface SqlWork<T> {
+        T run(Connection c) throws SQLException;
+    }
+
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Semaphore permits;
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+    private volatile boolean closed;
+
+    public SimpleConnectionPool(String url, String user, String password, int maxSize) {
+        if (url == null || url.trim().isEmpty()) {throw new IllegalArgumentException("jdbc url can not be empty");}
+        if (maxSize <= 0) {throw new IllegalArgumentException("pool size has to be > 0");}
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /** fresh connection outside the pool (schema migration), caller closes it */
+    public Connection open() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /** autocommit work */
+    public <T> T execute(SqlWork<T> work) throws SQLException {
+        return run(work, false);
+    }
+
+    /** work in one transaction, rolled back on any exception */
+    public <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        return run(work, true);
+    }
+
+    private <T> T run(SqlWork<T> work, boolean transactional) throws SQLException {
+        Connection c = borrow();
+        boolean healthy = true;
+        try {
+            if (transactional) c.setAutoCommit(false);
+            T result = work.run(c);
+            if (transactional) c.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            if (transactional) {
+                try {
+                    c.rollback();
+                } catch (SQLException re) {
+                    healthy = false;
+                    e.addSuppressed(re);
+                }
+            }
+            throw e;
+        } finally {
+            giveBack(c, healthy, transactional);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        if (closed) {throw new SQLException("connection pool is closed");}
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("no database connection available after " + BORROW_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a database connection", e);
+        }
+        try {
+            Connection c;
+            while ((c = idle.poll()) != null) {
+                if (!c.isClosed()) return c;
+            }
+            return open();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void giveBack(Connection c, boolean healthy, boolean resetAutoCommit) {
+        try {
+            if (healthy && !closed && resetAutoCommit) c.setAutoCommit(true);
+            if (healthy && !closed && !c.isClosed()) {
+                idle.add(c);
+                return;
+            }
+            c.close();
+        } catch (SQLException e) {
+            try {
+                c.close();
+            } catch (SQLException ignored) {
+                // already broken
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection c;
+        while ((c = idle.poll()) != null) {
+            try {
+                c.close();
+            } catch (SQLException e) {
+                System.err.println("fail to close database connection: " + e.getMessage());
+            }
+        }
+    }
+}
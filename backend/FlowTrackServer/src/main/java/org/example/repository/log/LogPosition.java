@@ -0,0 +1,17 @@
+package org.example.repository.log;
+
+/** address of one record inside a segmented log: segment id + byte offset of the record header */
+public class LogPosition {
+    public final long segment;
+    public final long offset;
+
+    public LogPosition(long segment, long offset) {
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+    @Override
+    public String toString() {
+        return segment + ":" + offset;
+    }
+}
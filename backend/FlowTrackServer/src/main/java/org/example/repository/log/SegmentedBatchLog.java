@@ -0,0 +1,519 @@
+package org.example.repository.log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * append-only log split into segment files (segment_000...N.log)
+ * - record = [int length][int crc32(payload)][payload]
+ * - one writer thread drains all pending appends, writes them and fsyncs once (group commit)
+ * - segment rolls over when it is larger than maxSegmentBytes or older than maxSegmentAgeMs, only between
+ *   written records: a group that would overflow it is written in parts, one per segment
+ * - on open, the torn tail of the newest segment (crash during write) is truncated
+ * - an optional CommitListener sees every record after its fsync, in log order, on the writer thread;
+ *   when it throws, that record's append fails (the bytes stay in the segment, unreferenced)
+ * - an optional SealListener is told when a segment is closed for good (rolled over), segments left
+ *   from a previous run are all sealed, see sealedSegments()
+ */
+public class SegmentedBatchLog implements Closeable {
+
+    public static final String SEGMENT_PREFIX = "segment_";
+    public static final String SEGMENT_SUFFIX = ".log";
+
+    public static final int HEADER_BYTES = 8;
+    /** guard against reading garbage length as a huge allocation */
+    static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMs;
+    private final int maxGroupSize;
+
+    private final BlockingQueue<PendingAppend> pending = new LinkedBlockingQueue<PendingAppend>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile CommitListener listener;
+    private volatile SealListener sealListener;
+
+    // writer thread state only (currentId is also read by sealedSegments)
+    private FileChannel current;
+    private volatile long currentId;
+    private long currentSize;
+    private long currentOpenedAt;
+    private final List<Long> sealedUnannounced = new ArrayList<Long>(2);
+
+    public SegmentedBatchLog(Path dir, long maxSegmentBytes, long maxSegmentAgeMs, int maxGroupSize) throws IOException {
+        if (maxSegmentBytes <= HEADER_BYTES) {throw new IllegalArgumentException("maxSegmentBytes too small: " + maxSegmentBytes);}
+        if (maxGroupSize <= 0) {throw new IllegalArgumentException("maxGroupSize has to be > 0");}
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.maxGroupSize = maxGroupSize;
+
+        Files.createDirectories(dir);
+        long lastId = recover(dir);
+        openSegment(lastId + 1);
+
+        this.writer = new Thread(this::writeLoop, "batch-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /** append one record and block until it is durable on disk */
+    public LogPosition append(byte[] payload) throws IOException {
+        return append(payload, null);
+    }
+
+    /** attachment is handed back to the CommitListener together with the record position */
+    public LogPosition append(byte[] payload, Object attachment) throws IOException {
+        try {
+            return appendAsync(payload, attachment).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for log commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("log append failed", cause);
+        }
+    }
+
+    /** append one record, future completes after the group containing it is fsynced */
+    public CompletableFuture<LogPosition> appendAsync(byte[] payload) {
+        return appendAsync(payload, null);
+    }
+
+    public synchronized CompletableFuture<LogPosition> appendAsync(byte[] payload, Object attachment) {
+        CompletableFuture<LogPosition> f = new CompletableFuture<LogPosition>();
+        if (payload == null || payload.length == 0 || payload.length > MAX_RECORD_BYTES) {
+            f.completeExceptionally(new IllegalArgumentException("invalid record size: " + (payload == null ? -1 : payload.length)));
+            return f;
+        }
+        if (!running) {
+            f.completeExceptionally(new IOException("log is closed: " + dir.toAbsolutePath()));
+            return f;
+        }
+        pending.add(new PendingAppend(payload, attachment, f));
+        return f;
+    }
+
+    /** read every committed record, oldest first */
+    public void scan(RecordVisitor visitor) throws IOException {
+        scan(dir, visitor);
+    }
+
+    /** read every readable record of the log in dir, stops each segment at its first torn record */
+    public static void scan(Path dir, RecordVisitor visitor) throws IOException {
+        scanAfter(dir, null, visitor);
+    }
+
+    /** like scan, but only records strictly after the given position (null = from the start) */
+    public static void scanAfter(Path dir, LogPosition after, RecordVisitor visitor) throws IOException {
+        for (long id : listSegmentIds(dir)) {
+            if (after != null && id < after.segment) continue;
+            final long segment = id;
+            scanSegment(dir, id, (pos, payload) -> {
+                if (after == null || segment > after.segment || pos.offset > after.offset) {
+                    visitor.visit(pos, payload);
+                }
+            });
+        }
+    }
+
+    /** read every readable record of one segment, stops at the first torn record */
+    public static void scanSegment(Path dir, long id, RecordVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(dir, id)), 1 << 16))) {
+            long offset = 0;
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                visitor.visit(new LogPosition(id, offset), payload);
+                offset += HEADER_BYTES + payload.length;
+            }
+        }
+    }
+
+    /** random read of one record */
+    public byte[] read(LogPosition pos) throws IOException {
+        return read(dir, pos);
+    }
+
+    public static byte[] read(Path dir, LogPosition pos) throws IOException {
+        return readRecordAt(segmentPath(dir, pos.segment), pos.offset);
+    }
+
+    /** read one record from any file written in the log record format */
+    public static byte[] readRecordAt(Path file, long offset) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(ch, header, offset);
+            header.flip();
+            int len = header.getInt();
+            int crc = header.getInt();
+            if (len <= 0 || len > MAX_RECORD_BYTES) {throw new IOException("corrupt record length at " + file.getFileName() + ":" + offset);}
+            ByteBuffer body = ByteBuffer.allocate(len);
+            readFully(ch, body, offset + HEADER_BYTES);
+            byte[] payload = body.array();
+            if (crc(payload) != crc) {throw new IOException("crc mismatch at " + file.getFileName() + ":" + offset);}
+            return payload;
+        }
+    }
+
+    /** write one record at the channel position in the log record format, returns bytes written */
+    public static int writeRecord(FileChannel ch, byte[] payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(payload.length).putInt(crc(payload)).flip();
+        ByteBuffer body = ByteBuffer.wrap(payload);
+        while (header.hasRemaining() || body.hasRemaining()) {
+            ch.write(new ByteBuffer[]{header, body});
+        }
+        return HEADER_BYTES + payload.length;
+    }
+
+    /** same record format on a stream (e.g. a compressed segment) */
+    public static int writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.writeInt(crc(payload));
+        out.write(payload);
+        return HEADER_BYTES + payload.length;
+    }
+
+    /** ids of segments on disk that no longer receive appends, oldest first */
+    public List<Long> sealedSegments() throws IOException {
+        long active = currentId;
+        List<Long> ids = listSegmentIds(dir);
+        List<Long> out = new ArrayList<Long>(ids.size());
+        for (long id : ids) {
+            if (id < active) out.add(id);
+        }
+        return out;
+    }
+
+    public void setCommitListener(CommitListener listener) { this.listener = listener; }
+
+    public void setSealListener(SealListener sealListener) { this.sealListener = sealListener; }
+
+    public Path dir() { return dir; }
+
+    @Override
+    public void close() throws IOException {
+        // no interrupt: it would close the channel in the middle of a write
+        synchronized (this) {
+            running = false;
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------- writer thread ----------------
+
+    private void writeLoop() {
+        List<PendingAppend> group = new ArrayList<PendingAppend>(maxGroupSize);
+        while (running || !pending.isEmpty()) {
+            try {
+                PendingAppend first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    rollIfOld();
+                    continue;
+                }
+                group.add(first);
+                pending.drainTo(group, maxGroupSize - 1);
+                commit(group);
+            } catch (InterruptedException e) {
+                // unexpected interrupt: stop accepting, drain what is queued
+                running = false;
+            } catch (IOException e) {
+                System.err.println("batch log rollover failed: " + e.getMessage());
+            } finally {
+                group.clear();
+            }
+        }
+        try {
+            if (current != null) {
+                current.force(true);
+                current.close();
+            }
+        } catch (IOException e) {
+            System.err.println("fail to close batch log segment: " + e.getMessage());
+        }
+        PendingAppend left;
+        while ((left = pending.poll()) != null) {
+            left.future.completeExceptionally(new IOException("log is closed"));
+        }
+    }
+
+    /**
+     * write the group and fsync once, then release all waiting callers
+     * - a group that does not fit the segment is split where it would overflow, the segment rolls between the
+     *   parts, so a failed write only ever has to be cut off the segment it went to
+     */
+    private void commit(List<PendingAppend> group) {
+        int from = 0;
+        while (from < group.size()) {
+            int to = fitting(group, from);
+            if (to == from) {
+                try {
+                    roll();
+                } catch (IOException e) {
+                    if (!current.isOpen()) running = false;
+                    for (PendingAppend a : group.subList(from, group.size())) a.future.completeExceptionally(e);
+                    break;
+                }
+                continue;
+            }
+            if (!commitPart(group.subList(from, to))) {
+                IOException closed = new IOException("log is closed: " + dir.toAbsolutePath());
+                for (PendingAppend a : group.subList(to, group.size())) a.future.completeExceptionally(closed);
+                break;
+            }
+            from = to;
+        }
+        announceSealed();
+    }
+
+    /** end of the records from 'from' on that still fit the current segment; an empty segment takes at least one */
+    private int fitting(List<PendingAppend> group, int from) {
+        long size = currentSize;
+        int to = from;
+        while (to < group.size()) {
+            int recordBytes = HEADER_BYTES + group.get(to).payload.length;
+            if (size > 0 && size + recordBytes > maxSegmentBytes) break;
+            size += recordBytes;
+            to++;
+        }
+        return to;
+    }
+
+    /** one part of a group, all in the current segment; false when the log can not take further writes */
+    private boolean commitPart(List<PendingAppend> part) {
+        List<LogPosition> positions = new ArrayList<LogPosition>(part.size());
+        long partStartSize = currentSize;
+        try {
+            for (PendingAppend a : part) {
+                positions.add(new LogPosition(currentId, currentSize));
+                currentSize += writeRecord(current, a.payload);
+            }
+            current.force(false);
+        } catch (IOException e) {
+            // drop the partial part so later records are not hidden behind garbage
+            boolean usable = true;
+            try {
+                current.truncate(partStartSize);
+                current.position(partStartSize);
+                currentSize = partStartSize;
+            } catch (IOException ignored) {
+                running = false;
+                usable = false;
+            }
+            for (PendingAppend a : part) a.future.completeExceptionally(e);
+            return usable;
+        }
+        CommitListener l = listener;
+        for (int i = 0; i < part.size(); i++) {
+            if (l != null) {
+                try {
+                    l.committed(positions.get(i), part.get(i).attachment);
+                } catch (RuntimeException e) {
+                    // durable but not indexed: the caller must not report it stored, a retry stores it again
+                    System.err.println("batch log commit listener failed at " + positions.get(i) + ": " + e.getMessage());
+                    part.get(i).future.completeExceptionally(
+                            new IOException("record written at " + positions.get(i) + " but commit listener failed: " + e.getMessage(), e));
+                    continue;
+                }
+            }
+            part.get(i).future.complete(positions.get(i));
+        }
+        return true;
+    }
+
+    private void rollIfOld() throws IOException {
+        if (maxSegmentAgeMs > 0 && currentSize > 0 && System.currentTimeMillis() - currentOpenedAt >= maxSegmentAgeMs) {
+            roll();
+            announceSealed();
+        }
+    }
+
+    private void roll() throws IOException {
+        current.force(true);
+        current.close();
+        sealedUnannounced.add(currentId);
+        openSegment(currentId + 1);
+    }
+
+    /** after the commit listener saw the records, so a seal listener finds them indexed */
+    private void announceSealed() {
+        if (sealedUnannounced.isEmpty()) return;
+        SealListener l = sealListener;
+        for (long id : sealedUnannounced) {
+            if (l == null) break;
+            try {
+                l.sealed(id);
+            } catch (RuntimeException e) {
+                System.err.println("batch log seal listener failed for segment " + id + ": " + e.getMessage());
+            }
+        }
+        sealedUnannounced.clear();
+    }
+
+    private void openSegment(long id) throws IOException {
+        this.current = FileChannel.open(segmentPath(dir, id),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.currentId = id;
+        this.currentSize = 0;
+        this.currentOpenedAt = System.currentTimeMillis();
+    }
+
+    // ---------------- recovery ----------------
+
+    /** truncate torn tail of the newest segment, drop empty segments, return highest segment id (0 if none) */
+    private static long recover(Path dir) throws IOException {
+        List<Long> ids = listSegmentIds(dir);
+        if (ids.isEmpty()) return 0;
+
+        long lastId = ids.get(ids.size() - 1);
+        Path last = segmentPath(dir, lastId);
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(last), 1 << 16))) {
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                valid += HEADER_BYTES + payload.length;
+            }
+        }
+        long size = Files.size(last);
+        if (valid < size) {
+            System.err.println("batch log: truncating torn tail of " + last.getFileName() + " at " + valid + " (was " + size + ")");
+            try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE)) {
+                ch.truncate(valid);
+                ch.force(true);
+            }
+        }
+        for (long id : ids) {
+            Path seg = segmentPath(dir, id);
+            if (Files.size(seg) == 0) Files.delete(seg);
+        }
+        return lastId;
+    }
+
+    /** next record of a stream, null on clean EOF or torn/corrupt record */
+    public static byte[] readRecord(DataInputStream in) throws IOException {
+        int len;
+        int crc;
+        try {
+            len = in.readInt();
+            crc = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (len <= 0 || len > MAX_RECORD_BYTES) return null;
+        byte[] payload = new byte[len];
+        if (!readFully(in, payload)) return null;
+        if (crc(payload) != crc) return null;
+        return payload;
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int n = in.read(buf, off, buf.length - off);
+            if (n < 0) return false;
+            off += n;
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new EOFException("unexpected end of segment at " + pos);
+            pos += n;
+        }
+    }
+
+    static List<Long> listSegmentIds(Path dir) throws IOException {
+        List<Long> ids = new ArrayList<Long>();
+        if (!Files.isDirectory(dir)) return ids;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : ds) {
+                long id = segmentIdOf(p.getFileName().toString());
+                if (id >= 0) ids.add(id);
+                else System.err.println("batch log: ignore unknown file " + p.getFileName());
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    public static Path segmentPath(Path dir, long id) {
+        return dir.resolve(segmentFileName(id));
+    }
+
+    public static String segmentFileName(long id) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    /** segment id of a segment file name, -1 if it is not one */
+    public static long segmentIdOf(String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /** callback for scan */
+    public interface RecordVisitor {
+        void visit(LogPosition position, byte[] payload) throws IOException;
+    }
+
+    /** called on the writer thread after fsync, in log order, before the appender is released */
+    public interface CommitListener {
+        void committed(LogPosition position, Object attachment);
+    }
+
+    /** called on the writer thread right after a segment is closed and the next one is open; keep it short */
+    public interface SealListener {
+        void sealed(long segmentId);
+    }
+
+    private static final class PendingAppend {
+        final byte[] payload;
+        final Object attachment;
+        final CompletableFuture<LogPosition> future;
+
+        PendingAppend(byte[] payload, Object attachment, CompletableFuture<LogPosition> future) {
+            this.payload = payload;
+            this.attachment = attachment;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package org.example.repository.manifest;
+
+import org.example.repository.log.LogPosition;
+import org.example.repository.log.SegmentedBatchLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * index of every stored batch (device, session, time span, file/offset)
+ * - kept in memory as start-time trees (global and per device), so a time range lookup is
+ *   O(log n + hits) instead of a directory listing
+ * - persisted as an append-only manifest.log of tab separated lines:
+ *   A (added, with its first location), M (moved to another file/offset, e.g. into a partition),
+ *   T (tombstone: file holds nothing live any more and is to be deleted) and H (log high water, see
+ *   lastLogPosition, written by a checkpoint)
+ * - checkpointIfGrown() rewrites manifest.log as one A line per batch at its current location once moves
+ *   made it more than twice as long as that
+ */
+public class BatchManifest implements Closeable {
+
+    public static final String MANIFEST_FILE = "manifest.log";
+    private static final String OP_ADD = "A";
+    private static final String OP_MOVE = "M";
+    private static final String OP_TOMBSTONE = "T";
+    private static final String OP_HIGH_WATER = "H";
+    /** checkpointIfGrown() leaves manifests with fewer lines alone */
+    private static final long CHECKPOINT_MIN_LINES = 10000;
+
+    private final Path root;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private final TreeMap<Long, List<BatchRef>> byStart = new TreeMap<Long, List<BatchRef>>();
+    private final Map<String, TreeMap<Long, List<BatchRef>>> byDevice = new HashMap<String, TreeMap<Long, List<BatchRef>>>();
+    private final Map<Long, BatchRef> byId = new HashMap<Long, BatchRef>();
+    /** file -> id -> ref of the batches currently stored in it */
+    private final Map<String, Map<Long, BatchRef>> byFile = new HashMap<String, Map<Long, BatchRef>>();
+    /** highest log position ever added per log dir, moves do not lower it */
+    private final Map<String, LogPosition> logHighWater = new HashMap<String, LogPosition>();
+    /** tombstoned files not confirmed deleted yet */
+    private final Set<String> tombstones = new LinkedHashSet<String>();
+    /** longest endMs - startMs, bounds how far back a range query has to look */
+    private final Map<String, Long> maxSpanByDevice = new HashMap<String, Long>();
+    private long maxSpan;
+    private long nextId = 1;
+    private int size;
+    private long lines;
+    private BufferedWriter out;
+
+    private BatchManifest(Path root) {
+        this.root = root;
+    }
+
+    /** load root/manifest.log (created if missing) */
+    public static BatchManifest open(Path root) throws IOException {
+        BatchManifest m = new BatchManifest(root);
+        Files.createDirectories(root);
+        Path file = root.resolve(MANIFEST_FILE);
+        if (Files.isRegularFile(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    m.lines++;
+                    if (line.startsWith(OP_HIGH_WATER + "\t")) {
+                        m.applyHighWater(line);
+                        continue;
+                    }
+                    if (line.startsWith(OP_MOVE + "\t")) {
+                        m.applyMove(line);
+                        continue;
+                    }
+                    if (line.startsWith(OP_TOMBSTONE + "\t")) {
+                        m.tombstones.add(unescape(line.substring(OP_TOMBSTONE.length() + 1)));
+                        continue;
+                    }
+                    BatchRef ref = parse(line);
+                    if (ref == null) continue; // torn or unknown line
+                    m.index(ref);
+                    m.nextId = Math.max(m.nextId, ref.id + 1);
+                }
+            }
+        }
+        m.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return m;
+    }
+
+    public static boolean exists(Path root) {
+        return Files.isRegularFile(root.resolve(MANIFEST_FILE));
+    }
+
+    /** assign an id, persist and index; returns the stored ref */
+    public BatchRef add(BatchRef ref) throws IOException {
+        lock.writeLock().lock();
+        try {
+            BatchRef stored = ref.withId(nextId++);
+            out.write(format(stored));
+            out.write('\n');
+            out.flush();
+            lines++;
+            index(stored);
+            return stored;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** record that batch id now lives at file/offset (the old location may be deleted afterwards) */
+    public BatchRef move(long id, String file, long offset) throws IOException {
+        lock.writeLock().lock();
+        try {
+            BatchRef old = byId.get(id);
+            if (old == null) {throw new IllegalArgumentException("unknown batch ref id: " + id);}
+            out.write(OP_MOVE + "\t" + id + "\t" + escape(file) + "\t" + offset);
+            out.write('\n');
+            out.flush();
+            lines++;
+            return relocate(old, file, offset);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** mark a file for deletion; call once nothing in the manifest points into it */
+    public void tombstone(String file) throws IOException {
+        lock.writeLock().lock();
+        try {
+            out.write(OP_TOMBSTONE + "\t" + escape(file));
+            out.write('\n');
+            out.flush();
+            lines++;
+            tombstones.add(file);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** tombstoned files that may still exist on disk */
+    public List<String> tombstones() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<String>(tombstones);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** the file is gone */
+    public void forgetTombstone(String file) {
+        lock.writeLock().lock();
+        try {
+            tombstones.remove(file);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public BatchRef get(long id) {
+        lock.readLock().lock();
+        try {
+            return byId.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** batches currently stored in the given file, by offset */
+    public List<BatchRef> inFile(String file) {
+        List<BatchRef> out;
+        lock.readLock().lock();
+        try {
+            Map<Long, BatchRef> refs = byFile.get(file);
+            if (refs == null) return new ArrayList<BatchRef>();
+            out = new ArrayList<BatchRef>(refs.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        out.sort((a, b) -> Long.compare(a.offset, b.offset));
+        return out;
+    }
+
+    /** batches overlapping [fromMs, toMs], ordered by start time; deviceId null = all devices */
+    public List<BatchRef> find(String deviceId, long fromMs, long toMs) {
+        List<BatchRef> out = new ArrayList<BatchRef>();
+        if (fromMs > toMs) return out;
+        lock.readLock().lock();
+        try {
+            TreeMap<Long, List<BatchRef>> tree;
+            long span;
+            if (deviceId == null) {
+                tree = byStart;
+                span = maxSpan;
+            } else {
+                tree = byDevice.get(deviceId);
+                if (tree == null) return out;
+                span = maxSpanByDevice.get(deviceId);
+            }
+            long lowest = fromMs - span < fromMs ? fromMs - span : Long.MIN_VALUE;
+            NavigableMap<Long, List<BatchRef>> range = tree.subMap(lowest, true, toMs, true);
+            for (List<BatchRef> refs : range.values()) {
+                for (BatchRef r : refs) {
+                    if (r.overlaps(fromMs, toMs)) out.add(r);
+                }
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** first n batches by start time */
+    public List<BatchRef> oldest(int n) {
+        List<BatchRef> out = new ArrayList<BatchRef>(Math.max(0, Math.min(n, 1024)));
+        lock.readLock().lock();
+        try {
+            for (List<BatchRef> refs : byStart.values()) {
+                for (BatchRef r : refs) {
+                    if (out.size() >= n) return out;
+                    out.add(r);
+                }
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> devices() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<String>(byDevice.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** highest log position ever added under logDir (e.g. "log"), null if none: everything after it is not indexed yet */
+    public LogPosition lastLogPosition(String logDir) {
+        lock.readLock().lock();
+        try {
+            return logHighWater.get(logDir);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Path root() { return root; }
+
+    /**
+     * rewrite manifest.log when it has more than twice as many lines as live entries: one A line per batch
+     * at its current location, the open tombstones and the log high water, then swap it in atomically.
+     * blocks writers while it runs; call it from a background thread. true when rewritten
+     */
+    public boolean checkpointIfGrown() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long live = (long) size + tombstones.size() + logHighWater.size();
+            if (lines <= Math.max(CHECKPOINT_MIN_LINES, 2 * live)) return false;
+            Path file = root.resolve(MANIFEST_FILE);
+            Path tmp = root.resolve(MANIFEST_FILE + ".tmp");
+            long written = 0;
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                // high water first: the A lines below carry current locations, mostly no log position any more
+                for (Map.Entry<String, LogPosition> e : logHighWater.entrySet()) {
+                    w.write(OP_HIGH_WATER + "\t" + escape(e.getKey()) + "\t" + e.getValue().segment + "\t" + e.getValue().offset);
+                    w.write('\n');
+                    written++;
+                }
+                for (List<BatchRef> refs : byStart.values()) {
+                    for (BatchRef r : refs) {
+                        w.write(format(r));
+                        w.write('\n');
+                        written++;
+                    }
+                }
+                for (String t : tombstones) {
+                    w.write(OP_TOMBSTONE + "\t" + escape(t));
+                    w.write('\n');
+                    written++;
+                }
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            out.close();
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                lines = written;
+            } finally {
+                // the new file, or the old one when the swap failed
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** lines in manifest.log */
+    public long lines() {
+        lock.readLock().lock();
+        try {
+            return lines;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------- index ----------------
+
+    private void index(BatchRef ref) {
+        byId.put(ref.id, ref);
+        putFile(ref);
+        trackLogPosition(ref);
+        put(byStart, ref);
+        String device = deviceKey(ref.deviceId);
+        TreeMap<Long, List<BatchRef>> tree = byDevice.get(device);
+        if (tree == null) {
+            tree = new TreeMap<Long, List<BatchRef>>();
+            byDevice.put(device, tree);
+        }
+        put(tree, ref);
+        long span = Math.max(0, ref.endMs - ref.startMs);
+        maxSpan = Math.max(maxSpan, span);
+        Long cur = maxSpanByDevice.get(device);
+        if (cur == null || cur < span) maxSpanByDevice.put(device, span);
+        size++;
+    }
+
+    /** swap the ref for its relocated copy in every index */
+    private BatchRef relocate(BatchRef old, String file, long offset) {
+        BatchRef moved = old.at(file, offset);
+        byId.put(old.id, moved);
+        Map<Long, BatchRef> inOld = byFile.get(old.file);
+        if (inOld != null) {
+            inOld.remove(old.id);
+            if (inOld.isEmpty()) byFile.remove(old.file);
+        }
+        putFile(moved);
+        replace(byStart, old, moved);
+        replace(byDevice.get(deviceKey(old.deviceId)), old, moved);
+        return moved;
+    }
+
+    private void applyMove(String line) {
+        String[] f = line.split("\t", -1);
+        if (f.length != 4) return;
+        try {
+            BatchRef old = byId.get(Long.parseLong(f[1]));
+            if (old != null) relocate(old, unescape(f[2]), Long.parseLong(f[3]));
+        } catch (NumberFormatException ignored) {
+            // torn line
+        }
+    }
+
+    private void putFile(BatchRef ref) {
+        if (ref.file == null) return;
+        Map<Long, BatchRef> refs = byFile.get(ref.file);
+        if (refs == null) {
+            refs = new HashMap<Long, BatchRef>();
+            byFile.put(ref.file, refs);
+        }
+        refs.put(ref.id, ref);
+    }
+
+    private void applyHighWater(String line) {
+        String[] f = line.split("\t", -1);
+        if (f.length != 4) return;
+        try {
+            raiseHighWater(unescape(f[1]), Long.parseLong(f[2]), Long.parseLong(f[3]));
+        } catch (NumberFormatException ignored) {
+            // torn line
+        }
+    }
+
+    private void trackLogPosition(BatchRef ref) {
+        if (ref.file == null || ref.offset < 0) return;
+        int slash = ref.file.lastIndexOf('/');
+        if (slash <= 0) return;
+        long seg = SegmentedBatchLog.segmentIdOf(ref.file.substring(slash + 1));
+        if (seg < 0) return;
+        raiseHighWater(ref.file.substring(0, slash), seg, ref.offset);
+    }
+
+    private void raiseHighWater(String dir, long seg, long offset) {
+        LogPosition best = logHighWater.get(dir);
+        if (best == null || seg > best.segment || (seg == best.segment && offset > best.offset)) {
+            logHighWater.put(dir, new LogPosition(seg, offset));
+        }
+    }
+
+    private static void replace(TreeMap<Long, List<BatchRef>> tree, BatchRef old, BatchRef moved) {
+        if (tree == null) return;
+        List<BatchRef> refs = tree.get(old.startMs);
+        if (refs == null) return;
+        for (int i = 0; i < refs.size(); i++) {
+            if (refs.get(i).id == old.id) {
+                refs.set(i, moved);
+                return;
+            }
+        }
+    }
+
+    private static void put(TreeMap<Long, List<BatchRef>> tree, BatchRef ref) {
+        List<BatchRef> refs = tree.get(ref.startMs);
+        if (refs == null) {
+            refs = new ArrayList<BatchRef>(1);
+            tree.put(ref.startMs, refs);
+        }
+        refs.add(ref);
+    }
+
+    /** batches without deviceId are indexed under "" */
+    private static String deviceKey(String deviceId) {
+        return deviceId == null ? "" : deviceId;
+    }
+
+    // ---------------- line format ----------------
+
+    private static String format(BatchRef r) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(OP_ADD).append('\t').append(r.id)
+                .append('\t').append(escape(r.deviceId))
+                .append('\t').append(escape(r.sessionId))
+                .append('\t').append(escape(r.batchId))
+                .append('\t').append(r.startMs)
+                .append('\t').append(r.endMs)
+                .append('\t').append(r.count)
+                .append('\t').append(escape(r.file))
+                .append('\t').append(r.offset);
+        return sb.toString();
+    }
+
+    private static BatchRef parse(String line) {
+        String[] f = line.split("\t", -1);
+        if (f.length != 10 || !OP_ADD.equals(f[0])) return null;
+        try {
+            return new BatchRef(Long.parseLong(f[1]), unescape(f[2]), unescape(f[3]), unescape(f[4]),
+                    Long.parseLong(f[5]), Long.parseLong(f[6]), Integer.parseInt(f[7]), unescape(f[8]), Long.parseLong(f[9]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** null -> \N, and \t \n \\ escaped so every entry stays on one line */
+    static String escape(String s) {
+        if (s == null) return "\\N";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String s) {
+        if (s.equals("\\N")) return null;
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                switch (n) {
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    default: sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.repository.manifest;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+
+/**
+ * manifest entry: who/when a stored batch is and where its bytes are
+ * - startMs/endMs come from the points themselves (client header times are not reliable)
+ * - file is relative to the repository root with '/' separators
+ * - offset >= 0: record in log format at that offset; offset < 0: whole file is one json batch
+ */
+public class BatchRef {
+    public final long id;
+    public final String deviceId;
+    public final String sessionId;
+    public final String batchId;
+    public final long startMs;
+    public final long endMs;
+    public final int count;
+    public final String file;
+    public final long offset;
+
+    public BatchRef(long id, String deviceId, String sessionId, String batchId,
+                    long startMs, long endMs, int count, String file, long offset) {
+        this.id = id;
+        this.deviceId = deviceId;
+        this.sessionId = sessionId;
+        this.batchId = batchId;
+        this.startMs = startMs;
+        this.endMs = endMs;
+        this.count = count;
+        this.file = file;
+        this.offset = offset;
+    }
+
+    /** ref without id/location yet, filled from the batch points */
+    public static BatchRef of(Batch b) {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        int n = 0;
+        if (b.points != null) {
+            for (RawPoint p : b.points) {
+                if (p == null) continue;
+                if (p.time < start) start = p.time;
+                if (p.time > end) end = p.time;
+                n++;
+            }
+        }
+        if (n == 0) {
+            start = b.startTimeMs;
+            end = Math.max(b.startTimeMs, b.endTimeMs);
+        }
+        return new BatchRef(-1, b.deviceId, b.sessionId, b.batchId, start, end, n, null, -1);
+    }
+
+    public BatchRef withId(long newId) {
+        return new BatchRef(newId, deviceId, sessionId, batchId, startMs, endMs, count, file, offset);
+    }
+
+    public BatchRef at(String newFile, long newOffset) {
+        return new BatchRef(id, deviceId, sessionId, batchId, startMs, endMs, count, newFile, newOffset);
+    }
+
+    public boolean overlaps(long fromMs, long toMs) {
+        return startMs <= toMs && endMs >= fromMs;
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.repository.partition;
+
+import org.example.repository.log.SegmentedBatchLog;
+import org.example.repository.manifest.BatchManifest;
+import org.example.repository.manifest.BatchRef;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * moves the records of a sealed log segment into their device/session/hour partitions
+ * - every partition touched by segment N gets its own file part_N.log (log record format), so
+ *   re-running after a crash just rewrites the same files
+ * - order: write + fsync partition files, then manifest moves, then delete the segment;
+ *   readers always go through the manifest, so they see either the old or the new location
+ * - a segment holding a record the manifest does not know is left in place
+ */
+public class BatchPartitioner {
+
+    private final Path root;
+    private final String logSubdir;
+    private final BatchManifest manifest;
+
+    public BatchPartitioner(Path root, String logSubdir, BatchManifest manifest) {
+        this.root = root;
+        this.logSubdir = logSubdir;
+        this.manifest = manifest;
+    }
+
+    /** returns the partitions that got batches of this segment */
+    public synchronized List<PartitionKey> partition(long segmentId) throws IOException {
+        Path logDir = root.resolve(logSubdir);
+        Path segment = SegmentedBatchLog.segmentPath(logDir, segmentId);
+        if (!Files.isRegularFile(segment)) return new ArrayList<PartitionKey>();
+
+        String segmentFile = logSubdir + "/" + SegmentedBatchLog.segmentFileName(segmentId);
+        final Map<Long, BatchRef> byOffset = new HashMap<Long, BatchRef>();
+        for (BatchRef r : manifest.inFile(segmentFile)) byOffset.put(r.offset, r);
+
+        final Map<PartitionKey, List<BatchRef>> groups = new LinkedHashMap<PartitionKey, List<BatchRef>>();
+        final Map<Long, byte[]> payloads = new HashMap<Long, byte[]>();
+        final int[] unknown = {0};
+        SegmentedBatchLog.scanSegment(logDir, segmentId, (pos, payload) -> {
+            BatchRef ref = byOffset.get(pos.offset);
+            if (ref == null) {
+                unknown[0]++;
+                return;
+            }
+            groups.computeIfAbsent(PartitionKey.of(ref), k -> new ArrayList<BatchRef>()).add(ref);
+            payloads.put(pos.offset, payload);
+        });
+
+        List<long[]> moves = new ArrayList<long[]>(payloads.size()); // {id, group index, new offset}
+        List<String> files = new ArrayList<String>(groups.size());
+        for (Map.Entry<PartitionKey, List<BatchRef>> e : groups.entrySet()) {
+            String file = e.getKey().dirName() + "/part_" + segmentId + SegmentedBatchLog.SEGMENT_SUFFIX;
+            Path target = root.resolve(file);
+            Files.createDirectories(target.getParent());
+            try (FileChannel ch = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long offset = 0;
+                for (BatchRef ref : e.getValue()) {
+                    moves.add(new long[]{ref.id, files.size(), offset});
+                    offset += SegmentedBatchLog.writeRecord(ch, payloads.get(ref.offset));
+                }
+                ch.force(true);
+            }
+            files.add(file);
+        }
+
+        for (long[] m : moves) {
+            manifest.move(m[0], files.get((int) m[1]), m[2]);
+        }
+
+        if (unknown[0] > 0) {
+            System.err.println("batch partitioner: " + unknown[0] + " unindexed records in " + segment.getFileName() + ", segment kept");
+        } else {
+            Files.delete(segment);
+        }
+        return new ArrayList<PartitionKey>(groups.keySet());
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.repository.partition;
+
+import org.example.repository.manifest.BatchRef;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+
+/**
+ * one storage partition: device + session + hour bucket (UTC) of the batch start time
+ * - deviceId / sessionId may be null (old clients), they form their own partition
+ * - dirName() is the relative directory the partition files live in
+ */
+public class PartitionKey implements Comparable<PartitionKey> {
+
+    public static final long HOUR_MS = 3600_000L;
+    public static final String PARTITION_DIR = "partitions";
+
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH").withZone(ZoneOffset.UTC);
+
+    public final String deviceId;
+    public final String sessionId;
+    public final long hourStartMs;
+
+    public PartitionKey(String deviceId, String sessionId, long hourStartMs) {
+        this.deviceId = deviceId;
+        this.sessionId = sessionId;
+        this.hourStartMs = hourOf(hourStartMs);
+    }
+
+    public static PartitionKey of(BatchRef ref) {
+        return new PartitionKey(ref.deviceId, ref.sessionId, ref.startMs);
+    }
+
+    public static long hourOf(long timeMs) {
+        return Math.floorDiv(timeMs, HOUR_MS) * HOUR_MS;
+    }
+
+    public long hourEndMs() { return hourStartMs + HOUR_MS - 1; }
+
+    public boolean contains(BatchRef ref) {
+        return Objects.equals(deviceId, ref.deviceId) && Objects.equals(sessionId, ref.sessionId)
+                && hourOf(ref.startMs) == hourStartMs;
+    }
+
+    /** partitions/<device>/<session>/<yyyyMMddHH>, names reduced to file-safe characters */
+    public String dirName() {
+        return PARTITION_DIR + "/" + safe(deviceId) + "/" + safe(sessionId) + "/" + HOUR_FORMAT.format(Instant.ofEpochMilli(hourStartMs));
+    }
+
+    /** two ids can map to the same directory name, files there are always read through the manifest */
+    static String safe(String s) {
+        if (s == null || s.isEmpty()) return "_";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.';
+            sb.append(ok ? c : '_');
+        }
+        String out = sb.toString();
+        return out.equals(".") || out.equals("..") ? "_" : out;
+    }
+
+    @Override
+    public int compareTo(PartitionKey o) {
+        int c = compareNullable(deviceId, o.deviceId);
+        if (c != 0) return c;
+        c = compareNullable(sessionId, o.sessionId);
+        if (c != 0) return c;
+        return Long.compare(hourStartMs, o.hourStartMs);
+    }
+
+    private static int compareNullable(String a, String b) {
+        if (a == null) return b == null ? 0 : -1;
+        if (b == null) return 1;
+        return a.compareTo(b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PartitionKey)) return false;
+        PartitionKey k = (PartitionKey) o;
+        return hourStartMs == k.hourStartMs && Objects.equals(deviceId, k.deviceId) && Objects.equals(sessionId, k.sessionId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, sessionId, hourStartMs);
+    }
+
+    @Override
+    public String toString() {
+        return deviceId + "/" + sessionId + "/" + HOUR_FORMAT.format(Instant.ofEpochMilli(hourStartMs));
+    }
+}
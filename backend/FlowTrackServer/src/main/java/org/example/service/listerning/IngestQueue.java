@@ -0,0 +1,111 @@
+package org.example.service.listerning;
+
+import org.example.model.bundle.Batch;
+import org.example.repository.LocalRepository;
+import org.example.repository.dedup.BatchDedupIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded in-memory queue between request threads and storage
+ * - request thread only does offer(), never touches disk
+ * - a fixed pool of workers drains the queue into LocalRepository
+ * - when full, offer() fails fast so the controller can answer 503 + Retry-After
+ */
+@Component
+public class IngestQueue {
+
+    private final LocalRepository repo;
+    private final BatchDedupIndex dedup;
+    private final BlockingQueue<Batch> queue;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final int retryAfterSeconds;
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public IngestQueue(LocalRepository repo, BatchDedupIndex dedup,
+                       @Value("${flowtrack.ingest.queue-capacity:10000}") int capacity,
+                       @Value("${flowtrack.ingest.workers:4}") int workerCount,
+                       @Value("${flowtrack.ingest.retry-after-seconds:2}") int retryAfterSeconds) {
+        if (capacity <= 0) {throw new IllegalArgumentException("queue capacity has to be > 0");}
+        if (workerCount <= 0) {throw new IllegalArgumentException("worker count has to be > 0");}
+        this.repo = repo;
+        this.dedup = dedup;
+        this.queue = new ArrayBlockingQueue<Batch>(capacity);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread t = new Thread(this::drainLoop, "ingest-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    /** non-blocking, false when the queue is full or shutting down; the caller holds the dedup reservation */
+    public boolean offer(Batch batch) {
+        if (!running || !queue.offer(batch)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    public int retryAfterSeconds() { return retryAfterSeconds; }
+
+    public int depth() { return queue.size(); }
+
+    public long acceptedCount() { return accepted.get(); }
+    public long rejectedCount() { return rejected.get(); }
+    public long persistedCount() { return persisted.get(); }
+    public long failedCount() { return failed.get(); }
+
+    private void drainLoop() {
+        while (running || !queue.isEmpty()) {
+            Batch batch;
+            try {
+                batch = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (batch == null) continue;
+            String key = BatchDedupIndex.keyOf(batch);
+            try {
+                repo.saveBatches(batch);
+                dedup.commit(key);
+                persisted.incrementAndGet();
+            } catch (Exception e) {
+                dedup.release(key);
+                failed.incrementAndGet();
+                System.err.println("fail to persist queued batch " + batch.batchId + ". reason: " + e.getMessage());
+            }
+        }
+    }
+
+    /** stop accepting and let workers drain what is already queued */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Thread t : workers) {
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
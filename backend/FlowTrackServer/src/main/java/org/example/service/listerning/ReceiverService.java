@@ -3,6 +3,14 @@ package org.example.service.listerning;
 import org.example.model.bundle.Batch;
 import org.example.model.internet.RespondToMobile;
 
+import java.io.InputStream;
+
 public interface ReceiverService{
     RespondToMobile receiveBatchFromMobile(Batch trackBatch) throws Exception;
-}
\ No newline at end of file
+
+    /** validate and hand over to the ingest queue, never blocks on storage */
+    RespondToMobile enqueueBatchFromMobile(Batch trackBatch);
+
+    /** parse a (possibly compressed) json body as a stream and store its points chunk by chunk */
+    RespondToMobile receiveBatchStreamFromMobile(InputStream body, String contentEncoding) throws Exception;
+}
@@ -1,26 +1,91 @@
 package org.example.service.listerning;
 
+import org.example.codec.StreamingBatchReader;
 import org.example.model.bundle.Batch;
 import org.example.model.internet.RespondToMobile;
 import org.example.repository.LocalRepository;
+import org.example.repository.dedup.BatchDedupIndex;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import java.io.InputStream;
+
 
 @Service // sing up ReceiverServiceImpl class and its interface in Spring bean
 public class ReceiverServiceImpl implements ReceiverService {
 
     private final LocalRepository repo;
+    private final IngestQueue ingestQueue;
+    private final BatchDedupIndex dedup;
+    private final StreamingBatchReader streamReader;
 
-    public ReceiverServiceImpl(LocalRepository repo) { this.repo = repo;}
+    public ReceiverServiceImpl(LocalRepository repo, IngestQueue ingestQueue, BatchDedupIndex dedup,
+                               @Value("${flowtrack.ingest.stream-chunk-points:1000}") int streamChunkPoints,
+                               @Value("${flowtrack.ingest.stream-strict-count:false}") boolean streamStrictCount) {
+        this.repo = repo;
+        this.ingestQueue = ingestQueue;
+        this.dedup = dedup;
+        this.streamReader = new StreamingBatchReader(streamChunkPoints, streamStrictCount);
+    }
 
     @Override
     public RespondToMobile receiveBatchFromMobile(Batch batch) throws Exception {
+        validate(batch);
+        // retried upload: answer from the dedup index, nothing is written
+        String key = BatchDedupIndex.keyOf(batch);
+        if (!dedup.reserve(key)) return RespondToMobile.duplicate(batch.batchId);
+        try {
+            repo.saveBatches(batch);
+        } catch (Exception e) {
+            dedup.release(key);
+            throw e;
+        }
+        dedup.commit(key);
+        return RespondToMobile.of(batch.batchId,true);
+    }
+
+    @Override
+    public RespondToMobile enqueueBatchFromMobile(Batch batch) {
+        validate(batch);
+        String key = BatchDedupIndex.keyOf(batch);
+        if (!dedup.reserve(key)) return RespondToMobile.duplicate(batch.batchId);
+        // reservation is committed/released by the ingest worker
+        if (!ingestQueue.offer(batch)) {
+            dedup.release(key);
+            return RespondToMobile.rejected(batch.batchId, ingestQueue.retryAfterSeconds());
+        }
+        return RespondToMobile.of(batch.batchId, true, RespondToMobile.STATUS_QUEUED);
+    }
+
+    @Override
+    public RespondToMobile receiveBatchStreamFromMobile(InputStream body, String contentEncoding) throws Exception {
+        // validation happens inside the reader while parsing; each chunk is stored as soon as it is full
+        InputStream in = StreamingBatchReader.decode(body, contentEncoding);
+        final int[] skipped = {0};
+        StreamingBatchReader.Result result = streamReader.read(in, part -> {
+            // parts are deduplicated one by one, a retried backfill only writes the missing parts
+            String key = BatchDedupIndex.keyOf(part);
+            if (!dedup.reserve(key)) {
+                skipped[0]++;
+                return;
+            }
+            try {
+                repo.saveBatches(part);
+            } catch (Exception e) {
+                dedup.release(key);
+                throw e;
+            }
+            dedup.commit(key);
+        });
+        if (result.chunks > 0 && skipped[0] == result.chunks) return RespondToMobile.duplicate(result.batchId);
+        return RespondToMobile.of(result.batchId, true);
+    }
+
+    private void validate(Batch batch) {
         if (batch == null || CollectionUtils.isEmpty(batch.points)) {
             throw new IllegalArgumentException("invalid payload: locations can not be empty");
         }
-        repo.saveBatches(batch);
-        return RespondToMobile.of(batch.batchId,true);
     }
 }
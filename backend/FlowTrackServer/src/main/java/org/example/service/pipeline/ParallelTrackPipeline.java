@@ -0,0 +1,387 @@
+package org.example.service.pipeline;
+
+import org.example.model.bundle.Batch;
+import org.example.model.bundle.scriptuse.DoorFlow;
+import org.example.model.bundle.scriptuse.Meta;
+import org.example.model.bundle.scriptuse.RoomSwitch;
+import org.example.model.bundle.scriptuse.ScriptInputBundle;
+import org.example.model.bundle.scriptuse.StaySegment;
+import org.example.model.bundle.scriptuse.SwitchAggregated;
+import org.example.model.map.FloorMap;
+import org.example.model.point.PointBuffer;
+import org.example.model.point.RawPoint;
+import org.example.repository.LocalRepository;
+import org.example.repository.columnar.ColumnarPointFile;
+import org.example.repository.partition.PartitionKey;
+import org.example.service.postprocessing.DataPostprocessingModule;
+import org.example.service.preprocessing.DataPreprocessingModule;
+import org.example.service.preprocessing.TrajectorySimplifier;
+import org.example.service.preprocessing.TrajectorySmoother;
+import org.example.service.tagging.DoorCounter;
+import org.example.service.tagging.DoorFlows;
+import org.example.service.tagging.MapRegistry;
+import org.example.service.tagging.RoomMatchingModule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * preprocess -> room matching -> postprocessing per track (device + session) on a fork-join pool
+ * - batches are grouped by deviceId/sessionId first, so tracks of different people are never
+ *   interleaved before the hysteresis; each track runs through the point buffer overloads
+ * - optional smoothing, then optional simplification between preprocessing and room matching
+ * - with a MapRegistry each track is tagged on its own map: batches are resolved to a map file
+ *   (mapId, else buildingId + floorId) and grouped by device, session and map file, keyed
+ *   deviceId/sessionId/file; batches without a map and tracks whose map fails to build are left out of
+ *   the result, counted in skippedTracks() and reported on System.err, the other tracks still run
+ * - door crossings are counted per track (DoorFlows of the run) and summed per door into door_flows
+ * - stored partitions (bundle(repo, partitions, meta)) form the same tracks; a compacted partition is
+ *   preprocessed straight from its columnar file, the others from their batches
+ * - tracks are split in halves until one is left, results are merged in track order (device, session)
+ * - the modules hold no per-call state (the room index is read only once the map is built),
+ *   one instance of each is shared by all workers
+ */
+public class ParallelTrackPipeline {
+
+    private final DataPreprocessingModule preprocessor;
+    /** null when maps is set */
+    private final RoomMatchingModule roomMatcher;
+    /** null = every track is tagged with roomMatcher */
+    private final MapRegistry maps;
+    private final DataPostprocessingModule postprocessor;
+    /** null = no smoothing */
+    private final TrajectorySmoother smoother;
+    /** null = every preprocessed point is tagged */
+    private final TrajectorySimplifier simplifier;
+    private final ForkJoinPool pool;
+
+    private final AtomicLong skippedTracks = new AtomicLong();
+
+    public ParallelTrackPipeline(DataPreprocessingModule preprocessor, TrajectorySmoother smoother, TrajectorySimplifier simplifier,
+                                 RoomMatchingModule roomMatcher, DataPostprocessingModule postprocessor, ForkJoinPool pool) {
+        this(preprocessor, smoother, simplifier, roomMatcher, null, postprocessor, pool);
+    }
+
+    /** tracks tagged on the map of their batches' ids */
+    public ParallelTrackPipeline(DataPreprocessingModule preprocessor, TrajectorySmoother smoother, TrajectorySimplifier simplifier,
+                                 MapRegistry maps, DataPostprocessingModule postprocessor, ForkJoinPool pool) {
+        this(preprocessor, smoother, simplifier, null, maps, postprocessor, pool);
+    }
+
+    private ParallelTrackPipeline(DataPreprocessingModule preprocessor, TrajectorySmoother smoother, TrajectorySimplifier simplifier,
+                                  RoomMatchingModule roomMatcher, MapRegistry maps, DataPostprocessingModule postprocessor, ForkJoinPool pool) {
+        this.preprocessor = preprocessor;
+        this.smoother = smoother;
+        this.simplifier = simplifier;
+        this.roomMatcher = roomMatcher;
+        this.maps = maps;
+        this.postprocessor = postprocessor;
+        this.pool = pool;
+    }
+
+    public ParallelTrackPipeline(DataPreprocessingModule preprocessor, RoomMatchingModule roomMatcher,
+                                 DataPostprocessingModule postprocessor, ForkJoinPool pool) {
+        this(preprocessor, null, null, roomMatcher, postprocessor, pool);
+    }
+
+    /** on the common pool (parallelism = cores - 1) */
+    public ParallelTrackPipeline(DataPreprocessingModule preprocessor, RoomMatchingModule roomMatcher,
+                                 DataPostprocessingModule postprocessor) {
+        this(preprocessor, roomMatcher, postprocessor, ForkJoinPool.commonPool());
+    }
+
+    /** one bundle per track, keyed deviceId/sessionId (/map file with a registry), in track order */
+    public Map<String, ScriptInputBundle> bundlePerTrack(List<Batch> batches, Meta meta) {
+        List<Track> tracks = groupByTrack(batches);
+        Map<String, ScriptInputBundle> out = new LinkedHashMap<String, ScriptInputBundle>();
+        if (tracks.isEmpty()) return out;
+        List<ScriptInputBundle> bundles = pool.invoke(new TrackTask(tracks, 0, tracks.size(), meta));
+        for (int i = 0; i < tracks.size(); i++) {
+            // null: map failed to build, already reported
+            if (bundles.get(i) != null) out.put(tracks.get(i).key(), bundles.get(i));
+        }
+        return out;
+    }
+
+    /** tracks left out since this pipeline was created: no map for their ids, or the map failed to build */
+    public long skippedTracks() { return skippedTracks.get(); }
+
+    /**
+     * all tracks in one bundle: segments and transitions of each track appended in track order,
+     * aggregated switches and door flows summed over tracks (first seen order)
+     */
+    public ScriptInputBundle bundle(List<Batch> batches, Meta meta) {
+        return merge(new ArrayList<ScriptInputBundle>(bundlePerTrack(batches, meta).values()), meta);
+    }
+
+    /**
+     * all tracks of stored device/session/hour partitions in one bundle, same result as bundle(batches, meta)
+     * on their batches; tagged with the matcher of this pipeline (not with a MapRegistry)
+     */
+    public ScriptInputBundle bundle(LocalRepository repo, List<PartitionKey> partitions, Meta meta) {
+        if (maps != null) {throw new IllegalStateException("stored partitions are tagged with one matcher, not with a map registry");}
+        List<Track> tracks = new ArrayList<Track>();
+        TreeSet<PartitionKey> sorted = new TreeSet<PartitionKey>();
+        if (partitions != null) for (PartitionKey k : partitions) if (k != null) sorted.add(k);
+        Track track = null;
+        for (PartitionKey k : sorted) {
+            if (track == null || !Objects.equals(track.deviceId, k.deviceId) || !Objects.equals(track.sessionId, k.sessionId)) {
+                track = new Track(k.deviceId, k.sessionId, null, false);
+                track.repo = repo;
+                track.partitions = new ArrayList<PartitionKey>();
+                tracks.add(track);
+            }
+            track.partitions.add(k);
+        }
+        if (tracks.isEmpty()) return merge(new ArrayList<ScriptInputBundle>(), meta);
+        return merge(pool.invoke(new TrackTask(tracks, 0, tracks.size(), meta)), meta);
+    }
+
+    /**
+     * a stored track hour by hour: columnar file when the partition has one, else its batches; when two
+     * partitions overlap in time (a batch running over the hour) the whole track is preprocessed from its
+     * batches instead, so duplicates across them are still dropped
+     */
+    private PointBuffer preprocessStored(Track track) {
+        PointBuffer out = new PointBuffer();
+        long lastTime = Long.MIN_VALUE;
+        for (PartitionKey key : track.partitions) {
+            try (ColumnarPointFile file = openPointFile(track.repo, key)) {
+                if (file != null) {
+                    if (file.size() == 0) continue;
+                    if (file.blockMinTime(0) <= lastTime) return preprocessBatches(track);
+                    preprocessor.preprocess(file, Long.MIN_VALUE, Long.MAX_VALUE, out);
+                    lastTime = file.blockMaxTime(file.blockCount() - 1);
+                    continue;
+                }
+            } catch (IOException e) {
+                System.err.println("fail to close columnar file of partition " + key + ". reason: " + e.getMessage());
+            }
+            List<Batch> batches = track.repo.openPartition(key);
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (Batch b : batches) {
+                if (b == null || b.points == null) continue;
+                for (RawPoint p : b.points) {
+                    if (p == null) continue;
+                    min = Math.min(min, p.time);
+                    max = Math.max(max, p.time);
+                }
+            }
+            if (min == Long.MAX_VALUE) continue;
+            if (min <= lastTime) return preprocessBatches(track);
+            preprocessor.preprocess(batches, out);
+            lastTime = max;
+        }
+        return out;
+    }
+
+    /** null when the partition has no columnar file or it can not be read (then it is read batch by batch) */
+    private static ColumnarPointFile openPointFile(LocalRepository repo, PartitionKey key) {
+        try {
+            return repo.openPointFile(key);
+        } catch (IOException e) {
+            System.err.println("fail to open columnar file of partition " + key + ", reading its batches. reason: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private PointBuffer preprocessBatches(Track track) {
+        List<Batch> batches = new ArrayList<Batch>();
+        for (PartitionKey key : track.partitions) batches.addAll(track.repo.openPartition(key));
+        return preprocessor.preprocess(batches, new PointBuffer());
+    }
+
+    /** null when the track's map could not be loaded */
+    private ScriptInputBundle runTrack(Track track, Meta meta) {
+        RoomMatchingModule matcher = roomMatcher;
+        FloorMap map = null;
+        if (maps != null) {
+            try {
+                MapRegistry.LoadedMap loaded = maps.get(track.mapFile);
+                matcher = loaded.matcher;
+                map = loaded.loader.floorMap();
+            } catch (RuntimeException e) {
+                skippedTracks.incrementAndGet();
+                System.err.println("[ParallelTrackPipeline] track " + track.key() + " skipped, map not loaded: " + e.getMessage());
+                return null;
+            }
+        }
+        // with a registry the track's own map bounds the points, not the default map of the filter config
+        PointBuffer points = track.partitions != null ? preprocessStored(track) : preprocessor.preprocess(track.batches, map, new PointBuffer());
+        if (smoother != null) points = smoother.smooth(points);
+        if (simplifier != null) points = simplifier.simplify(points);
+        DoorFlows flows = new DoorFlows();
+        matcher.labelMultiPoints(points, flows);
+        ScriptInputBundle bundle = postprocessor.buildBundle(points, meta);
+        bundle.door_flows = doorFlows(flows);
+        return bundle;
+    }
+
+    /** null when no door was crossed */
+    private static List<DoorFlow> doorFlows(DoorFlows flows) {
+        if (flows.isEmpty()) return null;
+        List<DoorFlow> out = new ArrayList<DoorFlow>();
+        for (DoorCounter c : flows.counters()) {
+            DoorFlow f = new DoorFlow();
+            f.door_id = c.doorId;
+            f.from = c.fromRoom;
+            f.to = c.toRoom;
+            f.count_forward = (int) c.forward();
+            f.count_backward = (int) c.backward();
+            out.add(f);
+        }
+        return out;
+    }
+
+    private class TrackTask extends RecursiveTask<List<ScriptInputBundle>> {
+        private final List<Track> tracks;
+        private final int from;
+        private final int to;
+        private final Meta meta;
+
+        TrackTask(List<Track> tracks, int from, int to, Meta meta) {
+            this.tracks = tracks;
+            this.from = from;
+            this.to = to;
+            this.meta = meta;
+        }
+
+        @Override
+        protected List<ScriptInputBundle> compute() {
+            if (to - from == 1) {
+                List<ScriptInputBundle> one = new ArrayList<ScriptInputBundle>(1);
+                one.add(runTrack(tracks.get(from), meta));
+                return one;
+            }
+            int mid = (from + to) >>> 1;
+            TrackTask left = new TrackTask(tracks, from, mid, meta);
+            left.fork();
+            List<ScriptInputBundle> right = new TrackTask(tracks, mid, to, meta).compute();
+            List<ScriptInputBundle> out = left.join();
+            out.addAll(right);
+            return out;
+        }
+    }
+
+    // ---------------- grouping / merging ----------------
+
+    private static final class Track {
+        final String deviceId;
+        final String sessionId;
+        /** resolved map file, only set when tracks are split by map */
+        final String mapFile;
+        final boolean byMap;
+        final List<Batch> batches = new ArrayList<Batch>();
+        /** stored track: its partitions in hour order and where they are read from, null for a batch track */
+        List<PartitionKey> partitions;
+        LocalRepository repo;
+
+        Track(String deviceId, String sessionId, String mapFile, boolean byMap) {
+            this.deviceId = deviceId;
+            this.sessionId = sessionId;
+            this.mapFile = mapFile;
+            this.byMap = byMap;
+        }
+
+        String key() { return byMap ? deviceId + "/" + sessionId + "/" + mapFile : deviceId + "/" + sessionId; }
+    }
+
+    /**
+     * tracks sorted by device, session (, map file) (null first); batches keep their order inside a track;
+     * with a registry, batches that resolve to no map are dropped (one skipped track per device/session)
+     */
+    private List<Track> groupByTrack(List<Batch> batches) {
+        boolean byMap = maps != null;
+        TreeMap<String[], Track> byKey = new TreeMap<String[], Track>(TRACK_ORDER);
+        TreeMap<String[], Integer> unresolved = new TreeMap<String[], Integer>(TRACK_ORDER);
+        if (batches != null) {
+            for (Batch b : batches) {
+                if (b == null) continue;
+                String mapFile = null;
+                if (byMap) {
+                    mapFile = maps.resolve(b.mapId, b.floorId, b.buildingId);
+                    if (mapFile == null) {
+                        unresolved.merge(new String[]{b.deviceId, b.sessionId, null}, 1, Integer::sum);
+                        continue;
+                    }
+                }
+                byKey.computeIfAbsent(new String[]{b.deviceId, b.sessionId, mapFile}, k -> new Track(k[0], k[1], k[2], byMap)).batches.add(b);
+            }
+        }
+        for (Map.Entry<String[], Integer> e : unresolved.entrySet()) {
+            skippedTracks.incrementAndGet();
+            System.err.println("[ParallelTrackPipeline] " + e.getValue() + " batches of " + e.getKey()[0] + "/" + e.getKey()[1] + " skipped, no map for their ids");
+        }
+        return new ArrayList<Track>(byKey.values());
+    }
+
+    private static final Comparator<String[]> TRACK_ORDER = (a, b) -> {
+        int c = compareNullFirst(a[0], b[0]);
+        if (c == 0) c = compareNullFirst(a[1], b[1]);
+        return c != 0 ? c : compareNullFirst(a[2], b[2]);
+    };
+
+    private static int compareNullFirst(String a, String b) {
+        if (Objects.equals(a, b)) return 0;
+        if (a == null) return -1;
+        if (b == null) return 1;
+        return a.compareTo(b);
+    }
+
+    private static ScriptInputBundle merge(List<ScriptInputBundle> bundles, Meta meta) {
+        ScriptInputBundle out = new ScriptInputBundle();
+        out.meta = meta;
+        out.stay_segments = new ArrayList<StaySegment>();
+        out.r_transitions = new ArrayList<RoomSwitch>();
+        Map<String, SwitchAggregated> agg = new LinkedHashMap<String, SwitchAggregated>();
+        Map<String, DoorFlow> doors = new LinkedHashMap<String, DoorFlow>();
+
+        for (ScriptInputBundle b : bundles) {
+            if (b.stay_segments != null) out.stay_segments.addAll(b.stay_segments);
+            if (b.r_transitions != null) out.r_transitions.addAll(b.r_transitions);
+            if (b.door_flows != null) {
+                for (DoorFlow f : b.door_flows) {
+                    // same keying as rs_aggregated: by ids, the door's rooms included
+                    String key = f.door_id + "||" + f.from + "||" + f.to;
+                    DoorFlow sum = doors.get(key);
+                    if (sum == null) {
+                        sum = new DoorFlow();
+                        sum.door_id = f.door_id;
+                        sum.from = f.from;
+                        sum.to = f.to;
+                        doors.put(key, sum);
+                    }
+                    sum.count_forward += f.count_forward;
+                    sum.count_backward += f.count_backward;
+                }
+            }
+            if (b.rs_aggregated == null) continue;
+            for (SwitchAggregated s : b.rs_aggregated) {
+                String key = s.from + "||" + s.to;
+                SwitchAggregated sum = agg.get(key);
+                if (sum == null) {
+                    sum = new SwitchAggregated();
+                    sum.from = s.from;
+                    sum.to = s.to;
+                    agg.put(key, sum);
+                }
+                sum.count_trips += s.count_trips;
+                sum.total_travel_s += s.total_travel_s;
+                sum.avg_travel_s = (sum.count_trips > 0) ? (sum.total_travel_s / sum.count_trips) : 0.0;
+            }
+        }
+        out.rs_aggregated = new ArrayList<SwitchAggregated>(agg.values());
+        if (!doors.isEmpty()) out.door_flows = new ArrayList<DoorFlow>(doors.values());
+        return out;
+    }
+}
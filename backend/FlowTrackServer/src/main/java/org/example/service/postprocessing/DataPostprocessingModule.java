@@ -1,6 +1,7 @@
 package org.example.service.postprocessing;
 
 import org.example.model.bundle.scriptuse.*;
+import org.example.model.point.PointBuffer;
 import org.example.model.point.TaggedPoint;
 
 import java.util.*;
@@ -23,7 +24,15 @@ public class DataPostprocessingModule {
 
     public ScriptInputBundle buildBundle(List<TaggedPoint> points, Meta meta) {
         if (points == null) points = Collections.emptyList();
+        return buildBundle(listTrack(points), meta);
+    }
+
+    /** same as buildBundle(List) on a room-labelled point buffer */
+    public ScriptInputBundle buildBundle(PointBuffer points, Meta meta) {
+        return buildBundle(bufferTrack(points == null ? new PointBuffer(0) : points), meta);
+    }
 
+    private ScriptInputBundle buildBundle(Track points, Meta meta) {
         // 1) do hysteresis
         List<StaySegment> segmentsDraft = buildSegmentsWithHysteresis(points);
 
@@ -45,9 +54,9 @@ public class DataPostprocessingModule {
         return bundle;
     }
 
-    private List<StaySegment> buildSegmentsWithHysteresis(List<TaggedPoint> pts) {
+    private List<StaySegment> buildSegmentsWithHysteresis(Track pts) {
         List<StaySegment> segments = new ArrayList<>();
-        if (pts == null || pts.isEmpty()) return segments;
+        if (pts.size() == 0) return segments;
 
         String curRoom = firstNonNullRoom(pts);
         int curStartIdx = 0; // start_t
@@ -59,10 +68,11 @@ public class DataPostprocessingModule {
 
         // linear scan
         for (int i = 0; i < pts.size(); i++) {
-            TaggedPoint p = pts.get(i);
+            String room = pts.room(i);
+            long t = pts.t(i);
 
             // stay on current room
-            if (eq(p.room, curRoom) || (p.room == null && curRoom == null)) {
+            if (eq(room, curRoom) || (room == null && curRoom == null)) {
                 // clean candidates
                 candidateRoom = null;
                 countNew = 0;
@@ -71,17 +81,17 @@ public class DataPostprocessingModule {
             }
 
             // diff room, try switching
-            if (candidateRoom == null || !eq(candidateRoom, p.room)) {
-                candidateRoom = p.room;
+            if (candidateRoom == null || !eq(candidateRoom, room)) {
+                candidateRoom = room;
                 countNew = 1;
-                firstNewT = p.t;
+                firstNewT = t;
             } else {
                 countNew++;
             }
 
             // check hysteresis conditions
             boolean passByCount = (countNew >= L);
-            boolean passByTime  = (p.t - firstNewT >= tauMs);
+            boolean passByTime  = (t - firstNewT >= tauMs);
             if (passByCount || passByTime) {
 
                 int endIdx = Math.max(i - 1, curStartIdx);
@@ -101,20 +111,43 @@ public class DataPostprocessingModule {
     }
 
     /** create a segment */
-    private StaySegment makeSegment(List<TaggedPoint> pts, String room, int startIdx, int endIdx) {
+    private StaySegment makeSegment(Track pts, String room, int startIdx, int endIdx) {
         StaySegment seg = new StaySegment();
         seg.room_id = room;
-        seg.start_t = pts.get(startIdx).t;
-        seg.end_t   = pts.get(endIdx).t;
+        seg.start_t = pts.t(startIdx);
+        seg.end_t   = pts.t(endIdx);
         seg.duration_s = Math.max(0, (seg.end_t - seg.start_t) / 1000.0);
         return seg;
     }
 
-    private String firstNonNullRoom(List<TaggedPoint> pts) {
-        for (TaggedPoint p : pts) if (p.room != null) return p.room;
+    private String firstNonNullRoom(Track pts) {
+        for (int i = 0; i < pts.size(); i++) if (pts.room(i) != null) return pts.room(i);
         return null;
     }
 
+    /** time + room of point i, lets the hysteresis run on lists and point buffers alike */
+    private interface Track {
+        int size();
+        long t(int i);
+        String room(int i);
+    }
+
+    private static Track listTrack(final List<TaggedPoint> pts) {
+        return new Track() {
+            @Override public int size() { return pts.size(); }
+            @Override public long t(int i) { return pts.get(i).t; }
+            @Override public String room(int i) { return pts.get(i).room; }
+        };
+    }
+
+    private static Track bufferTrack(final PointBuffer pts) {
+        return new Track() {
+            @Override public int size() { return pts.size; }
+            @Override public long t(int i) { return pts.time[i]; }
+            @Override public String room(int i) { return pts.roomId(i); }
+        };
+    }
+
     /** string equal */
     private static boolean eq(String a, String b) {
         if (a == b) return true;
@@ -1,9 +1,15 @@
 package org.example.service.preprocessing;
 
 import org.example.model.bundle.Batch;
+import org.example.model.map.FloorMap;
+import org.example.model.point.PointBuffer;
 import org.example.model.point.RawPoint;
+import org.example.repository.columnar.ColumnarPointFile;
+import org.example.service.preprocessing.filter.FilterChain;
+import org.example.service.preprocessing.filter.FilterConfig;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -11,12 +17,18 @@ import java.util.List;
 public class DataPreprocessingModule {
 
     private final double samePointEps = 0.1;
-    private final double worstAcurracy = 4;
-    private final double maxVelocity = 3;
-    private final double mapMinX = -160;
-    private final double mapMaxX = 240;
-    private final double mapMinY = 0;
-    private final double mapMaxY = 280;
+
+    /** bounds + rms + velocity limits per map/source */
+    private final FilterConfig filters;
+
+    public DataPreprocessingModule(FilterConfig filters) {
+        this.filters = filters;
+    }
+
+    /** the fixed limits: x -160..240, y 0..280, rms <= 4, velocity <= 3 */
+    public DataPreprocessingModule() {
+        this(new FilterConfig());
+    }
 
 
     public List<RawPoint> merge(List<Batch> batches){
@@ -75,27 +87,364 @@ public class DataPreprocessingModule {
     }
 
     public List<RawPoint> filter(List<RawPoint> in){
+        return filter(in, null, null);
+    }
+
+    /** filter with the chain of a map / source (null = defaults) */
+    public List<RawPoint> filter(List<RawPoint> in, String mapId, String source){
         if (in == null || in.isEmpty()) return in;
 
         List<RawPoint> points = new ArrayList<RawPoint>(in.size());
-
+        FilterChain chain = filters.chainFor(mapId, source);
+        FilterBlock block = new FilterBlock();
         for (RawPoint p : in) {
-            // outer bound
-            if (!withinBounds(p.x, p.y)) continue;
-            // accuracy/rms filter
-            if (p.rms > worstAcurracy) continue;
-            // speed limit
-            if (p.velocity > maxVelocity) continue;
-            points.add(p);
+            block.add(p, chain);
+            if (block.full()) block.drainTo(points);
         }
+        block.drainTo(points);
         return points;
     }
 
+    /**
+     * merge + sort + deduplicate + filter in one pass, same output as the four steps in a row
+     * - every batch is one time-ordered run (a batch that is not is sorted on its own first)
+     * - runs are k-way merged with a heap on (time, batch index), which is exactly the order the stable
+     *   sort of the merged list gives; positions inside a batch keep their order
+     * - lowest rms per timestamp wins (first one on ties), then the filter chain of the winner's batch
+     *   (its mapId / source) in blocks; only the result list is built
+     */
+    public List<RawPoint> preprocess(List<Batch> batches){
+        final List<RawPoint> out = new ArrayList<RawPoint>(countPoints(batches));
+        final FilterBlock block = new FilterBlock();
+        mergeRuns(batches, null, (p, chain) -> {
+            block.add(p, chain);
+            if (block.full()) block.drainTo(out);
+        });
+        block.drainTo(out);
+        return out;
+    }
+
+    /** same as preprocess(batches), surviving points are appended to out as columns */
+    public PointBuffer preprocess(List<Batch> batches, final PointBuffer out){
+        return preprocess(batches, null, out);
+    }
+
+    /**
+     * preprocess(batches, out) for batches already resolved to one map (a MapRegistry track): every batch
+     * is filtered with that map's bounds instead of the bounds its mapId finds; map null = by mapId
+     */
+    public PointBuffer preprocess(List<Batch> batches, FloorMap map, final PointBuffer out){
+        final FilterBlock block = new FilterBlock();
+        mergeRuns(batches, map, (p, chain) -> {
+            block.add(p, chain);
+            if (block.full()) block.drainTo(out);
+        });
+        block.drainTo(out);
+        return out;
+    }
+
+    /** receives the deduplicated points in time order with the filter chain of their batch */
+    private interface DedupSink {
+        void accept(RawPoint p, FilterChain chain);
+    }
+
+    private static int countPoints(List<Batch> batches) {
+        int n = 0;
+        if (batches == null) return n;
+        for (Batch b : batches) if (b != null && b.points != null) n += b.points.size();
+        return n;
+    }
+
+    private void mergeRuns(List<Batch> batches, FloorMap map, DedupSink out){
+        if (batches == null) return;
+
+        List<List<RawPoint>> runs = new ArrayList<List<RawPoint>>(batches.size());
+        List<FilterChain> chains = new ArrayList<FilterChain>(batches.size());
+        for (Batch b : batches) {
+            if (b == null || b.points == null || b.points.isEmpty()) continue;
+            List<RawPoint> run = b.points;
+            if (!isTimeOrdered(run)) {
+                run = new ArrayList<RawPoint>(run.size());
+                for (RawPoint p : b.points) if (p != null) run.add(p);
+                Collections.sort(run, BY_TIME);
+            }
+            runs.add(run);
+            chains.add(map != null ? filters.chainForMap(map, b.source) : filters.chainFor(b.mapId, b.source));
+        }
+        if (runs.isEmpty()) return;
+
+        int k = runs.size();
+        int[] pos = new int[k];
+        // binary min-heap of run indices keyed by (time of the run's next point, run index)
+        int[] heap = new int[k];
+        long[] headTime = new long[k];
+        int size = 0;
+        for (int r = 0; r < k; r++) {
+            if (advance(runs.get(r), pos, r)) {
+                headTime[r] = runs.get(r).get(pos[r]).time;
+                heap[size] = r;
+                siftUp(heap, size++, headTime);
+            }
+        }
+
+        RawPoint best = null;
+        int bestRun = -1;
+        while (size > 0) {
+            int r = heap[0];
+            List<RawPoint> run = runs.get(r);
+            RawPoint p = run.get(pos[r]++);
+
+            if (best == null || p.time != best.time) {
+                if (best != null) out.accept(best, chains.get(bestRun));
+                best = p;
+                bestRun = r;
+            } else if (p.rms < best.rms) {
+                best = p;
+                bestRun = r;
+            }
+
+            if (advance(run, pos, r)) {
+                headTime[r] = run.get(pos[r]).time;
+                siftDown(heap, 0, size, headTime);
+            } else {
+                heap[0] = heap[--size];
+                if (size > 0) siftDown(heap, 0, size, headTime);
+            }
+        }
+        if (best != null) out.accept(best, chains.get(bestRun));
+    }
+
+    private static final Comparator<RawPoint> BY_TIME = new Comparator<RawPoint>() {
+        @Override public int compare(RawPoint a, RawPoint b) {
+            return Long.compare(a.time, b.time);
+        }
+    };
+
+    /** skip null points, true if the run has a next point at pos[r] */
+    private static boolean advance(List<RawPoint> run, int[] pos, int r) {
+        while (pos[r] < run.size() && run.get(pos[r]) == null) pos[r]++;
+        return pos[r] < run.size();
+    }
+
+    private static boolean isTimeOrdered(List<RawPoint> run) {
+        long prev = Long.MIN_VALUE;
+        for (RawPoint p : run) {
+            if (p == null) return false;
+            if (p.time < prev) return false;
+            prev = p.time;
+        }
+        return true;
+    }
+
+    private static boolean before(int a, int b, long[] headTime) {
+        return headTime[a] < headTime[b] || (headTime[a] == headTime[b] && a < b);
+    }
+
+    private static void siftUp(int[] heap, int i, long[] headTime) {
+        int x = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(x, heap[parent], headTime)) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = x;
+    }
+
+    private static void siftDown(int[] heap, int i, int size, long[] headTime) {
+        int x = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(heap[child + 1], heap[child], headTime)) child++;
+            if (!before(heap[child], x, headTime)) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = x;
+    }
+
+    /**
+     * sort + deduplicate + filter of one time-sorted columnar file in a single pass
+     * - same result as the list pipeline on that file's points (lowest rms per timestamp, first one on ties)
+     * - reads columns straight from the map, only points that survive become RawPoint objects
+     */
+    public List<RawPoint> preprocess(ColumnarPointFile file, long fromMs, long toMs){
+        if (file == null) return new ArrayList<RawPoint>();
+        return preprocess(file, fromMs, toMs, new PointBuffer()).toRawPoints();
+    }
+
+    /**
+     * same as preprocess(file, fromMs, toMs) without any object per point, survivors are appended to out
+     * - filtered with the chain of the file's mapId / source, like its batches in preprocess(batches)
+     */
+    public PointBuffer preprocess(ColumnarPointFile file, long fromMs, long toMs, PointBuffer out){
+        if (file == null) return out;
+
+        FilterChain chain = filters.chainFor(file.mapId(), file.source());
+        FilterBlock block = new FilterBlock();
+        ColumnarPointFile.Cursor c = file.cursor(fromMs, toMs);
+        boolean has = false;
+        long bestT = 0;
+        double bestX = 0, bestY = 0, bestV = 0, bestRms = 0, bestDt = 0;
+        int bestAnchors = 0;
+        boolean bestAccepted = false;
+
+        while (c.next()) {
+            if (has && c.time == bestT) {
+                if (c.rms < bestRms) {
+                    bestX = c.x; bestY = c.y; bestV = c.velocity; bestRms = c.rms; bestDt = c.dt;
+                    bestAnchors = c.anchorsUsed; bestAccepted = c.accepted;
+                }
+                continue;
+            }
+            if (has) {
+                block.add(bestT, bestX, bestY, bestV, bestAccepted, bestAnchors, bestRms, bestDt, chain);
+                if (block.full()) block.drainTo(out);
+            }
+            has = true;
+            bestT = c.time; bestX = c.x; bestY = c.y; bestV = c.velocity; bestRms = c.rms; bestDt = c.dt;
+            bestAnchors = c.anchorsUsed; bestAccepted = c.accepted;
+        }
+        if (has) block.add(bestT, bestX, bestY, bestV, bestAccepted, bestAnchors, bestRms, bestDt, chain);
+        block.drainTo(out);
+        return out;
+    }
+
+    /**
+     * sort + deduplicate + filter of a point buffer, same rules as the list pipeline, result in a new buffer
+     * - an already time-sorted buffer is read in place, otherwise only an int permutation is sorted (stable)
+     */
+    public PointBuffer preprocess(PointBuffer in){
+        PointBuffer out = new PointBuffer(in == null ? 0 : in.size);
+        if (in == null || in.size == 0) return out;
+
+        FilterChain chain = filters.chainFor(null, null);
+        FilterBlock block = new FilterBlock();
+        int[] order = sortedOrder(in.time, in.size);
+        int best = -1;
+        for (int k = 0; k < in.size; k++) {
+            int i = order == null ? k : order[k];
+            if (best >= 0 && in.time[i] == in.time[best]) {
+                if (in.rms[i] < in.rms[best]) best = i;
+                continue;
+            }
+            if (best >= 0) {
+                block.add(in, best, chain);
+                if (block.full()) block.drainTo(out);
+            }
+            best = i;
+        }
+        block.add(in, best, chain);
+        block.drainTo(out);
+        return out;
+    }
+
+    /** stable order of indices [0, n) by time, null when the times are sorted already */
+    private static int[] sortedOrder(long[] time, int n) {
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) sorted = time[i - 1] <= time[i];
+        if (sorted) return null;
+
+        int[] a = new int[n];
+        int[] tmp = new int[n];
+        for (int i = 0; i < n; i++) a[i] = i;
+        // bottom-up merge sort, left run wins on equal times
+        for (int width = 1; width < n; width <<= 1) {
+            for (int lo = 0; lo < n; lo += width << 1) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + (width << 1), n);
+                int l = lo, r = mid, o = lo;
+                while (l < mid && r < hi) tmp[o++] = time[a[r]] < time[a[l]] ? a[r++] : a[l++];
+                while (l < mid) tmp[o++] = a[l++];
+                while (r < hi) tmp[o++] = a[r++];
+            }
+            int[] t = a; a = tmp; tmp = t;
+        }
+        return a;
+    }
+
     private boolean similarPoint(RawPoint a, RawPoint b, double eps) {
         return Math.abs(a.x - b.x) <= eps && Math.abs(a.y - b.y) <= eps;
     }
 
-    private boolean withinBounds(double x, double y) {
-        return x >= mapMinX && x <= mapMaxX && y >= mapMinY && y <= mapMaxY;
+    /**
+     * deduplicated points waiting for their filter chain, filtered SIZE at a time with a selection vector
+     * - refs keeps the original objects of list input, so list output holds the same instances
+     * - a block with points of several chains (mixed map / source) runs each chain on its own subset
+     */
+    private static final class FilterBlock {
+        static final int SIZE = 1024;
+
+        final PointBuffer points = new PointBuffer(SIZE);
+        final RawPoint[] refs = new RawPoint[SIZE];
+        final FilterChain[] chainOf = new FilterChain[SIZE];
+        final int[] sel = new int[SIZE];
+
+        boolean full() { return points.size == SIZE; }
+
+        void add(RawPoint p, FilterChain chain) {
+            refs[points.size] = p;
+            chainOf[points.size] = chain;
+            points.add(p);
+        }
+
+        void add(long t, double x, double y, double v, boolean acc, int anchors, double rms, double dt, FilterChain chain) {
+            chainOf[points.size] = chain;
+            points.add(t, x, y, v, acc, anchors, rms, dt);
+        }
+
+        void add(PointBuffer src, int i, FilterChain chain) {
+            chainOf[points.size] = chain;
+            points.add(src, i);
+        }
+
+        void drainTo(List<RawPoint> out) {
+            int m = filter();
+            for (int k = 0; k < m; k++) {
+                int i = sel[k];
+                out.add(refs[i] != null ? refs[i] : points.rawPoint(i));
+            }
+            clear();
+        }
+
+        void drainTo(PointBuffer out) {
+            int m = filter();
+            for (int k = 0; k < m; k++) out.add(points, sel[k]);
+            clear();
+        }
+
+        /** survivors in sel[0, return), in point order */
+        private int filter() {
+            int n = points.size;
+            if (n == 0) return 0;
+            FilterChain first = chainOf[0];
+            boolean single = true;
+            for (int i = 1; i < n && single; i++) single = chainOf[i] == first;
+            for (int i = 0; i < n; i++) sel[i] = i;
+            if (single) return first.apply(points, sel, n);
+
+            boolean[] pass = new boolean[n];
+            int[] sub = new int[n];
+            List<FilterChain> done = new ArrayList<FilterChain>();
+            for (int i = 0; i < n; i++) {
+                FilterChain c = chainOf[i];
+                if (done.contains(c)) continue;
+                done.add(c);
+                int m = 0;
+                for (int j = i; j < n; j++) if (chainOf[j] == c) sub[m++] = j;
+                m = c.apply(points, sub, m);
+                for (int j = 0; j < m; j++) pass[sub[j]] = true;
+            }
+            int m = 0;
+            for (int i = 0; i < n; i++) if (pass[i]) sel[m++] = i;
+            return m;
+        }
+
+        private void clear() {
+            Arrays.fill(refs, 0, points.size, null);
+            Arrays.fill(chainOf, 0, points.size, null);
+            points.clear();
+        }
     }
 }
@@ -0,0 +1,308 @@
+package org.example.service.preprocessing;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * preprocessing while batches arrive, per device, instead of on the whole loaded day
+ * - points wait in a reorder buffer (min-heap on time, arrival order on ties)
+ * - watermark = newest point time seen - windowMs; everything at or before it is final: lowest rms
+ *   per timestamp wins (first arrival on ties), then the filter chain of the winner's map / source,
+ *   and the survivors are released in time order
+ * - a point at or before the released watermark is late: counted and sent to the late side output,
+ *   never to the main output
+ * - more than maxBuffered points waiting: the oldest timestamps are released early (forced)
+ * - flush() releases a device's buffer and drops its state, flushIdle() does that for devices without a
+ *   batch for idleMs, so memory is bounded by the devices currently sending, not by every device ever seen;
+ *   only the last watermark is kept for rememberMs (at most maxRemembered devices, oldest dropped first),
+ *   so stragglers of an evicted device still go to late; a device seen again after that starts over
+ * with batches offered in time order and flush() at the end the output equals preprocess(batches)
+ * devices are independent, a device's output is called under its lock, in order: keep it short
+ */
+public class IncrementalPreprocessor {
+
+    public interface Output {
+        /** finalized points of one device, time ordered, deduplicated and filtered */
+        void released(String deviceId, List<RawPoint> points);
+
+        /** points that arrived after their time was released */
+        void late(String deviceId, List<RawPoint> points);
+    }
+
+    private static final long DEFAULT_REMEMBER_MS = 60L * 60 * 1000;
+    private static final int DEFAULT_MAX_REMEMBERED = 100000;
+
+    private final DataPreprocessingModule preprocessor;
+    private final long windowMs;
+    private final int maxBuffered;
+    private final Output output;
+    private final Map<String, DeviceState> devices = new ConcurrentHashMap<String, DeviceState>();
+    private final long rememberMs;
+    /** watermark of evicted devices, eviction order; guarded by itself */
+    private final LinkedHashMap<String, Evicted> evicted;
+
+    private final AtomicLong releasedPoints = new AtomicLong();
+    private final AtomicLong latePoints = new AtomicLong();
+    private final AtomicLong forcedReleases = new AtomicLong();
+
+    /** evicted watermarks kept for an hour, at most 100000 devices */
+    public IncrementalPreprocessor(DataPreprocessingModule preprocessor, long windowMs, int maxBuffered, Output output) {
+        this(preprocessor, windowMs, maxBuffered, DEFAULT_REMEMBER_MS, DEFAULT_MAX_REMEMBERED, output);
+    }
+
+    public IncrementalPreprocessor(DataPreprocessingModule preprocessor, long windowMs, int maxBuffered,
+                                   long rememberMs, final int maxRemembered, Output output) {
+        if (windowMs < 0) {throw new IllegalArgumentException("reorder window has to be >= 0");}
+        if (maxBuffered <= 0) {throw new IllegalArgumentException("max buffered points has to be > 0");}
+        if (rememberMs < 0 || maxRemembered < 0) {throw new IllegalArgumentException("remembered watermarks need rememberMs >= 0 and maxRemembered >= 0");}
+        this.preprocessor = preprocessor;
+        this.windowMs = windowMs;
+        this.maxBuffered = maxBuffered;
+        this.rememberMs = rememberMs;
+        this.evicted = new LinkedHashMap<String, Evicted>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Evicted> eldest) {
+                return size() > maxRemembered;
+            }
+        };
+        this.output = output;
+    }
+
+    /** add one batch; devices are keyed by deviceId, null deviceId counts as "" */
+    public void offer(Batch batch) {
+        if (batch == null || batch.points == null || batch.points.isEmpty()) return;
+        String deviceId = batch.deviceId == null ? "" : batch.deviceId;
+        while (true) {
+            DeviceState d = devices.computeIfAbsent(deviceId, this::newState);
+            synchronized (d) {
+                // flushed and dropped meanwhile: take the new state
+                if (d.removed) continue;
+                d.lastOfferMs = System.currentTimeMillis();
+                offer(deviceId, d, batch);
+                return;
+            }
+        }
+    }
+
+    /** caller holds the device lock */
+    private void offer(String deviceId, DeviceState d, Batch batch) {
+        List<RawPoint> late = new ArrayList<RawPoint>();
+        for (RawPoint p : batch.points) {
+            if (p == null) continue;
+            if (d.hasWatermark && p.time <= d.watermark) {
+                late.add(p);
+                continue;
+            }
+            d.heap.add(new Pending(p, batch.mapId, batch.source, d.seq++));
+            d.maxTime = Math.max(d.maxTime, p.time);
+        }
+        if (!late.isEmpty()) {
+            latePoints.addAndGet(late.size());
+            output.late(deviceId, late);
+        }
+        if (d.heap.isEmpty()) return;
+        release(deviceId, d, d.maxTime - windowMs);
+        while (d.heap.size() > maxBuffered) {
+            forcedReleases.incrementAndGet();
+            release(deviceId, d, d.heap.peek().time);
+        }
+    }
+
+    /** release everything a device has buffered and drop its state (end of stream / device went idle) */
+    public void flush(String deviceId) {
+        String key = deviceId == null ? "" : deviceId;
+        DeviceState d = devices.get(key);
+        if (d == null) return;
+        synchronized (d) {
+            if (d.removed) return;
+            if (!d.heap.isEmpty()) release(key, d, d.maxTime);
+            d.removed = true;
+            // before the state leaves the map: a state created after that finds the watermark
+            if (d.hasWatermark) remember(key, d.watermark);
+            devices.remove(key, d);
+        }
+    }
+
+    public void flushAll() {
+        for (String deviceId : devices.keySet()) flush(deviceId);
+    }
+
+    /** flush every device that got no batch for idleMs; returns the devices flushed */
+    public int flushIdle(long idleMs) {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        int n = 0;
+        for (Map.Entry<String, DeviceState> e : devices.entrySet()) {
+            DeviceState d = e.getValue();
+            synchronized (d) {
+                if (d.removed || d.lastOfferMs > cutoff) continue;
+            }
+            flush(e.getKey());
+            n++;
+        }
+        return n;
+    }
+
+    /** devices holding state */
+    public int devices() { return devices.size(); }
+
+    /** evicted devices whose watermark is still kept (expired ones included until they are looked up or pushed out) */
+    public int remembered() {
+        synchronized (evicted) {
+            return evicted.size();
+        }
+    }
+
+    /** current watermark of a device, the remembered one after eviction, Long.MIN_VALUE before it has one */
+    public long watermark(String deviceId) {
+        String key = deviceId == null ? "" : deviceId;
+        DeviceState d = devices.get(key);
+        if (d == null) {
+            synchronized (evicted) {
+                Evicted e = evicted.get(key);
+                return e != null && System.currentTimeMillis() - e.atMs < rememberMs ? e.watermark : Long.MIN_VALUE;
+            }
+        }
+        synchronized (d) {
+            return d.hasWatermark ? d.watermark : Long.MIN_VALUE;
+        }
+    }
+
+    public int buffered(String deviceId) {
+        DeviceState d = devices.get(deviceId == null ? "" : deviceId);
+        if (d == null) return 0;
+        synchronized (d) {
+            return d.heap.size();
+        }
+    }
+
+    public long releasedPoints() { return releasedPoints.get(); }
+
+    public long latePoints() { return latePoints.get(); }
+
+    public long forcedReleases() { return forcedReleases.get(); }
+
+    /** caller holds the device lock */
+    private void release(String deviceId, DeviceState d, long watermark) {
+        if (d.hasWatermark && watermark <= d.watermark) return;
+        if (d.heap.isEmpty() || d.heap.peek().time > watermark) {
+            // nothing final yet, still move the watermark so older stragglers count as late
+            advance(d, watermark);
+            return;
+        }
+
+        // lowest rms per timestamp, first arrival on ties
+        List<Pending> winners = new ArrayList<Pending>();
+        Pending best = null;
+        while (!d.heap.isEmpty() && d.heap.peek().time <= watermark) {
+            Pending p = d.heap.poll();
+            if (best == null || p.time != best.time) {
+                if (best != null) winners.add(best);
+                best = p;
+            } else if (p.point.rms < best.point.rms) {
+                best = p;
+            }
+        }
+        winners.add(best);
+        advance(d, watermark);
+
+        // filter runs of the same map / source with their chain
+        List<RawPoint> out = new ArrayList<RawPoint>(winners.size());
+        int from = 0;
+        while (from < winners.size()) {
+            Pending first = winners.get(from);
+            int to = from + 1;
+            while (to < winners.size() && sameChain(first, winners.get(to))) to++;
+            List<RawPoint> run = new ArrayList<RawPoint>(to - from);
+            for (int i = from; i < to; i++) run.add(winners.get(i).point);
+            out.addAll(preprocessor.filter(run, first.mapId, first.source));
+            from = to;
+        }
+        if (out.isEmpty()) return;
+        releasedPoints.addAndGet(out.size());
+        output.released(deviceId, out);
+    }
+
+    private void remember(String deviceId, long watermark) {
+        if (rememberMs == 0) return;
+        synchronized (evicted) {
+            // re-inserted at the end: eviction order
+            evicted.remove(deviceId);
+            evicted.put(deviceId, new Evicted(watermark, System.currentTimeMillis()));
+        }
+    }
+
+    /** state of a device (re)appearing, continuing from its remembered watermark if it has one */
+    private DeviceState newState(String deviceId) {
+        DeviceState d = new DeviceState();
+        Evicted e;
+        synchronized (evicted) {
+            e = evicted.remove(deviceId);
+        }
+        if (e != null && System.currentTimeMillis() - e.atMs < rememberMs) {
+            d.watermark = e.watermark;
+            d.hasWatermark = true;
+        }
+        return d;
+    }
+
+    private static void advance(DeviceState d, long watermark) {
+        if (!d.hasWatermark || watermark > d.watermark) d.watermark = watermark;
+        d.hasWatermark = true;
+    }
+
+    private static boolean sameChain(Pending a, Pending b) {
+        return eq(a.mapId, b.mapId) && eq(a.source, b.source);
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static final class DeviceState {
+        final PriorityQueue<Pending> heap = new PriorityQueue<Pending>((a, b) ->
+                a.time != b.time ? Long.compare(a.time, b.time) : Long.compare(a.seq, b.seq));
+        long maxTime = Long.MIN_VALUE;
+        long watermark;
+        boolean hasWatermark;
+        long seq;
+        /** wall clock of the last offer, for flushIdle */
+        long lastOfferMs;
+        /** flushed and out of the map, offers have to take a fresh state */
+        boolean removed;
+    }
+
+    private static final class Evicted {
+        final long watermark;
+        /** wall clock of the eviction */
+        final long atMs;
+
+        Evicted(long watermark, long atMs) {
+            this.watermark = watermark;
+            this.atMs = atMs;
+        }
+    }
+
+    private static final class Pending {
+        final RawPoint point;
+        final long time;
+        final String mapId;
+        final String source;
+        final long seq;
+
+        Pending(RawPoint point, String mapId, String source, long seq) {
+            this.point = point;
+            this.time = point.time;
+            this.mapId = mapId;
+            this.source = source;
+            this.seq = seq;
+        }
+    }
+}
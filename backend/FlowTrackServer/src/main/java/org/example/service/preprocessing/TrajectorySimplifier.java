@@ -0,0 +1,93 @@
+package org.example.service.preprocessing;
+
+import org.example.model.point.PointBuffer;
+import org.example.model.point.RawPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * dead-band compression of one device's time-sorted track, optional stage between preprocessing and room tagging
+ * - a point is kept when it is more than toleranceM away from the last kept point, so every move
+ *   (and with it every room change) survives; a standing person collapses to a few points
+ * - when a move ends a dropped run, the run's last point is kept too: stays keep their real end time
+ * - the burstPoints - 1 samples after a move are kept as they are: with burstPoints = hysteresis L a
+ *   room entered gets the same L hits as without simplification, short pass-through stays survive
+ * - at least one point every heartbeatMs; with heartbeatMs <= tauMs the hysteresis time rule still fires
+ *   (at most one sample later)
+ * streaming: one pass, state is the last kept point and the burst countdown
+ */
+public class TrajectorySimplifier {
+
+    private final double toleranceM;
+    private final long heartbeatMs;
+    private final int burstPoints;
+
+    public TrajectorySimplifier(double toleranceM, long heartbeatMs, int burstPoints) {
+        if (!(toleranceM >= 0)) {throw new IllegalArgumentException("tolerance has to be >= 0");}
+        if (heartbeatMs <= 0) {throw new IllegalArgumentException("heartbeat has to be > 0");}
+        if (burstPoints <= 0) {throw new IllegalArgumentException("burst points has to be > 0");}
+        this.toleranceM = toleranceM;
+        this.heartbeatMs = heartbeatMs;
+        this.burstPoints = burstPoints;
+    }
+
+    /**
+     * tolerance = the room matcher's boundary buffer: a point closer than that to a kept one can only be
+     * tagged differently inside the boundary band; burst = hysteresis L, heartbeat = hysteresis tauMs
+     */
+    public static TrajectorySimplifier forMatching(double epsBoundary, int L, long tauMs) {
+        return new TrajectorySimplifier(epsBoundary, Math.max(1, tauMs), Math.max(1, L));
+    }
+
+    public List<RawPoint> simplify(List<RawPoint> in) {
+        if (in == null || in.size() <= 2) return in;
+        List<RawPoint> out = new ArrayList<RawPoint>();
+        RawPoint kept = in.get(0);
+        out.add(kept);
+        int lastKept = 0;
+        int burst = 0;
+        for (int i = 1; i < in.size(); i++) {
+            RawPoint p = in.get(i);
+            int why = burst > 0 ? BURST : keep(kept.x, kept.y, kept.time, p.x, p.y, p.time);
+            if (why == DROP && i != in.size() - 1) continue;
+            // a move closes the dropped run with its last point
+            if (why == MOVED && i - 1 > lastKept) out.add(in.get(i - 1));
+            burst = why == MOVED ? burstPoints - 1 : Math.max(0, burst - 1);
+            out.add(p);
+            kept = p;
+            lastKept = i;
+        }
+        return out;
+    }
+
+    /** same rules on a buffer, result in a new buffer (room labels are copied) */
+    public PointBuffer simplify(PointBuffer in) {
+        if (in == null || in.size <= 2) return in;
+        PointBuffer out = new PointBuffer(in.size / 4);
+        int kept = 0;
+        int burst = 0;
+        out.add(in, 0);
+        for (int i = 1; i < in.size; i++) {
+            int why = burst > 0 ? BURST : keep(in.x[kept], in.y[kept], in.time[kept], in.x[i], in.y[i], in.time[i]);
+            if (why == DROP && i != in.size - 1) continue;
+            if (why == MOVED && i - 1 > kept) out.add(in, i - 1);
+            burst = why == MOVED ? burstPoints - 1 : Math.max(0, burst - 1);
+            out.add(in, i);
+            kept = i;
+        }
+        return out;
+    }
+
+    private static final int DROP = 0;
+    private static final int MOVED = 1;
+    private static final int HEARTBEAT = 2;
+    private static final int BURST = 3;
+
+    private int keep(double keptX, double keptY, long keptT, double x, double y, long t) {
+        double dx = x - keptX;
+        double dy = y - keptY;
+        if (dx * dx + dy * dy > toleranceM * toleranceM) return MOVED;
+        return t - keptT >= heartbeatMs ? HEARTBEAT : DROP;
+    }
+}
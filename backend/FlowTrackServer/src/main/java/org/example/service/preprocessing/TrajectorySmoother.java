@@ -0,0 +1,164 @@
+package org.example.service.preprocessing;
+
+import org.example.model.point.PointBuffer;
+import org.example.model.point.RawPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * streaming smoothing of one device's time-sorted track, optional stage between dedup/filter and tagging
+ * - hampel filter: x and y of the center of a sliding window of 2 * halfWindow + 1 points are replaced by
+ *   the window median when they are more than nSigma * 1.4826 * MAD (and minDeviationM) away from it,
+ *   a single jump is pulled back instead of starting a room switch
+ * - velocity is recomputed from consecutive smoothed positions, the client value is not trusted;
+ *   a point faster than maxVelocity is dropped (the next one is measured against the last kept point)
+ * - output lags the input by halfWindow points; window ends are truncated at the start and on flush
+ * state per track is the window ring and the last emitted point, work per point depends only on the window
+ */
+public class TrajectorySmoother {
+
+    /** receives smoothed points in time order */
+    public interface Sink {
+        void accept(long time, double x, double y, double velocity, boolean accepted, int anchorsUsed, double rms, double dt);
+    }
+
+    private final int halfWindow;
+    private final double nSigma;
+    private final double minDeviationM;
+    private final double maxVelocity;
+
+    public TrajectorySmoother(int halfWindow, double nSigma, double minDeviationM, double maxVelocity) {
+        if (halfWindow <= 0) {throw new IllegalArgumentException("half window has to be > 0");}
+        if (!(nSigma > 0)) {throw new IllegalArgumentException("nSigma has to be > 0");}
+        if (!(minDeviationM >= 0)) {throw new IllegalArgumentException("min deviation has to be >= 0");}
+        if (!(maxVelocity > 0)) {throw new IllegalArgumentException("max velocity has to be > 0");}
+        this.halfWindow = halfWindow;
+        this.nSigma = nSigma;
+        this.minDeviationM = minDeviationM;
+        this.maxVelocity = maxVelocity;
+    }
+
+    /** 7 point window, 3 sigma, jumps under the room boundary buffer are left alone */
+    public static TrajectorySmoother forMatching(double epsBoundary, double maxVelocity) {
+        return new TrajectorySmoother(3, 3.0, epsBoundary, maxVelocity);
+    }
+
+    /** streaming state of one track */
+    public Track newTrack(Sink sink) {
+        return new Track(sink);
+    }
+
+    public List<RawPoint> smooth(List<RawPoint> in) {
+        if (in == null || in.isEmpty()) return in;
+        final List<RawPoint> out = new ArrayList<RawPoint>(in.size());
+        Track track = newTrack((t, x, y, v, acc, anchors, rms, dt) -> out.add(new RawPoint(t, x, y, v, acc, anchors, rms, dt)));
+        for (RawPoint p : in) track.push(p.time, p.x, p.y, p.velocity, p.accepted, p.anchorsUsed, p.rms, p.dt);
+        track.flush();
+        return out;
+    }
+
+    /** same as smooth(List) on a buffer, result in a new buffer */
+    public PointBuffer smooth(PointBuffer in) {
+        if (in == null || in.size == 0) return in;
+        final PointBuffer out = new PointBuffer(in.size);
+        Track track = newTrack(out::add);
+        for (int i = 0; i < in.size; i++) {
+            track.push(in.time[i], in.x[i], in.y[i], in.velocity[i], in.accepted[i], in.anchorsUsed[i], in.rms[i], in.dt[i]);
+        }
+        track.flush();
+        return out;
+    }
+
+    public final class Track {
+        private final Sink sink;
+        private final int size = 2 * halfWindow + 1;
+        // ring of the last `size` raw points
+        private final long[] time = new long[size];
+        private final double[] x = new double[size];
+        private final double[] y = new double[size];
+        private final boolean[] accepted = new boolean[size];
+        private final int[] anchorsUsed = new int[size];
+        private final double[] rms = new double[size];
+        private final double[] dt = new double[size];
+        private final double[] scratch = new double[size];
+        private final double[] dev = new double[size];
+
+        /** points pushed, next center to emit */
+        private long pushed;
+        private long nextCenter;
+
+        private boolean hasLast;
+        private long lastT;
+        private double lastX;
+        private double lastY;
+
+        private Track(Sink sink) {
+            this.sink = sink;
+        }
+
+        /** add the next point (time order); emits the point halfWindow positions back once it has its window */
+        public void push(long t, double px, double py, double velocity, boolean acc, int anchors, double r, double d) {
+            int slot = (int) (pushed % size);
+            time[slot] = t;
+            x[slot] = px;
+            y[slot] = py;
+            accepted[slot] = acc;
+            anchorsUsed[slot] = anchors;
+            rms[slot] = r;
+            dt[slot] = d;
+            pushed++;
+            if (pushed - nextCenter > halfWindow) emit(nextCenter++, pushed);
+        }
+
+        /** emit what is still waiting for its right half window (end of track) */
+        public void flush() {
+            while (nextCenter < pushed) emit(nextCenter++, pushed);
+        }
+
+        private void emit(long center, long end) {
+            long from = Math.max(0, center - halfWindow);
+            long to = Math.min(end, center + halfWindow + 1);
+            int c = (int) (center % size);
+            double sx = hampel(x, c, from, to);
+            double sy = hampel(y, c, from, to);
+            long t = time[c];
+
+            double v = 0;
+            if (hasLast) {
+                long ms = t - lastT;
+                v = ms > 0 ? Math.hypot(sx - lastX, sy - lastY) / (ms / 1000.0) : 0;
+                if (v > maxVelocity) return; // too fast even after smoothing
+            }
+            hasLast = true;
+            lastT = t;
+            lastX = sx;
+            lastY = sy;
+            sink.accept(t, sx, sy, v, accepted[c], anchorsUsed[c], rms[c], dt[c]);
+        }
+
+        private double hampel(double[] values, int c, long from, long to) {
+            int n = 0;
+            for (long i = from; i < to; i++) scratch[n++] = values[(int) (i % size)];
+            double median = median(scratch, n);
+            for (int i = 0; i < n; i++) dev[i] = Math.abs(scratch[i] - median);
+            double mad = median(dev, n);
+            double limit = Math.max(nSigma * 1.4826 * mad, minDeviationM);
+            return Math.abs(values[c] - median) > limit ? median : values[c];
+        }
+    }
+
+    /** median of a[0, n), reorders a; insertion sort, n is the window size */
+    private static double median(double[] a, int n) {
+        for (int i = 1; i < n; i++) {
+            double v = a[i];
+            int j = i - 1;
+            while (j >= 0 && a[j] > v) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+        return (n & 1) == 1 ? a[n / 2] : (a[n / 2 - 1] + a[n / 2]) / 2;
+    }
+}
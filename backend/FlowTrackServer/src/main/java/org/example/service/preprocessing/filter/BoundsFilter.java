@@ -0,0 +1,62 @@
+package org.example.service.preprocessing.filter;
+
+import org.example.model.map.FloorMap;
+import org.example.model.map.Room;
+import org.example.model.map.Vertex;
+import org.example.model.point.PointBuffer;
+
+/** drops points outside [minX, maxX] x [minY, maxY] */
+public final class BoundsFilter implements PointFilter {
+
+    /** the box every map used before bounds came from the map */
+    public static final BoundsFilter LEGACY = new BoundsFilter(-160, 240, 0, 280);
+
+    public final double minX;
+    public final double maxX;
+    public final double minY;
+    public final double maxY;
+
+    public BoundsFilter(double minX, double maxX, double minY, double maxY) {
+        if (!(minX <= maxX) || !(minY <= maxY)) {throw new IllegalArgumentException("empty bounds x " + minX + ".." + maxX + " y " + minY + ".." + maxY);}
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    /** envelope of every room vertex of the map, grown by marginM on each side */
+    public static BoundsFilter of(FloorMap map, double marginM) {
+        if (map == null || map.rooms == null || map.rooms.isEmpty()) {throw new IllegalArgumentException("map has no rooms to take bounds from");}
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Room r : map.rooms) {
+            if (r.vertices == null) continue;
+            for (Vertex v : r.vertices) {
+                minX = Math.min(minX, v.x);
+                maxX = Math.max(maxX, v.x);
+                minY = Math.min(minY, v.y);
+                maxY = Math.max(maxY, v.y);
+            }
+        }
+        if (minX > maxX) {throw new IllegalArgumentException("map " + map.map_id + " has no room vertices");}
+        return new BoundsFilter(minX - marginM, maxX + marginM, minY - marginM, maxY + marginM);
+    }
+
+    @Override
+    public int apply(PointBuffer points, int[] sel, int n) {
+        double[] x = points.x;
+        double[] y = points.y;
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel[k];
+            if (x[i] >= minX && x[i] <= maxX && y[i] >= minY && y[i] <= maxY) sel[m++] = i;
+        }
+        return m;
+    }
+
+    @Override
+    public double cost() { return 2; }
+
+    @Override
+    public String name() { return "bounds"; }
+}
@@ -0,0 +1,82 @@
+package org.example.service.preprocessing.filter;
+
+import org.example.model.point.PointBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * filters applied one after the other on a selection vector, a point has to pass all of them
+ * - the result does not depend on the order, so the chain reorders itself: filter with the lowest
+ *   cost / rejection rate first, each later filter only loops over what is left
+ * - rejection rates are counted per filter over every apply; the order is re-ranked every
+ *   RERANK_EVERY applies
+ * safe to share between threads: counters are atomic, the order is swapped as a whole
+ */
+public class FilterChain {
+
+    private static final int RERANK_EVERY = 64;
+
+    private final PointFilter[] filters;
+    private final AtomicLongArray seen;
+    private final AtomicLongArray passed;
+    private volatile int[] order;
+    private final AtomicInteger applies = new AtomicInteger();
+
+    public FilterChain(List<PointFilter> filters) {
+        this.filters = filters.toArray(new PointFilter[0]);
+        this.seen = new AtomicLongArray(this.filters.length);
+        this.passed = new AtomicLongArray(this.filters.length);
+        int[] o = new int[this.filters.length];
+        for (int i = 0; i < o.length; i++) o[i] = i;
+        this.order = o;
+    }
+
+    public static FilterChain of(BoundsFilter bounds, FilterThresholds thresholds) {
+        List<PointFilter> filters = new ArrayList<PointFilter>();
+        filters.add(bounds);
+        filters.add(new MaxRmsFilter(thresholds.maxRms));
+        filters.add(new MaxVelocityFilter(thresholds.maxVelocity));
+        return new FilterChain(filters);
+    }
+
+    /** keeps the indices of sel[0, n) that pass every filter at the front of sel, returns how many */
+    public int apply(PointBuffer points, int[] sel, int n) {
+        int[] o = order;
+        for (int f : o) {
+            if (n == 0) break;
+            int m = filters[f].apply(points, sel, n);
+            seen.addAndGet(f, n);
+            passed.addAndGet(f, m);
+            n = m;
+        }
+        if (applies.incrementAndGet() % RERANK_EVERY == 0) rerank();
+        return n;
+    }
+
+    /** filters in the order they run now */
+    public List<PointFilter> filters() {
+        List<PointFilter> out = new ArrayList<PointFilter>(filters.length);
+        for (int f : order) out.add(filters[f]);
+        return out;
+    }
+
+    private void rerank() {
+        final double[] rank = new double[filters.length];
+        for (int f = 0; f < filters.length; f++) {
+            long s = seen.get(f);
+            // not seen yet: keep it early so it gets measured
+            double rejectRate = s == 0 ? 1.0 : (s - passed.get(f)) / (double) s;
+            rank[f] = filters[f].cost() / Math.max(rejectRate, 1e-6);
+        }
+        Integer[] o = new Integer[filters.length];
+        for (int i = 0; i < o.length; i++) o[i] = order[i];
+        Arrays.sort(o, (a, b) -> Double.compare(rank[a], rank[b])); // stable: ties keep the current order
+        int[] next = new int[o.length];
+        for (int i = 0; i < o.length; i++) next[i] = o[i];
+        order = next;
+    }
+}
@@ -0,0 +1,110 @@
+package org.example.service.preprocessing.filter;
+
+import org.example.model.map.FloorMap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * which filter chain a batch gets, by its mapId and source
+ * - map ids are compared normalized (FloorMap.normalizeId), a batch's "Room 2320" finds map "room_2320"
+ * - bounds: envelope of the batch's map if the map was added, else the default bounds; a caller that
+ *   resolved the map itself (MapRegistry) passes the FloorMap and gets its envelope, whatever the mapId
+ * - thresholds: the source's if set, else the map's, else the defaults
+ * - one chain per (map, source) is built on first use and kept, so its selectivity stats add up
+ */
+public class FilterConfig {
+
+    /**
+     * room polygons are buffered 0.5 m and a point up to 0.8 m from a room still gets it,
+     * anything farther out than that from the map envelope can never be tagged
+     */
+    public static final double DEFAULT_MARGIN_M = 0.5 + 0.8;
+
+    private final FilterThresholds defaults;
+    private final BoundsFilter defaultBounds;
+    private final Map<String, BoundsFilter> boundsByMap = new ConcurrentHashMap<String, BoundsFilter>();
+    private final Map<String, FilterThresholds> thresholdsByMap = new ConcurrentHashMap<String, FilterThresholds>();
+    private final Map<String, FilterThresholds> thresholdsBySource = new ConcurrentHashMap<String, FilterThresholds>();
+    private final Map<String, FilterChain> chains = new ConcurrentHashMap<String, FilterChain>();
+    /** chains of resolved maps, source -> chain; weak: an evicted or reloaded map takes its chains along */
+    private final Map<FloorMap, Map<String, FilterChain>> chainsByMap =
+            Collections.synchronizedMap(new WeakHashMap<FloorMap, Map<String, FilterChain>>());
+
+    public FilterConfig(FilterThresholds defaults, BoundsFilter defaultBounds) {
+        this.defaults = defaults;
+        this.defaultBounds = defaultBounds;
+    }
+
+    /** the fixed box and limits of the old filter(), for every map and source */
+    public FilterConfig() {
+        this(FilterThresholds.LEGACY, BoundsFilter.LEGACY);
+    }
+
+    /** one-map setup: the map envelope is the default bounds */
+    public static FilterConfig forMap(FloorMap map, FilterThresholds defaults) {
+        FilterConfig c = new FilterConfig(defaults, BoundsFilter.of(map, DEFAULT_MARGIN_M));
+        return c.withMap(map);
+    }
+
+    public FilterConfig withMap(FloorMap map) {
+        if (map.map_id == null) {throw new IllegalArgumentException("map has no map_id");}
+        boundsByMap.put(FloorMap.normalizeId(map.map_id), BoundsFilter.of(map, DEFAULT_MARGIN_M));
+        chains.clear();
+        chainsByMap.clear();
+        return this;
+    }
+
+    public FilterConfig withMapThresholds(String mapId, FilterThresholds thresholds) {
+        thresholdsByMap.put(FloorMap.normalizeId(mapId), thresholds);
+        chains.clear();
+        chainsByMap.clear();
+        return this;
+    }
+
+    public FilterConfig withSourceThresholds(String source, FilterThresholds thresholds) {
+        thresholdsBySource.put(source, thresholds);
+        chains.clear();
+        chainsByMap.clear();
+        return this;
+    }
+
+    /** mapId / source may be null (unknown), they get the defaults */
+    public FilterChain chainFor(String mapId, String source) {
+        String key = mapId + "\u0000" + source;
+        FilterChain chain = chains.get(key);
+        if (chain != null) return chain;
+        return chains.computeIfAbsent(key, k -> FilterChain.of(boundsOf(mapId), thresholdsOf(mapId, source)));
+    }
+
+    /**
+     * chain for points known to be on this map: bounds = the map's envelope, thresholds by the source,
+     * else the map's map_id, else the defaults; map null = chainFor(null, source)
+     */
+    public FilterChain chainForMap(FloorMap map, String source) {
+        if (map == null) return chainFor(null, source);
+        Map<String, FilterChain> bySource;
+        synchronized (chainsByMap) {
+            bySource = chainsByMap.get(map);
+            if (bySource == null) {
+                bySource = new ConcurrentHashMap<String, FilterChain>();
+                chainsByMap.put(map, bySource);
+            }
+        }
+        return bySource.computeIfAbsent(String.valueOf(source), k ->
+                FilterChain.of(BoundsFilter.of(map, DEFAULT_MARGIN_M), thresholdsOf(map.map_id, source)));
+    }
+
+    private BoundsFilter boundsOf(String mapId) {
+        BoundsFilter b = mapId == null ? null : boundsByMap.get(FloorMap.normalizeId(mapId));
+        return b != null ? b : defaultBounds;
+    }
+
+    private FilterThresholds thresholdsOf(String mapId, String source) {
+        FilterThresholds t = source == null ? null : thresholdsBySource.get(source);
+        if (t == null && mapId != null) t = thresholdsByMap.get(FloorMap.normalizeId(mapId));
+        return t != null ? t : defaults;
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.service.preprocessing.filter;
+
+/** point quality limits of one map or source */
+public final class FilterThresholds {
+
+    /** the limits every map and device used before they became configurable */
+    public static final FilterThresholds LEGACY = new FilterThresholds(4, 3);
+
+    /** worst accepted accuracy (rms, m) */
+    public final double maxRms;
+    /** fastest accepted speed (m/s) */
+    public final double maxVelocity;
+
+    public FilterThresholds(double maxRms, double maxVelocity) {
+        if (!(maxRms > 0) || !(maxVelocity > 0)) {throw new IllegalArgumentException("thresholds have to be > 0, rms=" + maxRms + " velocity=" + maxVelocity);}
+        this.maxRms = maxRms;
+        this.maxVelocity = maxVelocity;
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.service.preprocessing.filter;
+
+import org.example.model.point.PointBuffer;
+
+/** drops points whose accuracy (rms) is worse than max */
+public final class MaxRmsFilter implements PointFilter {
+
+    private final double max;
+
+    public MaxRmsFilter(double max) {this.max = max;}
+
+    @Override
+    public int apply(PointBuffer points, int[] sel, int n) {
+        double[] rms = points.rms;
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel[k];
+            if (!(rms[i] > max)) sel[m++] = i;
+        }
+        return m;
+    }
+
+    @Override
+    public double cost() { return 1; }
+
+    @Override
+    public String name() { return "rms"; }
+}
@@ -0,0 +1,28 @@
+package org.example.service.preprocessing.filter;
+
+import org.example.model.point.PointBuffer;
+
+/** drops points faster than max (m/s) */
+public final class MaxVelocityFilter implements PointFilter {
+
+    private final double max;
+
+    public MaxVelocityFilter(double max) {this.max = max;}
+
+    @Override
+    public int apply(PointBuffer points, int[] sel, int n) {
+        double[] velocity = points.velocity;
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel[k];
+            if (!(velocity[i] > max)) sel[m++] = i;
+        }
+        return m;
+    }
+
+    @Override
+    public double cost() { return 1; }
+
+    @Override
+    public String name() { return "velocity"; }
+}
@@ -0,0 +1,18 @@
+package org.example.service.preprocessing.filter;
+
+import org.example.model.point.PointBuffer;
+
+/**
+ * one preprocessing rule over a block of points
+ * - sel[0, n) are indices into the buffer, in order; apply keeps the passing ones at the front
+ *   (same order) and returns how many passed, nothing else is copied
+ * - cost is relative work per point, the chain uses it with the observed pass rate to order filters
+ */
+public interface PointFilter {
+
+    int apply(PointBuffer points, int[] sel, int n);
+
+    double cost();
+
+    String name();
+}
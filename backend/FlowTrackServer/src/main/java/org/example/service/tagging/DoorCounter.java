@@ -0,0 +1,29 @@
+package org.example.service.tagging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** crossings of one doorway within a DoorFlows; forward = from_room -> to_room */
+public class DoorCounter {
+
+    public final String doorId;
+    public final String fromRoom;
+    public final String toRoom;
+    private final AtomicLong forward = new AtomicLong();
+    private final AtomicLong backward = new AtomicLong();
+
+    DoorCounter(String doorId, String fromRoom, String toRoom) {
+        this.doorId = doorId;
+        this.fromRoom = fromRoom;
+        this.toRoom = toRoom;
+    }
+
+    void record(boolean isForward) {
+        (isForward ? forward : backward).incrementAndGet();
+    }
+
+    public long forward() { return forward.get(); }
+
+    public long backward() { return backward.get(); }
+
+    public long total() { return forward.get() + backward.get(); }
+}
@@ -0,0 +1,31 @@
+package org.example.service.tagging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * door crossings of one tagging call (one track), passed in by the caller and filled by RoomMatchingModule;
+ * the chunks of a parallel call share it, so counters are atomic
+ * counters are keyed by door number in the DoorIndex, so one DoorFlows belongs to one map
+ */
+public class DoorFlows {
+
+    private final Map<Integer, DoorCounter> byDoor = new ConcurrentHashMap<Integer, DoorCounter>();
+
+    void record(DoorIndex doors, int door, boolean forward) {
+        DoorCounter c = byDoor.get(door);
+        if (c == null) c = byDoor.computeIfAbsent(door, i -> new DoorCounter(doors.id(i), doors.fromRoom(i), doors.toRoom(i)));
+        c.record(forward);
+    }
+
+    public boolean isEmpty() { return byDoor.isEmpty(); }
+
+    /** doors crossed at least once, by door id */
+    public List<DoorCounter> counters() {
+        List<DoorCounter> out = new ArrayList<DoorCounter>(byDoor.values());
+        out.sort((a, b) -> a.doorId.compareTo(b.doorId));
+        return out;
+    }
+}
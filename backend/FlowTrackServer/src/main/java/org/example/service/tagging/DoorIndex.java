@@ -0,0 +1,200 @@
+package org.example.service.tagging;
+
+import org.example.model.map.Doorway;
+import org.example.model.map.RoomGeom;
+import org.example.model.map.Vertex;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.ItemVisitor;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * door segments of a floor map in an STRtree, for "did this step cross a door" per consecutive point pair
+ * - a step crosses a door when its end lies on the other side of the door line than its start and the
+ *   step passes between the door's end points (ends included); the line itself belongs to one side, so a
+ *   walk that stops exactly on the line on its way through is counted once
+ * - forward = the step ends on the to_room side (side of the to_room centroid, else away from the
+ *   from_room centroid, else left of the segment as listed)
+ * - a doorway without id, without a 2 vertex finite non zero length segment, or with an id already used
+ *   is skipped and logged, the rest of the map still loads; door numbers count the doors kept
+ * read only once built, shared by all threads; query state lives in Crossings
+ */
+public class DoorIndex {
+
+    private final String[] ids;
+    private final String[] fromRooms;
+    private final String[] toRooms;
+    private final double[] ax, ay, bx, by;
+    /** +1 / -1: sign of cross() on the to_room side */
+    private final int[] toSide;
+    private final STRtree tree = new STRtree();
+
+    private DoorIndex(List<Doorway> doors, Map<String, RoomGeom> rooms) {
+        int n = doors.size();
+        ids = new String[n];
+        fromRooms = new String[n];
+        toRooms = new String[n];
+        ax = new double[n];
+        ay = new double[n];
+        bx = new double[n];
+        by = new double[n];
+        toSide = new int[n];
+        for (int i = 0; i < n; i++) {
+            Doorway d = doors.get(i);
+            ids[i] = d.id;
+            fromRooms[i] = d.from_room;
+            toRooms[i] = d.to_room;
+            ax[i] = d.segment[0].x;
+            ay[i] = d.segment[0].y;
+            bx[i] = d.segment[1].x;
+            by[i] = d.segment[1].y;
+            toSide[i] = toSide(i, rooms.get(d.to_room), rooms.get(d.from_room));
+            tree.insert(new Envelope(ax[i], bx[i], ay[i], by[i]), i);
+        }
+        tree.build();
+    }
+
+    /** null when the map has no usable doorways */
+    public static DoorIndex build(List<Doorway> doors, Map<String, RoomGeom> rooms) {
+        if (doors == null || doors.isEmpty()) return null;
+        List<Doorway> kept = new ArrayList<Doorway>(doors.size());
+        Set<String> ids = new HashSet<String>();
+        for (Doorway d : doors) {
+            String problem = problem(d);
+            if (problem == null && !ids.add(d.id)) problem = "duplicate id";
+            if (problem != null) {
+                System.err.println("doorway skipped: " + problem + " id=" + (d == null ? null : d.id));
+                continue;
+            }
+            kept.add(d);
+        }
+        return kept.isEmpty() ? null : new DoorIndex(kept, rooms);
+    }
+
+    /** why a doorway can not be used, null when it can */
+    private static String problem(Doorway d) {
+        if (d == null) return "null doorway";
+        if (d.id == null || d.id.trim().isEmpty()) return "no id";
+        if (d.segment == null || d.segment.length != 2 || d.segment[0] == null || d.segment[1] == null) return "needs a 2 vertex segment";
+        Vertex a = d.segment[0], b = d.segment[1];
+        if (!isFinite(a.x) || !isFinite(a.y) || !isFinite(b.x) || !isFinite(b.y)) return "segment is not finite";
+        if (a.x == b.x && a.y == b.y) return "segment has zero length";
+        return null;
+    }
+
+    private static boolean isFinite(double v) {
+        return !Double.isNaN(v) && !Double.isInfinite(v);
+    }
+
+    public int size() { return ids.length; }
+
+    public String id(int door) { return ids[door]; }
+
+    public String fromRoom(int door) { return fromRooms[door]; }
+
+    public String toRoom(int door) { return toRooms[door]; }
+
+    /** doors crossed by the step (x0, y0) -> (x1, y1), into c in step order */
+    public void crossings(double x0, double y0, double x1, double y1, Crossings c) {
+        if (x0 == x1 && y0 == y1) {
+            c.count = 0;
+            return;
+        }
+        c.start(this, x0, y0, x1, y1);
+        c.env.init(x0, x1, y0, y1);
+        try {
+            tree.query(c.env, c);
+        } finally {
+            // the per thread result must not keep this map's index reachable
+            c.doors = null;
+        }
+    }
+
+    private int toSide(int i, RoomGeom to, RoomGeom from) {
+        if (to != null) {
+            Point c = to.polygon.getCentroid();
+            double s = cross(i, c.getX(), c.getY());
+            if (s != 0) return s > 0 ? 1 : -1;
+        }
+        if (from != null) {
+            Point c = from.polygon.getCentroid();
+            double s = cross(i, c.getX(), c.getY());
+            if (s != 0) return s > 0 ? -1 : 1;
+        }
+        return 1;
+    }
+
+    /** > 0 left of the door segment a -> b */
+    private double cross(int i, double x, double y) {
+        return (bx[i] - ax[i]) * (y - ay[i]) - (by[i] - ay[i]) * (x - ax[i]);
+    }
+
+    /** reusable result of crossings(), one per thread */
+    public static final class Crossings implements ItemVisitor {
+        private final Envelope env = new Envelope();
+        private DoorIndex doors;
+        private double x0, y0, x1, y1;
+        private int count;
+        private int[] door = new int[4];
+        private boolean[] forward = new boolean[4];
+        /** position of the crossing along the step, 0..1, for the order */
+        private double[] at = new double[4];
+
+        public int count() { return count; }
+
+        public int door(int k) { return door[k]; }
+
+        public boolean forward(int k) { return forward[k]; }
+
+        private void start(DoorIndex d, double px0, double py0, double px1, double py1) {
+            doors = d;
+            x0 = px0;
+            y0 = py0;
+            x1 = px1;
+            y1 = py1;
+            count = 0;
+        }
+
+        @Override
+        public void visitItem(Object item) {
+            int i = (Integer) item;
+            DoorIndex d = doors;
+            double s0 = d.cross(i, x0, y0);
+            double s1 = d.cross(i, x1, y1);
+            // half open: > 0 is one side, <= 0 the other
+            if ((s0 > 0) == (s1 > 0)) return;
+            // door end points on different sides of the step (or on it)
+            double dx = x1 - x0, dy = y1 - y0;
+            double ea = dx * (d.ay[i] - y0) - dy * (d.ax[i] - x0);
+            double eb = dx * (d.by[i] - y0) - dy * (d.bx[i] - x0);
+            if ((ea > 0 && eb > 0) || (ea < 0 && eb < 0)) return;
+            add(i, (s1 > 0 ? 1 : -1) == d.toSide[i], s0 / (s0 - s1));
+        }
+
+        private void add(int i, boolean fwd, double t) {
+            if (count == door.length) {
+                door = Arrays.copyOf(door, count * 2);
+                forward = Arrays.copyOf(forward, count * 2);
+                at = Arrays.copyOf(at, count * 2);
+            }
+            // insertion by position along the step, visit order on ties
+            int k = count++;
+            while (k > 0 && at[k - 1] > t) {
+                door[k] = door[k - 1];
+                forward[k] = forward[k - 1];
+                at[k] = at[k - 1];
+                k--;
+            }
+            door[k] = i;
+            forward[k] = fwd;
+            at[k] = t;
+        }
+    }
+}
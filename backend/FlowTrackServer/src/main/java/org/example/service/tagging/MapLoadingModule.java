@@ -10,43 +10,102 @@ import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.operation.buffer.BufferParameters;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.util.*;
-
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * floor map -> room polygons, STRtree, primitive shapes, optional lookup grid and doorway index, held as one Snapshot
+ * thread safety: a snapshot is built completely and only read afterwards, so its getters and concurrent
+ * queries on its index are safe (the tree is built, a query does not change it)
+ * - reload() builds a new snapshot from the map file on the calling thread and swaps it in atomically;
+ *   readers never block, a call that took the old snapshot finishes on it
+ * - the getters here read the current snapshot each time; code that reads several parts (index, then
+ *   room(i)) takes snapshot() once and stays on it
+ * - prepared geometries build their point locator lazily under a lock (jts 1.19): safe to share, but every
+ *   covers() takes that lock; tagging uses the lock free RoomShape instead
+ */
 @Component
 public class MapLoadingModule {
 
 
+    public static final String DEFAULT_MAP_DIR = "localRepository/input/maps";
+    public static final String DEFAULT_MAP_FILE = "test_map_001.json";
+
     private final LocalRepository repo;
+    private final String mapDir;
+    private final String mapFile;
     private final GeometryFactory gf = new GeometryFactory();
     private final PreparedGeometryFactory pFactory = new PreparedGeometryFactory();
 
-    private FloorMap floorMap;
-    private Map<String, RoomGeom> byId;
-    private STRtree rtree;
+    /** cell size (m) of the lookup grid, <= 0 = no grid */
+    private final double gridCellM;
+    /** the map tagging reads, replaced as a whole by reload() */
+    private final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>();
+    /** one reload at a time, so an older build cannot replace a newer one; readers never take it */
+    private final Object reloadLock = new Object();
+
+    /** the default map file */
+    @Autowired
+    public MapLoadingModule(LocalRepository repo, @Value("${flowtrack.map.grid-cell-m:0}") double gridCellM){
+        this(repo, DEFAULT_MAP_DIR, DEFAULT_MAP_FILE, gridCellM);
+    }
 
-    public MapLoadingModule(LocalRepository repo){
+    /** one floor map file of mapDir, see MapRegistry */
+    public MapLoadingModule(LocalRepository repo, String mapDir, String mapFile, double gridCellM){
         this.repo = repo;
-        buildOnce();
+        this.mapDir = mapDir;
+        this.mapFile = mapFile;
+        this.gridCellM = gridCellM;
+        current.set(build(1));
+    }
+
+    /** no lookup grid, every point runs the geometry test */
+    public MapLoadingModule(LocalRepository repo){
+        this(repo, 0);
     }
 
     //@PostConstruct
-    public void init() {buildOnce();}
-    private void buildOnce() {
+    public void init() {reload();}
+
+    /**
+     * read the map file again and publish the new snapshot; tagging goes on with the old one meanwhile.
+     * a map that fails to load or build throws and the current snapshot stays
+     */
+    public Snapshot reload() {
+        synchronized (reloadLock) {
+            Snapshot next = build(current.get().version + 1);
+            current.set(next);
+            return next;
+        }
+    }
+
+    /** the current map; stays valid (and unchanged) after a reload */
+    public Snapshot snapshot() { return current.get(); }
+
+    public String mapDir() { return mapDir; }
+
+    public String mapFile() { return mapFile; }
+
+    private Snapshot build(long version) {
         // 1) read FloorMap
-        this.floorMap = repo.loadMapSetting("localRepository/input/maps", "test_map_001.json");
+        FloorMap floorMap = repo.loadMapSetting(mapDir, mapFile);
 
         // 2) Room -> Polygon
-        this.byId = new HashMap<String, RoomGeom>();
-        this.rtree = new STRtree();
+        Map<String, RoomGeom> byId = new HashMap<String, RoomGeom>();
+        STRtree rtree = new STRtree();
 
         if (floorMap.rooms == null || floorMap.rooms.isEmpty()) {
             throw new IllegalStateException("rooms not find in map");
         }
 
-        for (Room r : floorMap.rooms) {
+        RoomGeom[] ordered = new RoomGeom[floorMap.rooms.size()];
+        for (int i = 0; i < ordered.length; i++) {
+            Room r = floorMap.rooms.get(i);
 
             Polygon polygon = room2Polygon(r.vertices);
 
@@ -60,13 +119,24 @@ public class MapLoadingModule {
             }
 
             PreparedGeometry pg = pFactory.create(polygon);
-            RoomGeom rg = new RoomGeom(r, polygon, pg);
+            RoomGeom rg = new RoomGeom(r, polygon, pg, i);
 
+            ordered[i] = rg;
             byId.put(r.id, rg);
             rtree.insert(rg.envelope, rg);
         }
 
         rtree.build();
+        RoomShape[] shapes = RoomShape.buildAll(ordered, rtree, gf, RoomMatchingModule.EPS_BOUNDARY);
+
+        // 3) optional lookup grid, ordered like the map file (grid index = RoomGeom.index)
+        RoomGrid grid = null;
+        if (gridCellM > 0) {
+            grid = RoomGrid.build(Arrays.asList(ordered), rtree, gf, gridCellM, RoomMatchingModule.EPS_BOUNDARY, RoomMatchingModule.NEAREST_ROOM_M);
+        }
+        // 4) door segments, null when the map has none
+        DoorIndex doors = DoorIndex.build(floorMap.doorways, byId);
+        return new Snapshot(version, floorMap, Collections.unmodifiableMap(byId), rtree, ordered, shapes, grid, doors);
     }
 
     /** List<Vertex> to closed JTS Polygon */
@@ -85,18 +155,71 @@ public class MapLoadingModule {
         return gf.createPolygon(shell, null);
     }
 
-    // read only service
+    /** one built map, never changed after construction */
+    public static final class Snapshot {
+        /** 1 for the first build, +1 per reload */
+        public final long version;
+        private final FloorMap floorMap;
+        private final Map<String, RoomGeom> byId;
+        private final STRtree rtree;
+        /** rooms in map file order, array index = RoomGeom.index */
+        private final RoomGeom[] ordered;
+        private final RoomShape[] shapes;
+        private final RoomGrid grid;
+        private final DoorIndex doors;
+
+        private Snapshot(long version, FloorMap floorMap, Map<String, RoomGeom> byId, STRtree rtree,
+                         RoomGeom[] ordered, RoomShape[] shapes, RoomGrid grid, DoorIndex doors) {
+            this.version = version;
+            this.floorMap = floorMap;
+            this.byId = byId;
+            this.rtree = rtree;
+            this.ordered = ordered;
+            this.shapes = shapes;
+            this.grid = grid;
+            this.doors = doors;
+        }
+
+        public STRtree index() { return rtree; }
+
+        public RoomGrid grid() { return grid; }
+
+        /** doorway segments, null when the map has none */
+        public DoorIndex doors() { return doors; }
+
+        public RoomGeom roomById(String id) { return byId.get(id); }
+
+        public RoomGeom room(int index) { return ordered[index]; }
+
+        public int roomCount() { return ordered.length; }
+
+        RoomShape shape(int index) { return shapes[index]; }
+
+        public Map<String, RoomGeom> rooms() { return byId; }
+
+        public FloorMap floorMap() { return floorMap; }
+    }
+
+    // read only service, each call reads the current snapshot
     public GeometryFactory geometryFactory() { return gf; }
 
     /** space index */
-    public STRtree index() { return rtree; }
+    public STRtree index() { return current.get().index(); }
+
+    /** precomputed room lookup grid, null when disabled */
+    public RoomGrid grid() { return current.get().grid(); }
 
     /** get room by id */
-    public RoomGeom roomById(String id) { return byId.get(id); }
+    public RoomGeom roomById(String id) { return current.get().roomById(id); }
+
+    /** room at RoomGeom.index */
+    public RoomGeom room(int index) { return current.get().room(index); }
+
+    public int roomCount() { return current.get().roomCount(); }
 
     /** get all rooms */
-    public Map<String, RoomGeom> rooms() { return byId; }
+    public Map<String, RoomGeom> rooms() { return current.get().rooms(); }
 
     /** raw floor map */
-    public FloorMap floorMap() { return floorMap; }
+    public FloorMap floorMap() { return current.get().floorMap(); }
 }
@@ -0,0 +1,247 @@
+package org.example.service.tagging;
+
+import org.example.model.bundle.Batch;
+import org.example.model.map.FloorMap;
+import org.example.repository.LocalRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * spatial index per floor map, picked by the ids a batch carries
+ * - catalog: every *.json map of mapDir, read once on first use (ids only, the geometry is dropped)
+ * - a batch resolves by its mapId, else by buildingId + floorId, all compared with FloorMap.normalizeId
+ * - a map's MapLoadingModule / RoomMatchingModule are built on first use and kept in an LRU of maxMaps
+ *   maps; the cache holds futures, concurrent callers of a map that is being built wait for that build
+ * - warm() builds maps ahead on an executor, again without duplicate builds
+ * - reload(file) rebuilds a cached map in place (MapLoadingModule.reload, atomic snapshot swap)
+ * an evicted map is built again on its next use; callers holding the old one can keep using it
+ */
+@Component
+public class MapRegistry {
+
+    private final LocalRepository repo;
+    private final String mapDir;
+    private final int maxMaps;
+    private final double gridCellM;
+
+    /** normalized map_id -> file, normalized building_id/floor_id -> file; null until scanned */
+    private volatile Catalog catalog;
+
+    /** file -> map, access order */
+    private final LinkedHashMap<String, CompletableFuture<LoadedMap>> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MapRegistry(LocalRepository repo,
+                       @Value("${flowtrack.map.dir:" + MapLoadingModule.DEFAULT_MAP_DIR + "}") String mapDir,
+                       @Value("${flowtrack.map.cache-size:16}") int maxMaps,
+                       @Value("${flowtrack.map.grid-cell-m:0}") double gridCellM) {
+        if (maxMaps <= 0) {throw new IllegalArgumentException("map cache size has to be > 0");}
+        this.repo = repo;
+        this.mapDir = mapDir;
+        this.maxMaps = maxMaps;
+        this.gridCellM = gridCellM;
+        this.cache = new LinkedHashMap<String, CompletableFuture<LoadedMap>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<LoadedMap>> eldest) {
+                if (size() <= MapRegistry.this.maxMaps) return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /** a built map and its matcher */
+    public static final class LoadedMap {
+        public final String file;
+        public final MapLoadingModule loader;
+        public final RoomMatchingModule matcher;
+
+        LoadedMap(String file, MapLoadingModule loader) {
+            this.file = file;
+            this.loader = loader;
+            this.matcher = new RoomMatchingModule(loader);
+        }
+    }
+
+    /** map file of these ids, null when no map matches */
+    public String resolve(String mapId, String floorId, String buildingId) {
+        Catalog c = catalog();
+        String file = mapId == null ? null : c.byMapId.get(FloorMap.normalizeId(mapId));
+        if (file == null && floorId != null && buildingId != null) file = c.byFloor.get(floorKey(buildingId, floorId));
+        return file;
+    }
+
+    /** map of a batch, built on first use; IllegalStateException when no map matches */
+    public LoadedMap forBatch(Batch batch) {
+        String file = resolve(batch.mapId, batch.floorId, batch.buildingId);
+        if (file == null) {
+            throw new IllegalStateException("no map for mapId=" + batch.mapId + " floorId=" + batch.floorId + " buildingId=" + batch.buildingId);
+        }
+        return get(file);
+    }
+
+    /** map of one file of mapDir, built on first use */
+    public LoadedMap get(String file) {
+        CompletableFuture<LoadedMap> f;
+        boolean build = false;
+        synchronized (cache) {
+            f = cache.get(file);
+            if (f == null) {
+                f = new CompletableFuture<LoadedMap>();
+                cache.put(file, f);
+                build = true;
+            }
+        }
+        if (build) {
+            builds.incrementAndGet();
+            try {
+                f.complete(new LoadedMap(file, new MapLoadingModule(repo, mapDir, file, gridCellM)));
+            } catch (RuntimeException e) {
+                f.completeExceptionally(e);
+                // not cached: the next call tries again
+                synchronized (cache) {
+                    cache.remove(file, f);
+                }
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * build the maps of these batches on the executor (one task per map, maps already cached or being built
+     * are not built again); batches without a map are skipped; completes when every map is ready
+     */
+    public CompletableFuture<Void> warm(Collection<Batch> batches, Executor executor) {
+        Set<String> files = new LinkedHashSet<String>();
+        for (Batch b : batches) {
+            String file = b == null ? null : resolve(b.mapId, b.floorId, b.buildingId);
+            if (file != null) files.add(file);
+        }
+        List<CompletableFuture<LoadedMap>> tasks = new ArrayList<CompletableFuture<LoadedMap>>();
+        for (String file : files) tasks.add(CompletableFuture.supplyAsync(() -> get(file), executor));
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * a map file changed: scan the catalog again and, when the map is cached and built, reload it
+     * (tagging keeps the old snapshot until the new one is ready); false when it was not cached.
+     * a map that fails to build throws and keeps its old snapshot
+     */
+    public boolean reload(String file) {
+        refreshCatalog();
+        CompletableFuture<LoadedMap> f;
+        synchronized (cache) {
+            f = cache.get(file);
+        }
+        if (f == null) return false;
+        LoadedMap map;
+        try {
+            // a build still running may have read the file before the change: wait for it, then reload
+            map = f.join();
+        } catch (CompletionException e) {
+            return false; // failed build, not cached
+        }
+        map.loader.reload();
+        return true;
+    }
+
+    public String mapDir() { return mapDir; }
+
+    /** scan mapDir again (new or changed map files); cached maps stay until evicted */
+    public void refreshCatalog() {
+        catalog = scan();
+    }
+
+    /** map files currently cached (built or being built), least recently used first */
+    public List<String> cachedFiles() {
+        synchronized (cache) {
+            return new ArrayList<String>(cache.keySet());
+        }
+    }
+
+    public long hits() { return hits.get(); }
+
+    public long builds() { return builds.get(); }
+
+    public long evictions() { return evictions.get(); }
+
+    // ---------------- catalog ----------------
+
+    private static final class Catalog {
+        final Map<String, String> byMapId = new HashMap<String, String>();
+        final Map<String, String> byFloor = new HashMap<String, String>();
+    }
+
+    private Catalog catalog() {
+        Catalog c = catalog;
+        if (c != null) return c;
+        synchronized (this) {
+            if (catalog == null) catalog = scan();
+            return catalog;
+        }
+    }
+
+    private Catalog scan() {
+        Path folder = Paths.get(mapDir);
+        if (!Files.isDirectory(folder)) {throw new IllegalStateException("map directory does not exist: " + folder.toAbsolutePath());}
+        List<String> files = new ArrayList<String>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(folder, "*.json")) {
+            for (Path p : ds) files.add(p.getFileName().toString());
+        } catch (IOException e) {
+            throw new RuntimeException("fail to read directory: " + folder.toAbsolutePath(), e);
+        }
+        // sorted: with duplicate ids the first file by name wins, whatever the directory order
+        files.sort(null);
+
+        Catalog c = new Catalog();
+        for (String file : files) {
+            FloorMap m;
+            try {
+                m = repo.loadMapSetting(mapDir, file);
+            } catch (RuntimeException e) {
+                System.err.println("fail to read map, skipped: " + file + ". reason: " + e.getMessage());
+                continue;
+            }
+            if (m.map_id != null) putFirst(c.byMapId, FloorMap.normalizeId(m.map_id), file);
+            if (m.building_id != null && m.floor_id != null) putFirst(c.byFloor, floorKey(m.building_id, m.floor_id), file);
+        }
+        return c;
+    }
+
+    private static void putFirst(Map<String, String> index, String key, String file) {
+        String first = index.putIfAbsent(key, file);
+        if (first != null) System.err.println("duplicate map id " + key + " in " + file + ", using " + first);
+    }
+
+    private static String floorKey(String buildingId, String floorId) {
+        return FloorMap.normalizeId(buildingId) + "/" + FloorMap.normalizeId(floorId);
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.service.tagging;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * map edits without a restart: changed map files are rebuilt and swapped in while tagging goes on
+ * - reload(file) / reloadAll(): the default map (MapLoadingModule bean) and the registry's cached maps
+ *   of that file build a new snapshot on the calling thread, then publish it atomically
+ * - watch = true: a daemon thread watches the map directory; after quietMs without further events
+ *   (editors write in several steps) every changed *.json is reloaded on that thread
+ * - a map that fails to build keeps its old snapshot; the failure is logged and counted
+ * groundwork: only the map beans are reloaded, and nothing in the server tags with them yet; the offline
+ * TempStaticAnalysis builds its own MapRegistry, so watch is off by default
+ */
+@Component
+public class MapReloader {
+
+    public static final String RELOADED = "reloaded";
+    public static final String NOT_LOADED = "not loaded";
+
+    private final MapLoadingModule defaultMap;
+    private final MapRegistry maps;
+    private final long quietMs;
+    private final WatchService watcher;
+    private final Thread watchThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public MapReloader(MapLoadingModule defaultMap, MapRegistry maps,
+                       @Value("${flowtrack.map.watch:false}") boolean watch,
+                       @Value("${flowtrack.map.watch-quiet-ms:500}") long quietMs) throws IOException {
+        if (quietMs < 0) {throw new IllegalArgumentException("watch quiet time has to be >= 0");}
+        this.defaultMap = defaultMap;
+        this.maps = maps;
+        this.quietMs = quietMs;
+        if (!watch) {
+            this.watcher = null;
+            this.watchThread = null;
+            return;
+        }
+        Path dir = Paths.get(maps.mapDir());
+        this.watcher = FileSystems.getDefault().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.watchThread = new Thread(this::watchLoop, "map-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /** rebuild every loaded map of this file; RELOADED, NOT_LOADED or "failed: reason" */
+    public String reload(String file) {
+        try {
+            boolean any = false;
+            if (sameFile(defaultMap.mapDir(), defaultMap.mapFile(), maps.mapDir(), file)) {
+                defaultMap.reload();
+                any = true;
+            }
+            any |= maps.reload(file);
+            if (!any) return NOT_LOADED;
+            reloads.incrementAndGet();
+            return RELOADED;
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println("fail to reload map, old map kept: " + file + ". reason: " + e.getMessage());
+            return "failed: " + e.getMessage();
+        }
+    }
+
+    /** reload() of every *.json in the map directory and of the default map, file -> result */
+    public Map<String, String> reloadAll() {
+        Set<String> files = new LinkedHashSet<String>();
+        Path dir = Paths.get(maps.mapDir());
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path p : ds) files.add(p.getFileName().toString());
+        } catch (IOException e) {
+            throw new RuntimeException("fail to read directory: " + dir.toAbsolutePath(), e);
+        }
+        Map<String, String> out = new LinkedHashMap<String, String>();
+        for (String file : files) out.put(file, reload(file));
+        if (!sameDir(defaultMap.mapDir(), maps.mapDir())) {
+            // default map outside the registry directory
+            try {
+                defaultMap.reload();
+                reloads.incrementAndGet();
+                out.put(defaultMap.mapFile(), RELOADED);
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                System.err.println("fail to reload map, old map kept: " + defaultMap.mapFile() + ". reason: " + e.getMessage());
+                out.put(defaultMap.mapFile(), "failed: " + e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    public long reloads() { return reloads.get(); }
+
+    public long failures() { return failures.get(); }
+
+    private void watchLoop() {
+        try {
+            while (running) {
+                WatchKey key = watcher.poll(200, TimeUnit.MILLISECONDS);
+                if (key == null) continue;
+                Set<String> changed = new LinkedHashSet<String>();
+                collect(key, changed);
+                // wait until the directory is quiet, one reload per file for a burst of events
+                while ((key = watcher.poll(quietMs, TimeUnit.MILLISECONDS)) != null) collect(key, changed);
+                for (String file : changed) reload(file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // shutdown
+        }
+    }
+
+    private static void collect(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object ctx = event.context();
+            if (ctx instanceof Path && ctx.toString().toLowerCase().endsWith(".json")) changed.add(ctx.toString());
+        }
+        key.reset();
+    }
+
+    private static boolean sameDir(String a, String b) {
+        return Paths.get(a).toAbsolutePath().normalize().equals(Paths.get(b).toAbsolutePath().normalize());
+    }
+
+    private static boolean sameFile(String dirA, String fileA, String dirB, String fileB) {
+        return fileA.equals(fileB) && sameDir(dirA, dirB);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException, InterruptedException {
+        running = false;
+        if (watcher == null) return;
+        watcher.close();
+        watchThread.join(1000);
+    }
+}
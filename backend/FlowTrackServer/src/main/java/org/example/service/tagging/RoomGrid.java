@@ -0,0 +1,120 @@
+package org.example.service.tagging;
+
+import org.example.model.map.RoomGeom;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * uniform grid over the floor map that answers most room lookups with an array read
+ * - cell = room index when that room covers the whole cell and no other room is within hitDistance
+ *   of it: every point of the cell gets that room whatever the candidate order
+ * - cell = NO_ROOM when every room is farther than max(hitDistance, nearestDistance): no point of
+ *   the cell can hit or fall back to a room; points outside the grid are such points too
+ * - any other cell (room boundaries, gaps between rooms) = EXACT, the caller runs the geometry test
+ * cells are classified on a slightly grown rectangle so rounding in lookup() cannot leave a cell
+ * read only after construction
+ */
+public class RoomGrid {
+
+    public static final int NO_ROOM = -1;
+    public static final int EXACT = -2;
+
+    /** classification margin against rounding of the cell index */
+    private static final double EDGE = 1e-9;
+
+    private final RoomGeom[] rooms;
+    private final double minX;
+    private final double minY;
+    private final double invCell;
+    private final int cols;
+    private final int rowCount;
+    private final int[] cells;
+
+    private RoomGrid(RoomGeom[] rooms, double minX, double minY, double cellM, int cols, int rowCount, int[] cells) {
+        this.rooms = rooms;
+        this.minX = minX;
+        this.minY = minY;
+        this.invCell = 1.0 / cellM;
+        this.cols = cols;
+        this.rowCount = rowCount;
+        this.cells = cells;
+    }
+
+    /** room index (see room()), NO_ROOM or EXACT */
+    public int lookup(double x, double y) {
+        double fx = (x - minX) * invCell;
+        double fy = (y - minY) * invCell;
+        if (!(fx >= 0 && fy >= 0 && fx < cols && fy < rowCount)) return fx == fx && fy == fy ? NO_ROOM : EXACT;
+        return cells[(int) fy * cols + (int) fx];
+    }
+
+    public RoomGeom room(int index) { return rooms[index]; }
+
+    public int cellCount() { return cells.length; }
+
+    /** cells answered without geometry */
+    public int resolvedCells() {
+        int n = 0;
+        for (int c : cells) if (c != EXACT) n++;
+        return n;
+    }
+
+    public static RoomGrid build(List<RoomGeom> roomList, STRtree index, GeometryFactory gf,
+                                 double cellM, double hitDistance, double nearestDistance) {
+        if (!(cellM > 0)) {throw new IllegalArgumentException("grid cell size has to be > 0");}
+        if (roomList.isEmpty()) {throw new IllegalArgumentException("no rooms to build a grid over");}
+        RoomGeom[] rooms = roomList.toArray(new RoomGeom[0]);
+        double reach = Math.max(hitDistance, nearestDistance);
+
+        Envelope extent = new Envelope();
+        for (RoomGeom rg : rooms) extent.expandToInclude(rg.envelope);
+        // one cell more than the reach: everything outside the grid is farther than reach from every room
+        extent.expandBy(reach + cellM);
+        int cols = (int) Math.ceil(extent.getWidth() / cellM);
+        int rowCount = (int) Math.ceil(extent.getHeight() / cellM);
+        if ((long) cols * rowCount > Integer.MAX_VALUE - 8) {throw new IllegalArgumentException("grid too large, use a bigger cell size than " + cellM);}
+
+        Map<RoomGeom, Integer> indexOf = new IdentityHashMap<RoomGeom, Integer>();
+        for (int i = 0; i < rooms.length; i++) indexOf.put(rooms[i], i);
+        int[] cells = new int[cols * rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            for (int c = 0; c < cols; c++) {
+                Envelope cell = new Envelope(extent.getMinX() + c * cellM, extent.getMinX() + (c + 1) * cellM,
+                        extent.getMinY() + r * cellM, extent.getMinY() + (r + 1) * cellM);
+                cell.expandBy(EDGE);
+                cells[r * cols + c] = classify(cell, index, gf, hitDistance, reach, indexOf);
+            }
+        }
+        return new RoomGrid(rooms, extent.getMinX(), extent.getMinY(), cellM, cols, rowCount, cells);
+    }
+
+    private static int classify(Envelope cell, STRtree index, GeometryFactory gf,
+                                double hitDistance, double reach, Map<RoomGeom, Integer> indexOf) {
+        Envelope near = new Envelope(cell);
+        near.expandBy(reach);
+        @SuppressWarnings("unchecked")
+        List<RoomGeom> nearby = index.query(near);
+        if (nearby.isEmpty()) return NO_ROOM; // envelopes farther than reach on some axis
+
+        Polygon rect = (Polygon) gf.toGeometry(cell);
+        RoomGeom owner = null;
+        boolean anyInReach = false;
+        for (RoomGeom rg : nearby) {
+            double d = rg.polygon.distance(rect);
+            if (d > reach) continue;
+            anyInReach = true;
+            if (d > hitDistance) continue;
+            // a second room can hit some point of the cell, or the room covers only part of it
+            if (owner != null || !rg.prepared.covers(rect)) return EXACT;
+            owner = rg;
+        }
+        if (owner != null) return indexOf.get(owner);
+        return anyInReach ? EXACT : NO_ROOM;
+    }
+}
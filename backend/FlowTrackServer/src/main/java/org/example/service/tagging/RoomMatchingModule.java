@@ -1,81 +1,360 @@
 package org.example.service.tagging;
 
+import org.example.model.point.PointBuffer;
 import org.example.model.point.RawPoint;
 import org.example.model.map.RoomGeom;
 import org.example.model.point.TaggedPoint;
-import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.ItemVisitor;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * point -> room tagging against the map of MapLoadingModule
+ * thread safety: every method can be called from any number of threads at once
+ * - the map (index, shapes, grid) is only read here; each call takes the loader's current snapshot once
+ *   and tags everything on it, a map reload during the call does not change its result (see MapLoadingModule)
+ * - query state lives in a per thread Scratch, counters are atomic and added once per call; the Scratch
+ *   holds no module and drops its snapshot when the call returns, so a pool thread does not keep an
+ *   evicted or replaced map reachable
+ * - calls only write to the caller's output (array range, buffer, new list)
+ * track calls on arrays / buffers (labelTrack, labelParallel, labelMultiPoints(PointBuffer)) given a DoorFlows
+ * also test every step between consecutive points against the map's doorways and count the crossings per
+ * door into it; the caller owns the DoorFlows (one per track), the matcher keeps no door state
+ */
 @Service
 public class RoomMatchingModule {
+    /** a point this far outside a room polygon still hits the room */
+    static final double EPS_BOUNDARY = 0.5;
+    /** no room hit: the nearest room within this distance is taken */
+    static final double NEAREST_ROOM_M = 0.8;
+
+    /** labelRoomIndices(): no room within reach */
+    public static final int NO_ROOM = -1;
+
+    /** points per parallel task: x, y and out of 4096 points (80 KB) stay in a core's L2 */
+    static final int PARALLEL_CHUNK = 4096;
+
     private final MapLoadingModule loader;
-    private final double epsBoundary = 0.5;
+    private final double epsBoundary = EPS_BOUNDARY;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(EPS_BOUNDARY));
+    private final AtomicLong stickyLookups = new AtomicLong();
+    private final AtomicLong stickyInnerHits = new AtomicLong();
+    private final AtomicLong stickyRoomHits = new AtomicLong();
 
     public RoomMatchingModule(MapLoadingModule loader) {this.loader = loader;}
 
+    /** distance (m) outside a room polygon that still counts as in the room */
+    public double epsBoundary() { return epsBoundary; }
+
     public TaggedPoint labelOnePoint(RawPoint point) {
+        Scratch s = scratch.get();
+        s.map = loader.snapshot();
+        try {
+            int room = match(point.x, point.y, s);
+            String roomId = (room != NO_ROOM) ? s.map.room(room).room.id : null;
+            return new TaggedPoint(point.time, point.x, point.y, roomId);
+        } finally {
+            s.map = null;
+        }
+    }
 
-        double x = point.x;
-        double y = point.y;
-        long t = point.time;
+    /**
+     * room index (MapLoadingModule.room(int)) of points [from, to) into out[from, to), NO_ROOM if none;
+     * scratch objects are per thread and the index is walked with a visitor, nothing is allocated per point.
+     * indices belong to the snapshot current at the call, use the snapshot overload when maps are reloaded
+     */
+    public void labelRoomIndices(double[] xs, double[] ys, int from, int to, int[] out) {
+        labelRoomIndices(loader.snapshot(), xs, ys, from, to, out);
+    }
 
-        Point p = loader.geometryFactory().createPoint(new Coordinate(x, y));
+    /** labelRoomIndices() on a given snapshot: take it first to resolve the indices with map.room(int) */
+    public void labelRoomIndices(MapLoadingModule.Snapshot map, double[] xs, double[] ys, int from, int to, int[] out) {
+        Scratch s = scratch.get();
+        s.map = map;
+        try {
+            for (int i = from; i < to; i++) out[i] = match(xs[i], ys[i], s);
+        } finally {
+            s.map = null;
+        }
+    }
 
-        @SuppressWarnings("unchecked")
-        List<RoomGeom> candidates = loader.index().query(new Envelope(x, x, y, y));
+    /**
+     * labelRoomIndices() for one time-ordered track: a point first tries the previous point's room
+     * (its inner rectangle, then the room itself and the lower ranked rooms around it), the index only
+     * on a miss; the result per point is the same as labelRoomIndices()
+     */
+    public void labelTrack(double[] xs, double[] ys, int from, int to, int[] out) {
+        labelTrack(loader.snapshot(), xs, ys, from, to, out);
+    }
 
-        List<RoomGeom> hits = new ArrayList<>();
-        boolean onBoundary = false;
+    public void labelTrack(MapLoadingModule.Snapshot map, double[] xs, double[] ys, int from, int to, int[] out) {
+        labelTrack(map, xs, ys, from, to, out, null, false);
+    }
 
-        for (RoomGeom rg : candidates) {
+    /** labelTrack() that also counts the door crossings of the track's steps into flows */
+    public void labelTrack(MapLoadingModule.Snapshot map, double[] xs, double[] ys, int from, int to, int[] out, DoorFlows flows) {
+        labelTrack(map, xs, ys, from, to, out, flows, false);
+    }
 
-            if (rg.prepared.covers(p)) {
-                hits.add(rg);
-            } else {
-                double d = rg.polygon.distance(p);
-                if (d <= epsBoundary) {
-                    hits.add(rg);
-                }
+    /** stepIn: the step from point from - 1 to from belongs to this call (a chunk inside a track) */
+    private void labelTrack(MapLoadingModule.Snapshot map, double[] xs, double[] ys, int from, int to, int[] out,
+                            DoorFlows flows, boolean stepIn) {
+        Scratch s = scratch.get();
+        s.map = map;
+        s.resetCounts();
+        try {
+            DoorIndex doors = flows != null ? map.doors() : null;
+            if (doors != null && stepIn && from < to) countDoors(doors, xs[from - 1], ys[from - 1], xs[from], ys[from], s, flows);
+            int prev = NO_ROOM;
+            for (int i = from; i < to; i++) {
+                prev = matchSticky(xs[i], ys[i], prev, s);
+                out[i] = prev;
+                if (doors != null && i > from) countDoors(doors, xs[i - 1], ys[i - 1], xs[i], ys[i], s, flows);
             }
+            addCounts(s);
+        } finally {
+            s.map = null;
+        }
+    }
+
+    private void countDoors(DoorIndex doors, double x0, double y0, double x1, double y1, Scratch s, DoorFlows flows) {
+        doors.crossings(x0, y0, x1, y1, s.crossings);
+        for (int k = 0; k < s.crossings.count(); k++) flows.record(doors, s.crossings.door(k), s.crossings.forward(k));
+    }
+
+    /**
+     * labelTrack() in chunks of PARALLEL_CHUNK points on the pool; a chunk writes only its own range of out
+     * and the track result does not depend on where a chunk starts, so out is the same as the sequential call
+     */
+    public void labelParallel(double[] xs, double[] ys, int from, int to, int[] out, ForkJoinPool pool) {
+        labelParallel(loader.snapshot(), xs, ys, from, to, out, pool);
+    }
+
+    /** every chunk runs on the same snapshot */
+    public void labelParallel(MapLoadingModule.Snapshot map, double[] xs, double[] ys, int from, int to, int[] out, ForkJoinPool pool) {
+        labelParallel(map, xs, ys, from, to, out, pool, null);
+    }
+
+    /** labelParallel() that also counts door crossings into flows, a step across a chunk boundary once */
+    public void labelParallel(MapLoadingModule.Snapshot map, double[] xs, double[] ys, int from, int to, int[] out,
+                              ForkJoinPool pool, DoorFlows flows) {
+        if (to - from <= PARALLEL_CHUNK) {
+            labelTrack(map, xs, ys, from, to, out, flows, false);
+            return;
+        }
+        pool.invoke(new LabelTask(map, from, xs, ys, from, to, out, flows));
+    }
+
+    private class LabelTask extends RecursiveAction {
+        private final MapLoadingModule.Snapshot map;
+        /** first point of the whole call, the chunks after it own the step into their first point */
+        private final int start;
+        private final double[] xs;
+        private final double[] ys;
+        private final int from;
+        private final int to;
+        private final int[] out;
+        private final DoorFlows flows;
+
+        LabelTask(MapLoadingModule.Snapshot map, int start, double[] xs, double[] ys, int from, int to, int[] out, DoorFlows flows) {
+            this.map = map;
+            this.start = start;
+            this.xs = xs;
+            this.ys = ys;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+            this.flows = flows;
         }
-        RoomGeom roomGeom = hits.isEmpty() ? null : hits.get(0);
-        if (hits.isEmpty()) {
-            double minDist = Double.MAX_VALUE;
-            RoomGeom nearest = null;
-
-            // rooms
-            for (RoomGeom g : loader.rooms().values()) {
-                double d = g.polygon.distance(p);
-                if (d < minDist) {
-                    minDist = d;
-                    nearest = g;
-                }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                labelTrack(map, xs, ys, from, to, out, flows, from > start);
+                return;
             }
+            // split on a chunk boundary
+            int mid = from + ((to - from) / PARALLEL_CHUNK / 2) * PARALLEL_CHUNK;
+            if (mid == from) mid += PARALLEL_CHUNK;
+            invokeAll(new LabelTask(map, start, xs, ys, from, mid, out, flows), new LabelTask(map, start, xs, ys, mid, to, out, flows));
+        }
+    }
+
+    /** points tagged with a previous room to try */
+    public long stickyLookups() { return stickyLookups.get(); }
+
+    /** ... answered by the previous room's inner rectangle */
+    public long stickyInnerHits() { return stickyInnerHits.get(); }
+
+    /** ... answered by the previous room's polygon and its rivals, no index query */
+    public long stickyRoomHits() { return stickyRoomHits.get(); }
 
-            if (minDist <= 0.8) {
-                roomGeom = nearest;
-            } else {
-                roomGeom = null; // too far
+    private int matchSticky(double x, double y, int prev, Scratch s) {
+        if (prev == NO_ROOM) return match(x, y, s);
+        s.lookups++;
+        RoomShape shape = s.map.shape(prev);
+        if (shape.inInner(x, y)) {
+            s.innerHits++;
+            return prev;
+        }
+        if (shape.hits(x, y, epsBoundary)) {
+            // a rival that hits too comes first in the index, lowest rank wins like in matchExact
+            s.roomHits++;
+            for (int r : shape.rivals) {
+                if (s.map.shape(r).hits(x, y, epsBoundary)) return r;
             }
+            return prev;
+        }
+        return match(x, y, s);
+    }
+
+    private void addCounts(Scratch s) {
+        stickyLookups.addAndGet(s.lookups);
+        stickyInnerHits.addAndGet(s.innerHits);
+        stickyRoomHits.addAndGet(s.roomHits);
+    }
+
+    /** room covering (x, y) or within epsBoundary of it, else the nearest room within 0.8, else NO_ROOM */
+    private int match(double x, double y, Scratch s) {
+        RoomGrid grid = s.map.grid();
+        if (grid != null) {
+            int cell = grid.lookup(x, y);
+            if (cell >= 0 || cell == RoomGrid.NO_ROOM) return cell;
+        }
+        return matchExact(x, y, s);
+    }
+
+    private int matchExact(double x, double y, Scratch s) {
+        // first hit in index order wins
+        s.start(x, y, false);
+        s.env.init(x, x, y, y);
+        s.map.index().query(s.env, s);
+        if (s.found != NO_ROOM) return s.found;
+
+        // nearest room within NEAREST_ROOM_M: only rooms whose envelope reaches that far can qualify,
+        // ties go to the first candidate of the index
+        s.start(x, y, true);
+        s.env.init(x - NEAREST_ROOM_M, x + NEAREST_ROOM_M, y - NEAREST_ROOM_M, y + NEAREST_ROOM_M);
+        s.map.index().query(s.env, s);
+        return s.minDist <= NEAREST_ROOM_M ? s.found : NO_ROOM; // NO_ROOM: too far
+    }
+
+    /** per thread query state, doubles as the index visitor; static, so a thread's copy keeps no module alive */
+    private static final class Scratch implements ItemVisitor {
+        final Envelope env = new Envelope();
+        final double epsBoundary;
+        /** snapshot of the running call, null between calls */
+        MapLoadingModule.Snapshot map;
+        final DoorIndex.Crossings crossings = new DoorIndex.Crossings();
+        double x;
+        double y;
+        boolean nearest;
+        int found;
+        double minDist;
+        // sticky counters of the running labelTrack call
+        long lookups;
+        long innerHits;
+        long roomHits;
+
+        Scratch(double epsBoundary) {
+            this.epsBoundary = epsBoundary;
+        }
+
+        void resetCounts() {
+            lookups = 0;
+            innerHits = 0;
+            roomHits = 0;
+        }
+
+        void start(double px, double py, boolean nearestMode) {
+            x = px;
+            y = py;
+            nearest = nearestMode;
+            found = NO_ROOM;
+            minDist = Double.MAX_VALUE;
         }
 
-        String roomId = (roomGeom != null) ? roomGeom.room.id : null;
-        return new TaggedPoint(t, x, y, roomId);
+        @Override
+        public void visitItem(Object item) {
+            RoomShape shape = map.shape(((RoomGeom) item).index);
+            if (!nearest) {
+                if (found == NO_ROOM && shape.distance(x, y, epsBoundary) <= epsBoundary) found = shape.index;
+                return;
+            }
+            double d = shape.distance(x, y, -1);
+            if (d < minDist) {
+                minDist = d;
+                found = shape.index;
+            }
+        }
     }
 
+    /** no door counting: the list may hold several devices merged by time, its steps are no track */
     public List<TaggedPoint> labelMultiPoints(List<RawPoint> points) {
         if (points == null || points.isEmpty()) return Collections.emptyList();
         List<TaggedPoint> out = new ArrayList<TaggedPoint>(points.size());
-        for (RawPoint rp : points) {
-            if (rp == null) continue;
-            out.add(labelOnePoint(rp));
+        // each point starts from the previous point's room (same result as without, see labelTrack)
+        Scratch s = scratch.get();
+        s.map = loader.snapshot();
+        s.resetCounts();
+        try {
+            int prev = NO_ROOM;
+            for (RawPoint rp : points) {
+                if (rp == null) continue;
+                prev = matchSticky(rp.x, rp.y, prev, s);
+                out.add(new TaggedPoint(rp.time, rp.x, rp.y, prev != NO_ROOM ? s.map.room(prev).room.id : null));
+            }
+            addCounts(s);
+        } finally {
+            s.map = null;
         }
         return out;
     }
+
+    /** labels the buffer in place: roomIdx of every point is set, no TaggedPoint is created */
+    public PointBuffer labelMultiPoints(PointBuffer points) {
+        return labelMultiPoints(points, (DoorFlows) null);
+    }
+
+    /** labelMultiPoints(PointBuffer) on one track, its door crossings counted into flows (null = not counted) */
+    public PointBuffer labelMultiPoints(PointBuffer points, DoorFlows flows) {
+        if (points == null) return null;
+        MapLoadingModule.Snapshot map = loader.snapshot();
+        labelTrack(map, points.x, points.y, 0, points.size, points.roomIdx, flows, false);
+        return toDictionary(points, map);
+    }
+
+    /** same as labelMultiPoints(PointBuffer), tagging runs on the pool (see labelParallel) */
+    public PointBuffer labelMultiPoints(PointBuffer points, ForkJoinPool pool) {
+        return labelMultiPoints(points, pool, null);
+    }
+
+    public PointBuffer labelMultiPoints(PointBuffer points, ForkJoinPool pool, DoorFlows flows) {
+        if (points == null) return null;
+        MapLoadingModule.Snapshot map = loader.snapshot();
+        labelParallel(map, points.x, points.y, 0, points.size, points.roomIdx, pool, flows);
+        return toDictionary(points, map);
+    }
+
+    /** roomIdx holds map room indices, rewrite them to the buffer's room dictionary (in point order) */
+    private PointBuffer toDictionary(PointBuffer points, MapLoadingModule.Snapshot map) {
+        // map room index -> the buffer's room dictionary, each room looked up once
+        int[] dict = new int[map.roomCount()];
+        Arrays.fill(dict, NO_ROOM - 1);
+        for (int i = 0; i < points.size; i++) {
+            int room = points.roomIdx[i];
+            if (room == NO_ROOM) continue;
+            if (dict[room] == NO_ROOM - 1) dict[room] = points.roomIndexOf(map.room(room).room.id);
+            points.roomIdx[i] = dict[room];
+        }
+        return points;
+    }
 }
@@ -0,0 +1,169 @@
+package org.example.service.tagging;
+
+import org.example.model.map.RoomGeom;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * room polygon as primitive coordinate arrays, point tests without creating jts objects
+ * - rings are closed (last vertex = first), ring 0 is the shell, the others are holes
+ * - distance() follows jts Polygon.distance(Point): 0 inside, else the nearest boundary segment
+ *   with the same segment formula, so results match the geometry test
+ * - rank = order in which index queries visit the room; a query returns the first hit by rank
+ * - rivals = rooms of lower rank whose envelope meets this one: for a point inside this room's envelope
+ *   they are the only rooms that can win over it
+ * - inner = rectangle covered by the room and farther than hitDistance from every rival, a point in it
+ *   is this room without further tests (empty when there is none)
+ * read only once buildAll() returns, shared by all threads
+ */
+final class RoomShape {
+
+    /** inner rectangle shrink step (m) */
+    private static final double INNER_STEP = 0.05;
+
+    final int index;
+    final RoomGeom geom;
+    private final double[][] xs;
+    private final double[][] ys;
+    private final double minX, minY, maxX, maxY;
+    int rank;
+    int[] rivals;
+    double innerMinX = 1, innerMinY = 1, innerMaxX = 0, innerMaxY = 0;
+
+    private RoomShape(int index, RoomGeom geom, double[][] xs, double[][] ys) {
+        this.index = index;
+        this.geom = geom;
+        this.xs = xs;
+        this.ys = ys;
+        this.minX = geom.envelope.getMinX();
+        this.minY = geom.envelope.getMinY();
+        this.maxX = geom.envelope.getMaxX();
+        this.maxY = geom.envelope.getMaxY();
+    }
+
+    /** shapes of all rooms (array index = RoomGeom.index) with rank, rivals and inner rectangle */
+    static RoomShape[] buildAll(RoomGeom[] rooms, STRtree index, GeometryFactory gf, double hitDistance) {
+        RoomShape[] shapes = new RoomShape[rooms.length];
+        for (int i = 0; i < rooms.length; i++) shapes[i] = of(rooms[i]);
+        if (rooms.length == 0) return shapes;
+
+        // visit order of a query over everything = relative order of every smaller query
+        Envelope all = new Envelope();
+        for (RoomGeom rg : rooms) all.expandToInclude(rg.envelope);
+        final List<RoomGeom> order = new ArrayList<RoomGeom>(rooms.length);
+        index.query(all, item -> order.add((RoomGeom) item));
+        for (int r = 0; r < order.size(); r++) shapes[order.get(r).index].rank = r;
+
+        for (RoomShape shape : shapes) {
+            List<RoomShape> rivals = new ArrayList<RoomShape>();
+            for (RoomShape other : shapes) {
+                if (other.rank < shape.rank && other.geom.envelope.intersects(shape.geom.envelope)) rivals.add(other);
+            }
+            rivals.sort((a, b) -> Integer.compare(a.rank, b.rank));
+            shape.rivals = new int[rivals.size()];
+            for (int i = 0; i < rivals.size(); i++) shape.rivals[i] = rivals.get(i).index;
+            shape.inner(rivals, gf, hitDistance);
+        }
+        return shapes;
+    }
+
+    /** envelope shrunk in INNER_STEP steps until it is covered and clear of the rivals */
+    private void inner(List<RoomShape> rivalShapes, GeometryFactory gf, double hitDistance) {
+        for (double d = 0; 2 * d < maxX - minX && 2 * d < maxY - minY; d += INNER_STEP) {
+            Envelope rect = new Envelope(minX + d, maxX - d, minY + d, maxY - d);
+            Geometry g = gf.toGeometry(rect);
+            if (!geom.prepared.covers(g)) continue;
+            boolean clear = true;
+            for (RoomShape r : rivalShapes) {
+                if (r.geom.polygon.distance(g) <= hitDistance) {
+                    clear = false;
+                    break;
+                }
+            }
+            if (!clear) continue;
+            innerMinX = rect.getMinX();
+            innerMinY = rect.getMinY();
+            innerMaxX = rect.getMaxX();
+            innerMaxY = rect.getMaxY();
+            return;
+        }
+    }
+
+    boolean inInner(double x, double y) {
+        return x >= innerMinX && x <= innerMaxX && y >= innerMinY && y <= innerMaxY;
+    }
+
+    /** same test as the index query: point in the envelope and within hitDistance */
+    boolean hits(double x, double y, double hitDistance) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && distance(x, y, hitDistance) <= hitDistance;
+    }
+
+    private static RoomShape of(RoomGeom rg) {
+        Polygon polygon = rg.polygon;
+        int rings = 1 + polygon.getNumInteriorRing();
+        double[][] xs = new double[rings][];
+        double[][] ys = new double[rings][];
+        for (int r = 0; r < rings; r++) {
+            LineString ring = r == 0 ? polygon.getExteriorRing() : polygon.getInteriorRingN(r - 1);
+            CoordinateSequence seq = ring.getCoordinateSequence();
+            xs[r] = new double[seq.size()];
+            ys[r] = new double[seq.size()];
+            for (int i = 0; i < seq.size(); i++) {
+                xs[r][i] = seq.getX(i);
+                ys[r][i] = seq.getY(i);
+            }
+        }
+        return new RoomShape(rg.index, rg, xs, ys);
+    }
+
+    /** distance to the polygon, 0 inside; returns early with a value <= stopAt once one is found */
+    double distance(double x, double y, double stopAt) {
+        if (contains(x, y)) return 0;
+        double min = Double.MAX_VALUE;
+        for (int r = 0; r < xs.length; r++) {
+            double[] rx = xs[r];
+            double[] ry = ys[r];
+            for (int i = 1; i < rx.length; i++) {
+                double d = segmentDistance(x, y, rx[i - 1], ry[i - 1], rx[i], ry[i]);
+                if (d < min) {
+                    min = d;
+                    if (min <= stopAt) return min;
+                }
+            }
+        }
+        return min;
+    }
+
+    /** even-odd crossing over all rings; points on the boundary may go either way, their distance is 0 anyway */
+    private boolean contains(double x, double y) {
+        boolean inside = false;
+        for (int r = 0; r < xs.length; r++) {
+            double[] rx = xs[r];
+            double[] ry = ys[r];
+            for (int i = 1; i < rx.length; i++) {
+                double ax = rx[i - 1], ay = ry[i - 1], bx = rx[i], by = ry[i];
+                if ((ay > y) != (by > y) && x < (bx - ax) * (y - ay) / (by - ay) + ax) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /** jts Distance.pointToSegment */
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        if (ax == bx && ay == by) return Math.sqrt((px - ax) * (px - ax) + (py - ay) * (py - ay));
+        double len2 = (bx - ax) * (bx - ax) + (by - ay) * (by - ay);
+        double r = ((px - ax) * (bx - ax) + (py - ay) * (by - ay)) / len2;
+        if (r <= 0.0) return Math.sqrt((px - ax) * (px - ax) + (py - ay) * (py - ay));
+        if (r >= 1.0) return Math.sqrt((px - bx) * (px - bx) + (py - by) * (py - by));
+        double s = ((ay - py) * (bx - ax) - (ax - px) * (by - ay)) / len2;
+        return Math.abs(s) * Math.sqrt(len2);
+    }
+}
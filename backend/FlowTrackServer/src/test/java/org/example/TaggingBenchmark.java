@@ -0,0 +1,61 @@
+package org.example;
+
+import org.example.model.point.RawPoint;
+import org.example.repository.LocalRepository;
+import org.example.repository.impl.LocalRepositoryImpl;
+import org.example.service.tagging.MapLoadingModule;
+import org.example.service.tagging.RoomMatchingModule;
+import org.locationtech.jts.geom.Envelope;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * tagging throughput and allocation per point on the local map
+ * - random points over the map envelope grown by 2 m (hits, boundary band, fallback and misses)
+ * - labelMultiPoints(List) vs labelRoomIndices() into an int[], grid off so every point runs the geometry
+ * - allocated bytes of the current thread from com.sun.management.ThreadMXBean
+ * args: [points] [rounds]; test sources only (HotSpot specific bean), not a unit test:
+ * mvn test-compile, then run with target/classes and target/test-classes on the classpath
+ */
+public class TaggingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        LocalRepository repo = new LocalRepositoryImpl();
+        MapLoadingModule mapLoader = new MapLoadingModule(repo);
+        RoomMatchingModule roomMatcher = new RoomMatchingModule(mapLoader);
+
+        Envelope extent = new Envelope();
+        for (int i = 0; i < mapLoader.roomCount(); i++) extent.expandToInclude(mapLoader.room(i).envelope);
+        extent.expandBy(2);
+        Random rnd = new Random(42);
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        List<RawPoint> points = new ArrayList<RawPoint>(n);
+        for (int i = 0; i < n; i++) {
+            xs[i] = extent.getMinX() + rnd.nextDouble() * extent.getWidth();
+            ys[i] = extent.getMinY() + rnd.nextDouble() * extent.getHeight();
+            points.add(new RawPoint(i, xs[i], ys[i], 0, true, 3, 1, 0));
+        }
+        int[] out = new int[n];
+
+        for (int r = 0; r < rounds; r++) {
+            long b0 = allocatedBytes(), t0 = System.nanoTime();
+            roomMatcher.labelMultiPoints(points);
+            long b1 = allocatedBytes(), t1 = System.nanoTime();
+            roomMatcher.labelRoomIndices(xs, ys, 0, n, out);
+            long b2 = allocatedBytes(), t2 = System.nanoTime();
+            System.out.printf("round %d: list %.1f ms %.1f B/point | indices %.1f ms %.2f B/point%n", r,
+                    (t1 - t0) / 1e6, (double) (b1 - b0) / n, (t2 - t1) / 1e6, (double) (b2 - b1) / n);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,183 @@
+package org.example.codec;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** round trip, the prototypeApp encoder against this decoder, and hostile input */
+class BatchBinaryCodecTest {
+
+    /** sources of the mobile app encoder, relative to this module */
+    private static final Path APP_SOURCES = Paths.get("../../mobile/prototypeApp/app/src/main/java");
+    private static final String APP_PACKAGE = "com/example/prototypeapp/data/";
+
+    @TempDir
+    Path build;
+
+    private static Batch batch(int n, long seed) {
+        Random rnd = new Random(seed);
+        Batch b = new Batch();
+        b.batchId = "b-" + seed;
+        b.deviceId = "device é";
+        b.sessionId = "s1";
+        b.source = "uwb";
+        b.coordRef = null;
+        b.buildingId = "bld";
+        b.floorId = "f1";
+        b.mapId = "map_001";
+        b.count = n;
+        b.points = new ArrayList<RawPoint>();
+        long t = 1_700_000_000_000L;
+        for (int i = 0; i < n; i++) {
+            t += rnd.nextInt(400) - 50;
+            // values on the quantization grid, so the round trip is exact
+            b.points.add(new RawPoint(t, rnd.nextInt(20000) / 1000.0 - 5, rnd.nextInt(20000) / 1000.0 - 5,
+                    rnd.nextInt(3000) / 1000.0, rnd.nextBoolean(), rnd.nextInt(8), rnd.nextInt(500) / 1000.0, rnd.nextInt(300) / 1000.0));
+        }
+        b.startTimeMs = n == 0 ? 0 : b.points.get(0).time;
+        b.endTimeMs = n == 0 ? 0 : t;
+        return b;
+    }
+
+    private static void assertSameBatch(Batch expected, Batch actual) {
+        assertEquals(expected.batchId, actual.batchId);
+        assertEquals(expected.deviceId, actual.deviceId);
+        assertEquals(expected.sessionId, actual.sessionId);
+        assertEquals(expected.source, actual.source);
+        assertNull(actual.coordRef);
+        assertEquals(expected.buildingId, actual.buildingId);
+        assertEquals(expected.floorId, actual.floorId);
+        assertEquals(expected.mapId, actual.mapId);
+        assertEquals(expected.startTimeMs, actual.startTimeMs);
+        assertEquals(expected.endTimeMs, actual.endTimeMs);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.points.size(), actual.points.size());
+        for (int i = 0; i < expected.points.size(); i++) {
+            RawPoint e = expected.points.get(i), a = actual.points.get(i);
+            assertEquals(e.time, a.time);
+            assertEquals(e.x, a.x, 1e-9);
+            assertEquals(e.y, a.y, 1e-9);
+            assertEquals(e.velocity, a.velocity, 1e-9);
+            assertEquals(e.accepted, a.accepted);
+            assertEquals(e.anchorsUsed, a.anchorsUsed);
+            assertEquals(e.rms, a.rms, 1e-9);
+            assertEquals(e.dt, a.dt, 1e-9);
+        }
+    }
+
+    @Test
+    void roundTrip() {
+        for (int n : new int[]{0, 1, 7, 8, 9, 1000}) {
+            Batch b = batch(n, n);
+            assertSameBatch(b, BatchBinaryCodec.decode(BatchBinaryCodec.encode(b)));
+        }
+    }
+
+    /**
+     * compiles the app's TrackBatchBinaryEncoder and TrackBatch from the mobile sources; TrackPoint pulls in
+     * android classes, it is replaced by a stand-in with the same fields and constructor
+     */
+    @Test
+    void appEncoderMatchesServerCodec() throws Exception {
+        Path encoder = APP_SOURCES.resolve(APP_PACKAGE + "codec/TrackBatchBinaryEncoder.java");
+        Path trackBatch = APP_SOURCES.resolve(APP_PACKAGE + "model/TrackBatch.java");
+        assertTrue(Files.isRegularFile(encoder), "app encoder not found: " + encoder.toAbsolutePath());
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(javac, "tests need a JDK");
+
+        Path src = build.resolve("src/" + APP_PACKAGE + "model");
+        Files.createDirectories(src);
+        Path trackPoint = src.resolve("TrackPoint.java");
+        Files.write(trackPoint, ("package com.example.prototypeapp.data.model;\n"
+                + "public class TrackPoint {\n"
+                + "  public final long time; public final double x, y; public final boolean accepted;\n"
+                + "  public final int anchorsUsed; public final double velocity, rms, dt;\n"
+                + "  public TrackPoint(long time, double x, double y, boolean accepted, int anchorsUsed,\n"
+                + "                    double velocity, double rms, double dt) {\n"
+                + "    this.time = time; this.x = x; this.y = y; this.accepted = accepted;\n"
+                + "    this.anchorsUsed = anchorsUsed; this.velocity = velocity; this.rms = rms; this.dt = dt;\n"
+                + "  }\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        Path classes = build.resolve("classes");
+        Files.createDirectories(classes);
+        int rc = javac.run(null, null, null, "-d", classes.toString(), "-encoding", "UTF-8",
+                encoder.toString(), trackBatch.toString(), trackPoint.toString());
+        assertEquals(0, rc, "app encoder does not compile");
+
+        try (URLClassLoader app = new URLClassLoader(new URL[]{classes.toUri().toURL()}, getClass().getClassLoader())) {
+            Class<?> pointClass = app.loadClass("com.example.prototypeapp.data.model.TrackPoint");
+            Class<?> batchClass = app.loadClass("com.example.prototypeapp.data.model.TrackBatch");
+            Constructor<?> newPoint = pointClass.getConstructor(long.class, double.class, double.class, boolean.class,
+                    int.class, double.class, double.class, double.class);
+            Constructor<?> newBatch = batchClass.getConstructor(String.class, String.class, String.class, int.class,
+                    long.class, long.class, List.class, String.class, String.class, String.class, String.class, String.class);
+            Method encode = app.loadClass("com.example.prototypeapp.data.codec.TrackBatchBinaryEncoder").getMethod("encode", batchClass);
+
+            for (int n : new int[]{0, 1, 8, 13, 500}) {
+                Batch b = batch(n, 100 + n);
+                List<Object> points = new ArrayList<Object>();
+                for (RawPoint p : b.points) {
+                    points.add(newPoint.newInstance(p.time, p.x, p.y, p.accepted, p.anchorsUsed, p.velocity, p.rms, p.dt));
+                }
+                Object appBatch = newBatch.newInstance(b.mapId, b.floorId, b.buildingId, b.count, b.endTimeMs,
+                        b.startTimeMs, points, b.coordRef, b.source, b.sessionId, b.deviceId, b.batchId);
+                byte[] bytes = (byte[]) encode.invoke(null, appBatch);
+
+                assertArrayEquals(BatchBinaryCodec.encode(b), bytes, n + " points");
+                assertSameBatch(b, BatchBinaryCodec.decode(bytes));
+            }
+        }
+    }
+
+    @Test
+    void hostileInputIsRejected() {
+        byte[] ok = BatchBinaryCodec.encode(batch(20, 1));
+        assertThrows(IllegalArgumentException.class, () -> BatchBinaryCodec.decode(new byte[]{'F', 'T', 'X', 1}));
+        // every truncation fails cleanly
+        for (int len = 0; len < ok.length; len++) {
+            byte[] cut = Arrays.copyOf(ok, len);
+            assertThrows(IllegalArgumentException.class, () -> BatchBinaryCodec.decode(cut));
+        }
+    }
+
+    @Test
+    void pointCountLargerThanTheInputIsRejected() {
+        Batch b = batch(0, 2);
+        byte[] empty = BatchBinaryCodec.encode(b);
+        // header of an empty batch ends with n = 0, xyScale and auxScale (2 bytes each)
+        int nAt = empty.length - 5;
+        assertEquals(0, empty[nAt]);
+        byte[] big = new byte[empty.length + 2];
+        System.arraycopy(empty, 0, big, 0, nAt);
+        // n = 900000 as a varint, under MAX_POINTS but far beyond the bytes that follow
+        big[nAt] = (byte) (0x80 | (900000 & 0x7F));
+        big[nAt + 1] = (byte) (0x80 | ((900000 >>> 7) & 0x7F));
+        big[nAt + 2] = (byte) (900000 >>> 14);
+        System.arraycopy(empty, nAt + 1, big, nAt + 3, 4);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> BatchBinaryCodec.decode(big));
+        assertTrue(e.getMessage().contains("does not fit"), e.getMessage());
+    }
+}
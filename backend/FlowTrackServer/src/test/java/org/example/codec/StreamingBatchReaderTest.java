@@ -0,0 +1,71 @@
+package org.example.codec;
+
+import org.example.model.bundle.Batch;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** part naming and point order, with the header before the points (streamed) and after them (spilled) */
+class StreamingBatchReaderTest {
+
+    private static final int CHUNK = 4;
+    private static final String HEADER = "\"batchId\":\"b1\",\"deviceId\":\"d1\",\"sessionId\":\"s1\",\"source\":\"uwb\","
+            + "\"coordRef\":\"local\",\"startTimeMs\":0,\"endTimeMs\":0,\"count\":0,"
+            + "\"buildingId\":\"bld\",\"floorId\":\"f1\",\"mapId\":\"m1\"";
+
+    private static String json(int points, boolean headerFirst) {
+        StringBuilder pts = new StringBuilder("\"points\":[");
+        for (int i = 0; i < points; i++) {
+            if (i > 0) pts.append(',');
+            pts.append("{\"time\":").append(1000 + i).append(",\"x\":").append(i).append(",\"y\":0,\"accepted\":true}");
+        }
+        pts.append(']');
+        return headerFirst ? "{" + HEADER + "," + pts + "}" : "{" + pts + "," + HEADER + "}";
+    }
+
+    private static List<Batch> read(int points, boolean headerFirst) throws Exception {
+        List<Batch> parts = new ArrayList<Batch>();
+        StreamingBatchReader.Result r = new StreamingBatchReader(CHUNK, false)
+                .read(new ByteArrayInputStream(json(points, headerFirst).getBytes(StandardCharsets.UTF_8)), parts::add);
+        assertEquals(points, r.points);
+        assertEquals(parts.size(), r.chunks);
+        return parts;
+    }
+
+    private static void check(int points, boolean headerFirst) throws Exception {
+        List<Batch> parts = read(points, headerFirst);
+        int expectedParts = (points + CHUNK - 1) / CHUNK;
+        assertEquals(expectedParts, parts.size(), points + " points");
+        long time = 1000;
+        for (int i = 0; i < parts.size(); i++) {
+            Batch part = parts.get(i);
+            assertEquals(expectedParts == 1 ? "b1" : "b1#" + i, part.batchId, points + " points, part " + i);
+            assertEquals("d1", part.deviceId);
+            assertEquals("m1", part.mapId);
+            assertEquals(i < parts.size() - 1 ? CHUNK : points - CHUNK * i, part.points.size());
+            for (int k = 0; k < part.points.size(); k++) assertEquals(time++, part.points.get(k).time);
+        }
+    }
+
+    @Test
+    void partsAreNamedWhenStreamed() throws Exception {
+        for (int n : new int[]{1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK, 3 * CHUNK, 3 * CHUNK + 1}) check(n, true);
+    }
+
+    @Test
+    void partsAreNamedWhenSpilled() throws Exception {
+        for (int n : new int[]{1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK, 3 * CHUNK, 3 * CHUNK + 1}) check(n, false);
+    }
+
+    @Test
+    void emptyPointsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> read(0, true));
+        assertThrows(IllegalArgumentException.class, () -> read(0, false));
+    }
+}
@@ -0,0 +1,256 @@
+package org.example.repository.compaction;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.model.bundle.Batch;
+import org.example.model.bundle.scriptuse.Meta;
+import org.example.model.bundle.scriptuse.ScriptInputBundle;
+import org.example.model.map.FloorMap;
+import org.example.model.point.RawPoint;
+import org.example.repository.LocalRepository;
+import org.example.repository.columnar.ColumnarPointFile;
+import org.example.repository.impl.LocalRepositoryImpl;
+import org.example.repository.log.SegmentedBatchLog;
+import org.example.repository.manifest.BatchManifest;
+import org.example.repository.manifest.BatchRef;
+import org.example.repository.partition.BatchPartitioner;
+import org.example.repository.partition.PartitionKey;
+import org.example.service.pipeline.ParallelTrackPipeline;
+import org.example.service.postprocessing.DataPostprocessingModule;
+import org.example.service.preprocessing.DataPreprocessingModule;
+import org.example.service.preprocessing.filter.FilterConfig;
+import org.example.service.preprocessing.filter.FilterThresholds;
+import org.example.service.tagging.MapLoadingModule;
+import org.example.service.tagging.RoomMatchingModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** batches -> log -> partitions -> compacted file + .cols, preprocessed from the columns vs the list pipeline */
+class ColumnarRoundTripTest {
+
+    private static final long HOUR = PartitionKey.HOUR_MS;
+    /** 2024-01-01T00:00Z */
+    private static final long H0 = 1704067200000L;
+
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    /** ble points need a better rms and a lower speed than the default */
+    private final DataPreprocessingModule preprocessor = new DataPreprocessingModule(
+            new FilterConfig().withSourceThresholds("ble", new FilterThresholds(1.5, 1)));
+
+    @TempDir
+    Path root;
+
+    private BatchManifest manifest;
+
+    /**
+     * d1/s1: hour 0 all uwb (columnar), hour 1 uwb + ble (no columnar copy)
+     * d2/s1: one batch running over the hour into a batch of hour 1 (partitions overlap in time)
+     * d3/s2: hours 0 and 1, columnar both
+     */
+    private List<Batch> batches(Random rnd) {
+        List<Batch> out = new ArrayList<Batch>();
+        for (int i = 0; i < 6; i++) out.add(batch(rnd, "d1", "s1", "m1", "uwb", H0 + i * 300_000L, 40));
+        // overlapping start: duplicate timestamps inside the partition
+        out.add(batch(rnd, "d1", "s1", "m1", "uwb", H0 + 300_000L + 2_000L, 40));
+        for (int i = 0; i < 4; i++) out.add(batch(rnd, "d1", "s1", "m1", i % 2 == 0 ? "uwb" : "ble", H0 + HOUR + i * 300_000L, 40));
+        // room_A, then room_C while the first batch is still running
+        out.add(at(batch(rnd, "d2", "s1", "m1", "uwb", H0 + HOUR - 4_000L, 40), -2, 3));
+        out.add(at(batch(rnd, "d2", "s1", "m1", "uwb", H0 + HOUR + 2_000L, 40), 6, 5));
+        for (int i = 0; i < 3; i++) out.add(batch(rnd, "d3", "s2", null, "ble", H0 + i * 900_000L, 30));
+        for (int i = 0; i < 3; i++) out.add(batch(rnd, "d3", "s2", null, "ble", H0 + HOUR + i * 900_000L, 30));
+        return out;
+    }
+
+    private static Batch batch(Random rnd, String device, String session, String mapId, String source, long start, int n) {
+        List<RawPoint> pts = new ArrayList<RawPoint>();
+        // a walk over the sample map (x -4..7.6, y 0..7.1)
+        double x = -3 + rnd.nextDouble() * 10, y = 0.5 + rnd.nextDouble() * 6;
+        for (int i = 0; i < n; i++) {
+            x = Math.max(-3.5, Math.min(7, x + rnd.nextGaussian() * 0.1));
+            y = Math.max(0.2, Math.min(6.8, y + rnd.nextGaussian() * 0.1));
+            // now and then out of bounds, inaccurate or too fast
+            double px = rnd.nextInt(25) == 0 ? 900 : x;
+            pts.add(new RawPoint(start + i * 200L, px, y, rnd.nextDouble() * 3.5, true, 4, rnd.nextDouble() * 5, 0.2));
+        }
+        Batch b = new Batch();
+        b.deviceId = device;
+        b.sessionId = session;
+        b.batchId = device + "-" + start;
+        b.mapId = mapId;
+        b.source = source;
+        b.points = pts;
+        b.count = n;
+        b.startTimeMs = start;
+        b.endTimeMs = start + (n - 1) * 200L;
+        return b;
+    }
+
+    /** the batch's walk moved to start near (x, y) */
+    private static Batch at(Batch b, double x, double y) {
+        double dx = x - b.points.get(0).x, dy = y - b.points.get(0).y;
+        for (RawPoint p : b.points) {
+            if (p.x < 100) p.x += dx;
+            p.y += dy;
+        }
+        return b;
+    }
+
+    /** append to the log, partition the sealed segments and compact every closed partition */
+    private void store(List<Batch> batches) throws IOException {
+        manifest = BatchManifest.open(root);
+        Path logDir = root.resolve("log");
+        SegmentedBatchLog log = new SegmentedBatchLog(logDir, 1 << 20, Long.MAX_VALUE, 64);
+        log.setCommitListener((pos, attachment) -> {
+            try {
+                manifest.add(((BatchRef) attachment).at("log/" + SegmentedBatchLog.segmentFileName(pos.segment), pos.offset));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        for (Batch b : batches) log.append(mapper.writeValueAsBytes(b), BatchRef.of(b));
+        log.close();
+        // a new log seals the segment of the first one
+        SegmentedBatchLog next = new SegmentedBatchLog(logDir, 1 << 20, Long.MAX_VALUE, 64);
+        BatchPartitioner partitioner = new BatchPartitioner(root, "log", manifest);
+        PartitionCompactor compactor = new PartitionCompactor(root, "log", manifest, mapper, 0);
+        for (long id : next.sealedSegments()) compactor.markDirty(partitioner.partition(id));
+        next.close();
+        assertTrue(compactor.compact(System.currentTimeMillis()) > 0);
+    }
+
+    /** reads through the manifest like LocalRepositoryImpl */
+    private LocalRepository repository() {
+        return new LocalRepositoryImpl() {
+            @Override
+            public List<PartitionKey> listPartitions(long fromMs, long toMs) {
+                TreeSet<PartitionKey> keys = new TreeSet<PartitionKey>();
+                for (BatchRef ref : manifest.find(null, fromMs, toMs)) keys.add(PartitionKey.of(ref));
+                return new ArrayList<PartitionKey>(keys);
+            }
+
+            @Override
+            public List<Batch> openPartition(PartitionKey key) {
+                List<Batch> out = new ArrayList<Batch>();
+                try {
+                    for (BatchRef ref : refs(key)) {
+                        Path file = root.resolve(ref.file);
+                        byte[] payload = ref.file.endsWith(CompactedSegment.SUFFIX)
+                                ? CompactedSegment.readAt(file, ref.offset) : SegmentedBatchLog.readRecordAt(file, ref.offset);
+                        out.add(mapper.readValue(payload, Batch.class));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return out;
+            }
+
+            @Override
+            public ColumnarPointFile openPointFile(PartitionKey key) throws IOException {
+                String file = null;
+                for (BatchRef ref : refs(key)) {
+                    if (!ref.file.endsWith(CompactedSegment.SUFFIX) || (file != null && !file.equals(ref.file))) return null;
+                    file = ref.file;
+                }
+                if (file == null) return null;
+                try {
+                    return ColumnarPointFile.open(root.resolve(PartitionCompactor.columnsOf(file)));
+                } catch (NoSuchFileException e) {
+                    return null;
+                }
+            }
+        };
+    }
+
+    private List<BatchRef> refs(PartitionKey key) {
+        List<BatchRef> out = new ArrayList<BatchRef>();
+        for (BatchRef ref : manifest.find(key.deviceId, key.hourStartMs, key.hourEndMs())) {
+            if (key.contains(ref)) out.add(ref);
+        }
+        return out;
+    }
+
+    @Test
+    void columnsGiveTheListResultPerPartition() throws Exception {
+        store(batches(new Random(3)));
+        LocalRepository repo = repository();
+        int columnar = 0;
+        for (PartitionKey key : repo.listPartitions(Long.MIN_VALUE, Long.MAX_VALUE)) {
+            List<Batch> batches = repo.openPartition(key);
+            try (ColumnarPointFile file = repo.openPointFile(key)) {
+                boolean mixed = key.deviceId.equals("d1") && key.hourStartMs == H0 + HOUR;
+                if (mixed) {
+                    assertNull(file, "a partition mixing sources has no columnar copy");
+                    continue;
+                }
+                assertNotNull(file, key.toString());
+                assertEquals(batches.get(0).mapId, file.mapId());
+                assertEquals(batches.get(0).source, file.source());
+                assertEquals(rows(preprocessor.preprocess(batches)), rows(preprocessor.preprocess(file, Long.MIN_VALUE, Long.MAX_VALUE)), key.toString());
+                // a time range cuts the same points out of both
+                long from = H0 + 600_000L, to = H0 + HOUR + 900_000L;
+                assertEquals(rows(preprocessor.preprocess(clip(batches, from, to))), rows(preprocessor.preprocess(file, from, to)), key.toString());
+                columnar++;
+            }
+        }
+        assertEquals(5, columnar);
+    }
+
+    @Test
+    void storedTracksGiveTheBatchBundle() throws Exception {
+        List<Batch> batches = batches(new Random(5));
+        store(batches);
+        LocalRepository repo = repository();
+        MapLoadingModule loader = new MapLoadingModule(new LocalRepositoryImpl(), 0);
+        FloorMap map = loader.floorMap();
+        DataPreprocessingModule bounded = new DataPreprocessingModule(FilterConfig.forMap(map, FilterThresholds.LEGACY)
+                .withSourceThresholds("ble", new FilterThresholds(1.5, 1)));
+        ParallelTrackPipeline pipeline = new ParallelTrackPipeline(bounded, null, null, new RoomMatchingModule(loader),
+                new DataPostprocessingModule(5, 4000, 6000), ForkJoinPool.commonPool());
+
+        // the list pipeline reads the same batches in partition order
+        List<Batch> stored = new ArrayList<Batch>();
+        List<PartitionKey> partitions = repo.listPartitions(Long.MIN_VALUE, Long.MAX_VALUE);
+        for (PartitionKey key : partitions) stored.addAll(repo.openPartition(key));
+        assertEquals(batches.size(), stored.size());
+
+        Meta meta = new Meta();
+        ScriptInputBundle expected = pipeline.bundle(stored, meta);
+        assertFalse(expected.stay_segments.isEmpty());
+        assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(pipeline.bundle(repo, partitions, meta)));
+    }
+
+    private static List<Batch> clip(List<Batch> batches, long from, long to) {
+        List<Batch> out = new ArrayList<Batch>();
+        for (Batch b : batches) {
+            Batch c = new Batch();
+            c.mapId = b.mapId;
+            c.source = b.source;
+            c.points = new ArrayList<RawPoint>();
+            for (RawPoint p : b.points) if (p.time >= from && p.time <= to) c.points.add(p);
+            out.add(c);
+        }
+        return out;
+    }
+
+    private static List<String> rows(List<RawPoint> pts) {
+        List<String> out = new ArrayList<String>();
+        for (RawPoint p : pts) out.add(p.time + " " + p.x + " " + p.y + " " + p.velocity + " " + p.rms + " " + p.dt + " " + p.anchorsUsed + " " + p.accepted);
+        return out;
+    }
+}
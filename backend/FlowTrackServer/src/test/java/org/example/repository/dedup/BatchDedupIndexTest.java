@@ -0,0 +1,107 @@
+package org.example.repository.dedup;
+
+import org.example.model.bundle.Batch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** reserve / commit / release, keys.dat lookups after a merge and after a restart */
+class BatchDedupIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private BatchDedupIndex open() throws Exception {
+        return new BatchDedupIndex(true, dir.toString(), 72, 1000, 0.01);
+    }
+
+    private static Batch batch(String deviceId, String batchId) {
+        Batch b = new Batch();
+        b.deviceId = deviceId;
+        b.batchId = batchId;
+        return b;
+    }
+
+    @Test
+    void keyIsUnambiguous() {
+        assertEquals("a|b|c", BatchDedupIndex.keyOf(batch("a", "b|c")));
+        // would be the same key as above
+        assertNull(BatchDedupIndex.keyOf(batch("a|b", "c")));
+        assertNull(BatchDedupIndex.keyOf(batch("a", "b\tc")));
+        assertNull(BatchDedupIndex.keyOf(batch(null, "b")));
+        assertNull(BatchDedupIndex.keyOf(batch("a", null)));
+        assertNotEquals(BatchDedupIndex.keyOf(batch("a", "bc")), BatchDedupIndex.keyOf(batch("ab", "c")));
+    }
+
+    @Test
+    void reserveCommitRelease() throws Exception {
+        BatchDedupIndex index = open();
+        try {
+            assertTrue(index.reserve("d|1"));
+            // same key while the first request is still storing it
+            assertFalse(index.reserve("d|1"));
+            index.release("d|1");
+            assertTrue(index.reserve("d|1"));
+            index.commit("d|1");
+            assertTrue(index.contains("d|1"));
+            assertFalse(index.reserve("d|1"));
+            assertFalse(index.contains("d|2"));
+            assertTrue(index.reserve(null));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    void keysAreFoundInKeyFileAfterMergeAndRestart() throws Exception {
+        int n = BatchDedupIndex.MERGE_KEYS + 500;
+        BatchDedupIndex index = open();
+        try {
+            for (int i = 0; i < n; i++) {
+                String key = "dev" + (i % 13) + "|" + i;
+                assertTrue(index.reserve(key));
+                index.commit(key);
+            }
+            // the background merge moves the keys out of memory into keys.dat
+            long deadline = System.currentTimeMillis() + 30000;
+            while (index.recentSize() >= BatchDedupIndex.MERGE_KEYS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(index.recentSize() < BatchDedupIndex.MERGE_KEYS, "merge did not run");
+            assertEquals(n, index.size());
+            for (int i = 0; i < n; i++) assertTrue(index.contains("dev" + (i % 13) + "|" + i), "key " + i);
+            for (int i = n; i < n + 1000; i++) assertFalse(index.contains("dev" + (i % 13) + "|" + i), "key " + i);
+        } finally {
+            index.close();
+        }
+
+        // a restart merges keys.log into keys.dat and answers from disk only
+        BatchDedupIndex reopened = open();
+        try {
+            assertEquals(0, reopened.recentSize());
+            assertEquals(n, reopened.size());
+            assertEquals(24L * n, Files.size(dir.resolve("keys.dat")));
+            for (int i = 0; i < n; i++) assertFalse(reopened.reserve("dev" + (i % 13) + "|" + i), "key " + i);
+            assertTrue(reopened.reserve("dev0|" + n));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void disabledIndexLetsEverythingThrough() throws Exception {
+        BatchDedupIndex index = new BatchDedupIndex(false, dir.resolve("off").toString(), 72, 1000, 0.01);
+        index.commit("d|1");
+        assertTrue(index.reserve("d|1"));
+        assertFalse(index.contains("d|1"));
+        index.close();
+    }
+}
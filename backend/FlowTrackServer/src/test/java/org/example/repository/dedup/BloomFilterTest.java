@@ -0,0 +1,44 @@
+package org.example.repository.dedup;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** murmur3 reference values, no false negatives, false positive rate near the configured one */
+class BloomFilterTest {
+
+    @Test
+    void hashMatchesMurmur3Reference() {
+        assertArrayEquals(new long[]{0L, 0L}, BloomFilter.hash(""));
+        assertArrayEquals(new long[]{0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L}, BloomFilter.hash("hello"));
+        assertArrayEquals(new long[]{0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L},
+                BloomFilter.hash("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    void addedKeysAreAlwaysFound() {
+        BloomFilter bloom = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) bloom.add("dev" + (i % 7) + "|batch-" + i);
+        for (int i = 0; i < 10000; i++) assertTrue(bloom.mightContain("dev" + (i % 7) + "|batch-" + i));
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTheTarget() {
+        BloomFilter bloom = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) bloom.add("in-" + i);
+        int hits = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (bloom.mightContain("out-" + i)) hits++;
+        }
+        assertTrue(hits < 2000, "false positives " + hits + " of 100000");
+    }
+
+    @Test
+    void rejectsBadParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(10, 1));
+    }
+}
@@ -0,0 +1,172 @@
+package org.example.repository.log;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** appends, rollover between records, recovery of the log and of a torn tail */
+class SegmentedBatchLogTest {
+
+    /** 8 byte header + 20 byte payload: three records per segment */
+    private static final int PAYLOAD = 20;
+    private static final long SEGMENT = 100;
+
+    @TempDir
+    Path dir;
+
+    private SegmentedBatchLog open() throws Exception {
+        return new SegmentedBatchLog(dir, SEGMENT, 0, 64);
+    }
+
+    private static byte[] record(int i) {
+        byte[] b = new byte[PAYLOAD];
+        byte[] text = String.format("record-%04d", i).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(text, 0, b, 0, text.length);
+        return b;
+    }
+
+    private List<byte[]> scan() throws Exception {
+        List<byte[]> out = new ArrayList<byte[]>();
+        SegmentedBatchLog.scan(dir, (pos, payload) -> out.add(payload));
+        return out;
+    }
+
+    /** n appends queued at once, so the writer takes them in groups larger than a segment */
+    private List<LogPosition> appendAll(SegmentedBatchLog log, int from, int n) throws Exception {
+        List<CompletableFuture<LogPosition>> futures = new ArrayList<CompletableFuture<LogPosition>>();
+        synchronized (log) {
+            for (int i = from; i < from + n; i++) futures.add(log.appendAsync(record(i)));
+        }
+        List<LogPosition> out = new ArrayList<LogPosition>();
+        for (CompletableFuture<LogPosition> f : futures) out.add(f.get());
+        return out;
+    }
+
+    @Test
+    void groupsRollOnlyBetweenRecords() throws Exception {
+        List<LogPosition> committed = new ArrayList<LogPosition>();
+        List<LogPosition> positions;
+        SegmentedBatchLog log = open();
+        try {
+            log.setCommitListener((pos, attachment) -> committed.add(pos));
+            positions = appendAll(log, 0, 20);
+            for (int i = 0; i < 20; i++) assertArrayEquals(record(i), log.read(positions.get(i)));
+        } finally {
+            log.close();
+        }
+        // log order, three records per segment, no segment larger than the limit
+        for (int i = 0; i < 20; i++) {
+            assertEquals(positions.get(i).toString(), committed.get(i).toString());
+            assertEquals(positions.get(0).segment + i / 3, positions.get(i).segment);
+            assertEquals((i % 3) * (SegmentedBatchLog.HEADER_BYTES + PAYLOAD), positions.get(i).offset);
+        }
+        for (long id : SegmentedBatchLog.listSegmentIds(dir)) {
+            assertTrue(Files.size(SegmentedBatchLog.segmentPath(dir, id)) <= SEGMENT);
+        }
+    }
+
+    @Test
+    void reopenKeepsEveryRecordAndSealsOldSegments() throws Exception {
+        SegmentedBatchLog log = open();
+        try {
+            appendAll(log, 0, 7);
+        } finally {
+            log.close();
+        }
+        List<Long> before = SegmentedBatchLog.listSegmentIds(dir);
+
+        log = open();
+        try {
+            // everything from the previous run is sealed, appends go to a new segment
+            assertEquals(before, log.sealedSegments());
+            List<LogPosition> more = appendAll(log, 7, 2);
+            assertTrue(more.get(0).segment > before.get(before.size() - 1));
+        } finally {
+            log.close();
+        }
+        List<byte[]> all = scan();
+        assertEquals(9, all.size());
+        for (int i = 0; i < 9; i++) assertArrayEquals(record(i), all.get(i));
+    }
+
+    @Test
+    void tornTailIsTruncated() throws Exception {
+        SegmentedBatchLog log = open();
+        try {
+            appendAll(log, 0, 2);
+        } finally {
+            log.close();
+        }
+        List<Long> ids = SegmentedBatchLog.listSegmentIds(dir);
+        Path last = SegmentedBatchLog.segmentPath(dir, ids.get(ids.size() - 1));
+        long valid = Files.size(last);
+        // crash in the middle of the third record: header and half of the payload
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(SegmentedBatchLog.HEADER_BYTES + PAYLOAD / 2);
+            torn.putInt(PAYLOAD).putInt(12345).put(new byte[PAYLOAD / 2]).flip();
+            ch.write(torn);
+        }
+
+        log = open();
+        try {
+            assertEquals(valid, Files.size(last));
+            appendAll(log, 2, 1);
+        } finally {
+            log.close();
+        }
+        List<byte[]> all = scan();
+        assertEquals(3, all.size());
+        for (int i = 0; i < 3; i++) assertArrayEquals(record(i), all.get(i));
+    }
+
+    @Test
+    void corruptLastRecordIsDropped() throws Exception {
+        SegmentedBatchLog log = open();
+        try {
+            appendAll(log, 0, 2);
+        } finally {
+            log.close();
+        }
+        List<Long> ids = SegmentedBatchLog.listSegmentIds(dir);
+        Path last = SegmentedBatchLog.segmentPath(dir, ids.get(ids.size() - 1));
+        long size = Files.size(last);
+        // full length on disk, but the crc no longer matches
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[]{'X'}), size - 1);
+        }
+
+        open().close();
+        assertEquals(size - SegmentedBatchLog.HEADER_BYTES - PAYLOAD, Files.size(last));
+        List<byte[]> all = scan();
+        assertEquals(1, all.size());
+        assertArrayEquals(record(0), all.get(0));
+    }
+
+    @Test
+    void emptySegmentsAreDroppedOnOpen() throws Exception {
+        open().close();
+        open().close();
+        // each run opened a segment and wrote nothing
+        assertTrue(SegmentedBatchLog.listSegmentIds(dir).size() <= 1);
+        SegmentedBatchLog log = open();
+        try {
+            assertFalse(log.sealedSegments().iterator().hasNext());
+        } finally {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.repository.manifest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** range lookups against a scan of every entry, and the index after a reopen, moves and a checkpoint */
+class BatchManifestTest {
+
+    private static final String[] DEVICES = {"d1", "d2", "d3", "d|4"};
+
+    @TempDir
+    Path root;
+
+    /** mostly short batches, a few spanning hours: the lookup has to reach back for those */
+    private static List<BatchRef> refs(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<BatchRef> out = new ArrayList<BatchRef>();
+        for (int i = 0; i < n; i++) {
+            long start = rnd.nextInt(10_000_000);
+            long span = rnd.nextInt(50) == 0 ? rnd.nextInt(5_000_000) : rnd.nextInt(60_000);
+            String device = DEVICES[rnd.nextInt(DEVICES.length)];
+            out.add(new BatchRef(-1, device, "s" + rnd.nextInt(3), "b" + i, start, start + span, 10,
+                    "log/segment_" + (i / 100) + ".log", i * 64L));
+        }
+        return out;
+    }
+
+    private static List<String> ids(List<BatchRef> refs) {
+        List<String> out = new ArrayList<String>();
+        for (BatchRef r : refs) out.add(r.batchId);
+        return out;
+    }
+
+    /** every stored ref overlapping the range, in start time order (ties in insertion order) */
+    private static List<String> scan(List<BatchRef> stored, String device, long from, long to) {
+        List<BatchRef> hits = new ArrayList<BatchRef>();
+        for (BatchRef r : stored) {
+            if ((device == null || device.equals(r.deviceId)) && r.overlaps(from, to)) hits.add(r);
+        }
+        hits.sort((a, b) -> Long.compare(a.startMs, b.startMs));
+        return ids(hits);
+    }
+
+    private static void assertSameLookups(BatchManifest m, List<BatchRef> stored, long seed) {
+        Random rnd = new Random(seed);
+        for (int q = 0; q < 300; q++) {
+            long from = rnd.nextInt(11_000_000) - 500_000;
+            long to = from + (q % 3 == 0 ? 0 : rnd.nextInt(q % 3 == 1 ? 10_000 : 3_000_000));
+            String device = q % 5 == 0 ? null : DEVICES[rnd.nextInt(DEVICES.length)];
+            assertEquals(scan(stored, device, from, to), ids(m.find(device, from, to)), device + " " + from + ".." + to);
+        }
+        assertEquals(scan(stored, null, Long.MIN_VALUE, Long.MAX_VALUE), ids(m.find(null, Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertTrue(m.find("d1", 10, 5).isEmpty());
+        assertTrue(m.find("unknown", Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void rangeLookupsMatchAScan() throws Exception {
+        List<BatchRef> stored = new ArrayList<BatchRef>();
+        try (BatchManifest m = BatchManifest.open(root)) {
+            for (BatchRef r : refs(3000, 1)) stored.add(m.add(r));
+            assertEquals(3000, m.size());
+            assertSameLookups(m, stored, 2);
+            // oldest(n): the first n by start time
+            assertEquals(scan(stored, null, Long.MIN_VALUE, Long.MAX_VALUE).subList(0, 8), ids(m.oldest(8)));
+        }
+    }
+
+    @Test
+    void reopenRestoresIndexAndLocations() throws Exception {
+        List<BatchRef> stored = new ArrayList<BatchRef>();
+        try (BatchManifest m = BatchManifest.open(root)) {
+            for (BatchRef r : refs(500, 3)) stored.add(m.add(r));
+            // the first 100 moved into a partition file, the old segment is tombstoned
+            for (int i = 0; i < 100; i++) stored.set(i, m.move(stored.get(i).id, "partitions/p0.seg", i * 10L));
+            m.tombstone("log/segment_0.log");
+            assertTrue(m.inFile("log/segment_0.log").isEmpty());
+        }
+        // crash while writing the next line
+        Files.write(root.resolve(BatchManifest.MANIFEST_FILE), "A\t501\td1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (BatchManifest m = BatchManifest.open(root)) {
+            assertEquals(500, m.size());
+            assertSameLookups(m, stored, 4);
+            assertEquals(100, m.inFile("partitions/p0.seg").size());
+            assertEquals(90L, m.inFile("partitions/p0.seg").get(9).offset);
+            assertEquals("partitions/p0.seg", m.get(stored.get(5).id).file);
+            assertEquals(stored.get(200).file, m.get(stored.get(200).id).file);
+            assertEquals(1, m.tombstones().size());
+            assertNull(m.get(10_000));
+            // ids keep counting after the reopen
+            BatchRef next = m.add(new BatchRef(-1, "d1", "s1", "new", 1, 2, 1, "log/x.log", 0));
+            assertTrue(next.id > stored.get(stored.size() - 1).id);
+        }
+    }
+
+    @Test
+    void checkpointKeepsEveryEntry() throws Exception {
+        List<BatchRef> stored = new ArrayList<BatchRef>();
+        try (BatchManifest m = BatchManifest.open(root)) {
+            for (BatchRef r : refs(4000, 5)) stored.add(m.add(r));
+            assertFalse(m.checkpointIfGrown());
+            // three moves per batch: 16000 lines for 4000 entries
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < stored.size(); i++) stored.set(i, m.move(stored.get(i).id, "partitions/r" + round + ".seg", i));
+            }
+            m.tombstone("log/segment_0.log");
+            assertTrue(m.checkpointIfGrown());
+            // one line per entry, the tombstone and the high water of the log the refs came from
+            assertEquals(4002, m.lines());
+            assertSameLookups(m, stored, 6);
+        }
+        try (BatchManifest m = BatchManifest.open(root)) {
+            assertSameLookups(m, stored, 7);
+            assertEquals(4000, m.inFile("partitions/r2.seg").size());
+            assertEquals(1, m.tombstones().size());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.service.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.model.bundle.Batch;
+import org.example.model.bundle.scriptuse.Meta;
+import org.example.model.bundle.scriptuse.ScriptInputBundle;
+import org.example.model.bundle.scriptuse.StaySegment;
+import org.example.model.map.FloorMap;
+import org.example.model.map.Room;
+import org.example.model.map.Vertex;
+import org.example.model.point.RawPoint;
+import org.example.repository.impl.LocalRepositoryImpl;
+import org.example.service.postprocessing.DataPostprocessingModule;
+import org.example.service.preprocessing.DataPreprocessingModule;
+import org.example.service.preprocessing.filter.FilterConfig;
+import org.example.service.preprocessing.filter.FilterThresholds;
+import org.example.service.tagging.MapRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** MapRegistry mode: every track is grouped, filtered and tagged on the map its batches resolve to */
+class ParallelTrackPipelineTest {
+
+    @TempDir
+    Path mapDir;
+
+    @Test
+    void trackOnAnotherMapIsFilteredWithThatMapsBounds() throws Exception {
+        // two floors far apart, the filter config only knows the first one
+        FloorMap near = map("floor_a", "A", 0);
+        FloorMap far = map("floor_b", "B", 1000);
+        ObjectMapper om = new ObjectMapper();
+        om.writeValue(mapDir.resolve("a.json").toFile(), near);
+        om.writeValue(mapDir.resolve("b.json").toFile(), far);
+
+        DataPreprocessingModule preprocessor = new DataPreprocessingModule(FilterConfig.forMap(near, FilterThresholds.LEGACY));
+        MapRegistry maps = new MapRegistry(new LocalRepositoryImpl(), mapDir.toString(), 4, 0);
+        ParallelTrackPipeline pipeline = new ParallelTrackPipeline(preprocessor, null, null, maps,
+                new DataPostprocessingModule(5, 4000, 6000), ForkJoinPool.commonPool());
+
+        List<Batch> batches = Arrays.asList(batch("dev1", "floor_a", 2, 2), batch("dev2", "floor_b", 1002, 2));
+        Map<String, ScriptInputBundle> tracks = pipeline.bundlePerTrack(batches, new Meta());
+
+        assertEquals(new HashSet<String>(Arrays.asList("dev1/s/a.json", "dev2/s/b.json")), tracks.keySet());
+        assertEquals(set("A_room"), rooms(tracks.get("dev1/s/a.json")));
+        assertEquals(set("B_room"), rooms(tracks.get("dev2/s/b.json")));
+        assertEquals(0, pipeline.skippedTracks());
+    }
+
+    @Test
+    void batchesWithoutAMapAreSkipped() throws Exception {
+        new ObjectMapper().writeValue(mapDir.resolve("a.json").toFile(), map("floor_a", "A", 0));
+        MapRegistry maps = new MapRegistry(new LocalRepositoryImpl(), mapDir.toString(), 4, 0);
+        ParallelTrackPipeline pipeline = new ParallelTrackPipeline(new DataPreprocessingModule(), null, null, maps,
+                new DataPostprocessingModule(5, 4000, 6000), ForkJoinPool.commonPool());
+
+        Map<String, ScriptInputBundle> tracks = pipeline.bundlePerTrack(
+                Arrays.asList(batch("dev1", "floor_a", 2, 2), batch("dev2", "unknown", 2, 2)), new Meta());
+
+        assertEquals(set("dev1/s/a.json"), tracks.keySet());
+        assertFalse(rooms(tracks.get("dev1/s/a.json")).isEmpty());
+        assertEquals(1, pipeline.skippedTracks());
+    }
+
+    /** one 10 x 10 m room with its lower left corner at (offset, 0) */
+    private static FloorMap map(String mapId, String prefix, double offset) {
+        FloorMap m = new FloorMap();
+        m.map_id = mapId;
+        Room r = new Room();
+        r.id = prefix + "_room";
+        r.vertices = new ArrayList<Vertex>(Arrays.asList(new Vertex(offset, 0), new Vertex(offset + 10, 0),
+                new Vertex(offset + 10, 10), new Vertex(offset, 10)));
+        m.rooms = new ArrayList<Room>(Arrays.asList(r));
+        return m;
+    }
+
+    /** 60 points a second apart standing at (x, y) */
+    private static Batch batch(String deviceId, String mapId, double x, double y) {
+        Batch b = new Batch();
+        b.deviceId = deviceId;
+        b.sessionId = "s";
+        b.mapId = mapId;
+        b.points = new ArrayList<RawPoint>();
+        for (int i = 0; i < 60; i++) b.points.add(new RawPoint(1000L * i, x, y, 0, true, 4, 1, 1));
+        return b;
+    }
+
+    private static Set<String> rooms(ScriptInputBundle bundle) {
+        Set<String> out = new HashSet<String>();
+        for (StaySegment s : bundle.stay_segments) if (s.room_id != null) out.add(s.room_id);
+        return out;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
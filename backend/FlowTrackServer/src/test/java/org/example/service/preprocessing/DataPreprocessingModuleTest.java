@@ -0,0 +1,113 @@
+package org.example.service.preprocessing;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.PointBuffer;
+import org.example.model.point.RawPoint;
+import org.example.service.preprocessing.filter.FilterConfig;
+import org.example.service.preprocessing.filter.FilterThresholds;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** the one pass k-way preprocess against merge + sort + deduplicate + filter in a row */
+class DataPreprocessingModuleTest {
+
+    /**
+     * overlapping batches on a coarse time grid, so timestamps repeat across and inside batches (rms ties too);
+     * now and then a batch out of time order, a null batch or no points (sort() of the
+     * four passes can not take null points); points out of bounds, bad rms, too fast
+     */
+    private static List<Batch> batches(int count, String mapId, String source, Random rnd) {
+        List<Batch> out = new ArrayList<Batch>();
+        for (int b = 0; b < count; b++) {
+            if (rnd.nextInt(15) == 0) {
+                out.add(null);
+                continue;
+            }
+            List<RawPoint> pts = new ArrayList<RawPoint>();
+            long t = rnd.nextInt(200) * 100L;
+            int n = rnd.nextInt(40);
+            for (int i = 0; i < n; i++) {
+                double x = rnd.nextInt(15) == 0 ? 500 : rnd.nextDouble() * 100;
+                double rms = rnd.nextInt(4) == 0 ? 1.0 : rnd.nextInt(50) / 10.0;
+                pts.add(new RawPoint(t, x, rnd.nextDouble() * 100, rnd.nextDouble() * 4, true, 4, rms, 0.1));
+                t += rnd.nextInt(3) * 100L;
+            }
+            if (rnd.nextInt(8) == 0) Collections.shuffle(pts, rnd);
+            Batch batch = new Batch();
+            batch.batchId = "b" + b;
+            batch.deviceId = "d1";
+            batch.mapId = mapId;
+            batch.source = source;
+            batch.points = rnd.nextInt(20) == 0 ? null : pts;
+            out.add(batch);
+        }
+        return out;
+    }
+
+    private static List<RawPoint> fourPasses(DataPreprocessingModule p, List<Batch> batches, String mapId, String source) {
+        return p.filter(p.deduplicate(p.sort(p.merge(batches))), mapId, source);
+    }
+
+    private static void assertSamePoints(List<RawPoint> expected, List<RawPoint> actual, String what) {
+        assertEquals(expected.size(), actual.size(), what);
+        for (int i = 0; i < expected.size(); i++) assertSame(expected.get(i), actual.get(i), what + " point " + i);
+    }
+
+    private static void assertSameValues(List<RawPoint> expected, PointBuffer actual, String what) {
+        assertEquals(expected.size(), actual.size, what);
+        for (int i = 0; i < expected.size(); i++) {
+            RawPoint e = expected.get(i);
+            assertEquals(e.time, actual.time[i], what);
+            assertEquals(e.x, actual.x[i], 0, what);
+            assertEquals(e.y, actual.y[i], 0, what);
+            assertEquals(e.rms, actual.rms[i], 0, what);
+            assertEquals(e.velocity, actual.velocity[i], 0, what);
+        }
+    }
+
+    @Test
+    void onePassMatchesFourPasses() {
+        DataPreprocessingModule p = new DataPreprocessingModule();
+        Random rnd = new Random(11);
+        int kept = 0;
+        for (int round = 0; round < 200; round++) {
+            List<Batch> batches = batches(1 + rnd.nextInt(12), null, null, rnd);
+            List<RawPoint> expected = fourPasses(p, batches, null, null);
+            kept += expected.size();
+            assertSamePoints(expected, p.preprocess(batches), "round " + round);
+            assertSameValues(expected, p.preprocess(batches, new PointBuffer()), "buffer, round " + round);
+            assertSameValues(expected, p.preprocess(PointBuffer.of(p.merge(batches))), "unsorted buffer, round " + round);
+        }
+        assertTrue(kept > 1000, "the data should keep points: " + kept);
+    }
+
+    @Test
+    void onePassUsesTheChainOfTheBatches() {
+        // ble limits differ from the defaults, every batch of a round has the same map / source
+        DataPreprocessingModule p = new DataPreprocessingModule(
+                new FilterConfig().withSourceThresholds("ble", new FilterThresholds(1.5, 1)));
+        Random rnd = new Random(12);
+        for (int round = 0; round < 100; round++) {
+            String source = round % 2 == 0 ? "ble" : "uwb";
+            List<Batch> batches = batches(1 + rnd.nextInt(8), "m1", source, rnd);
+            List<RawPoint> expected = fourPasses(p, batches, "m1", source);
+            assertSamePoints(expected, p.preprocess(batches), source + " round " + round);
+        }
+    }
+
+    @Test
+    void emptyInput() {
+        DataPreprocessingModule p = new DataPreprocessingModule();
+        assertTrue(p.preprocess(new ArrayList<Batch>()).isEmpty());
+        assertTrue(p.preprocess(Collections.<Batch>singletonList(null)).isEmpty());
+        assertEquals(0, p.preprocess(new ArrayList<Batch>(), new PointBuffer()).size);
+    }
+}
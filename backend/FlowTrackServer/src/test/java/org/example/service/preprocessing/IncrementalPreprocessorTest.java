@@ -0,0 +1,177 @@
+package org.example.service.preprocessing;
+
+import org.example.model.bundle.Batch;
+import org.example.model.point.RawPoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/** incremental output vs preprocess(batches), late points, watermarks kept after eviction */
+class IncrementalPreprocessorTest {
+
+    private final DataPreprocessingModule preprocessor = new DataPreprocessingModule();
+
+    /** collects per device */
+    private static final class Collect implements IncrementalPreprocessor.Output {
+        final Map<String, List<RawPoint>> released = new HashMap<String, List<RawPoint>>();
+        final Map<String, List<RawPoint>> late = new HashMap<String, List<RawPoint>>();
+
+        @Override
+        public void released(String deviceId, List<RawPoint> points) {
+            released.computeIfAbsent(deviceId, k -> new ArrayList<RawPoint>()).addAll(points);
+        }
+
+        @Override
+        public void late(String deviceId, List<RawPoint> points) {
+            late.computeIfAbsent(deviceId, k -> new ArrayList<RawPoint>()).addAll(points);
+        }
+    }
+
+    /**
+     * time ordered batches of one device with points out of bounds, bad rms, too fast; with repeats a batch
+     * may start at the previous batch's last timestamp (needs a window > 0 to be deduplicated, not late)
+     */
+    private static List<Batch> batches(String deviceId, int count, boolean repeats, Random rnd) {
+        List<Batch> batches = new ArrayList<Batch>();
+        long t = 1000;
+        for (int b = 0; b < count; b++) {
+            List<RawPoint> pts = new ArrayList<RawPoint>();
+            // the first point repeats the previous batch's last timestamp now and then
+            if (repeats && b > 0 && rnd.nextInt(3) == 0) t -= 200;
+            for (int i = 0; i < 20; i++) {
+                double x = rnd.nextInt(20) == 0 ? 500 : rnd.nextDouble() * 100;
+                pts.add(new RawPoint(t, x, rnd.nextDouble() * 100, rnd.nextDouble() * 4, true, 4,
+                        rnd.nextDouble() * 5, 0.2));
+                t += 200;
+            }
+            Batch batch = new Batch();
+            batch.deviceId = deviceId;
+            batch.batchId = deviceId + "-" + b;
+            batch.source = b % 2 == 0 ? "uwb" : "ble";
+            batch.points = pts;
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    @Test
+    void timeOrderedBatchesGiveTheBatchResult() {
+        Random rnd = new Random(7);
+        for (long window : new long[]{0, 500, 3000, Long.MAX_VALUE / 4}) {
+            List<Batch> batches = batches("d1", 30, window > 0, rnd);
+            Collect out = new Collect();
+            IncrementalPreprocessor inc = new IncrementalPreprocessor(preprocessor, window, 1 << 20, out);
+            for (Batch b : batches) inc.offer(b);
+            inc.flush("d1");
+            assertSame(null, out.late.get("d1"), "window " + window);
+            assertEquals(times(preprocessor.preprocess(batches)), times(out.released.get("d1")), "window " + window);
+            assertEquals(0, inc.devices());
+        }
+    }
+
+    @Test
+    void shuffledBatchesInsideTheWindowGiveTheBatchResult() {
+        Random rnd = new Random(11);
+        List<Batch> batches = batches("d1", 20, true, rnd);
+        List<Batch> shuffled = new ArrayList<Batch>(batches);
+        Collections.shuffle(shuffled, rnd);
+        Collect out = new Collect();
+        IncrementalPreprocessor inc = new IncrementalPreprocessor(preprocessor, Long.MAX_VALUE / 4, 1 << 20, out);
+        for (Batch b : shuffled) inc.offer(b);
+        inc.flushAll();
+        // nothing was final before the flush, the arrival order only decides ties
+        assertEquals(times(preprocessor.preprocess(shuffled)), times(out.released.get("d1")));
+    }
+
+    @Test
+    void pointsBehindTheWatermarkAreLate() {
+        Collect out = new Collect();
+        IncrementalPreprocessor inc = new IncrementalPreprocessor(preprocessor, 1000, 1 << 20, out);
+        inc.offer(batch("d1", 1000, 2000, 5000));
+        assertEquals(4000, inc.watermark("d1"));
+        inc.offer(batch("d1", 3000, 4500));
+        assertEquals(times(pts(1000, 2000)), times(out.released.get("d1")));
+        assertEquals(times(pts(3000)), times(out.late.get("d1")));
+        assertEquals(1, inc.latePoints());
+    }
+
+    @Test
+    void stragglersAfterFlushAreLate() {
+        Collect out = new Collect();
+        IncrementalPreprocessor inc = new IncrementalPreprocessor(preprocessor, 1000, 1 << 20, out);
+        inc.offer(batch("d1", 1000, 2000, 3000));
+        inc.flush("d1");
+        assertEquals(0, inc.devices());
+        assertEquals(1, inc.remembered());
+        assertEquals(3000, inc.watermark("d1"));
+
+        inc.offer(batch("d1", 2500, 3000, 4000));
+        assertEquals(times(pts(2500, 3000)), times(out.late.get("d1")));
+        inc.flush("d1");
+        assertEquals(times(pts(1000, 2000, 3000, 4000)), times(out.released.get("d1")));
+    }
+
+    @Test
+    void idleEvictionKeepsTheWatermark() {
+        Collect out = new Collect();
+        IncrementalPreprocessor inc = new IncrementalPreprocessor(preprocessor, 0, 1 << 20, out);
+        inc.offer(batch("d1", 1000, 2000));
+        assertEquals(1, inc.flushIdle(0));
+        inc.offer(batch("d1", 1500));
+        assertEquals(times(pts(1500)), times(out.late.get("d1")));
+    }
+
+    @Test
+    void rememberedWatermarksAreBounded() {
+        Collect out = new Collect();
+        IncrementalPreprocessor inc = new IncrementalPreprocessor(preprocessor, 0, 1 << 20, 60000, 2, out);
+        for (String d : new String[]{"a", "b", "c"}) {
+            inc.offer(batch(d, 1000));
+            inc.flush(d);
+        }
+        assertEquals(2, inc.remembered());
+        // the oldest eviction was dropped: "a" starts over
+        assertEquals(Long.MIN_VALUE, inc.watermark("a"));
+        inc.offer(batch("a", 500));
+        assertSame(null, out.late.get("a"));
+        inc.offer(batch("b", 500));
+        assertEquals(1, out.late.get("b").size());
+
+        // no memory at all: every device starts over
+        Collect none = new Collect();
+        IncrementalPreprocessor forgetful = new IncrementalPreprocessor(preprocessor, 0, 1 << 20, 0, 10, none);
+        forgetful.offer(batch("a", 1000));
+        forgetful.flush("a");
+        assertEquals(0, forgetful.remembered());
+        forgetful.offer(batch("a", 500));
+        assertSame(null, none.late.get("a"));
+    }
+
+    private static Batch batch(String deviceId, long... times) {
+        Batch b = new Batch();
+        b.deviceId = deviceId;
+        b.points = pts(times);
+        return b;
+    }
+
+    private static List<RawPoint> pts(long... times) {
+        List<RawPoint> pts = new ArrayList<RawPoint>();
+        for (long t : times) pts.add(new RawPoint(t, 10, 10, 0.5, true, 4, 0.5, 0.2));
+        return pts;
+    }
+
+    private static List<String> times(List<RawPoint> pts) {
+        List<String> out = new ArrayList<String>();
+        if (pts == null) return out;
+        for (RawPoint p : pts) out.add(p.time + "@" + p.x + "," + p.y + "/" + p.rms);
+        return out;
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.service.tagging;
+
+import org.example.model.map.Doorway;
+import org.example.model.map.FloorMap;
+import org.example.model.map.Room;
+import org.example.model.map.Vertex;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** crossing direction and counting on one known door, bad doorways */
+class DoorIndexTest {
+
+    /** room A x 0..5, room B x 5..10, door "d" from A to B on x = 5, y 2..3 */
+    private static FloorMap twoRooms(List<Doorway> doors) {
+        FloorMap m = new FloorMap();
+        m.map_id = "two";
+        m.rooms = new ArrayList<Room>();
+        m.rooms.add(room("A", 0));
+        m.rooms.add(room("B", 5));
+        m.doorways = doors;
+        return m;
+    }
+
+    private static Room room(String id, double x0) {
+        Room r = new Room();
+        r.id = id;
+        r.vertices = new ArrayList<Vertex>();
+        r.vertices.add(new Vertex(x0, 0));
+        r.vertices.add(new Vertex(x0 + 5, 0));
+        r.vertices.add(new Vertex(x0 + 5, 5));
+        r.vertices.add(new Vertex(x0, 5));
+        return r;
+    }
+
+    private static List<Doorway> oneDoor() {
+        List<Doorway> doors = new ArrayList<Doorway>();
+        doors.add(TaggingFixtures.door("d", "A", "B", 5, 2, 5, 3));
+        return doors;
+    }
+
+    private static DoorIndex index(List<Doorway> doors) {
+        return TaggingFixtures.loader(twoRooms(doors), 0).snapshot().doors();
+    }
+
+    /** crossings of the walk x[i], y[i] with the door as "f" / "b" per crossing */
+    private static String walk(DoorIndex doors, double[] xs, double[] ys) {
+        DoorIndex.Crossings c = new DoorIndex.Crossings();
+        StringBuilder out = new StringBuilder();
+        for (int i = 1; i < xs.length; i++) {
+            doors.crossings(xs[i - 1], ys[i - 1], xs[i], ys[i], c);
+            for (int k = 0; k < c.count(); k++) out.append(c.forward(k) ? 'f' : 'b');
+        }
+        return out.toString();
+    }
+
+    @Test
+    void directionFollowsFromAndToRoom() {
+        DoorIndex doors = index(oneDoor());
+        assertEquals(1, doors.size());
+        assertEquals("f", walk(doors, new double[]{4.5, 5.5}, new double[]{2.5, 2.5}));
+        assertEquals("b", walk(doors, new double[]{5.5, 4.5}, new double[]{2.5, 2.5}));
+        assertEquals("fb", walk(doors, new double[]{4.5, 5.5, 4.5}, new double[]{2.5, 2.5, 2.5}));
+        // through a door end point counts, next to the door does not
+        assertEquals("f", walk(doors, new double[]{4.5, 5.5}, new double[]{2.5, 3.5}));
+        assertEquals("", walk(doors, new double[]{4.5, 5.5}, new double[]{4, 4}));
+        // standing still on the line
+        assertEquals("", walk(doors, new double[]{5, 5}, new double[]{2.5, 2.5}));
+    }
+
+    @Test
+    void stopOnTheLineIsCountedOnce() {
+        DoorIndex doors = index(oneDoor());
+        assertEquals("f", walk(doors, new double[]{4.5, 5, 5.5}, new double[]{2.5, 2.5, 2.5}));
+        assertEquals("b", walk(doors, new double[]{5.5, 5, 4.5}, new double[]{2.5, 2.5, 2.5}));
+        assertEquals("f", walk(doors, new double[]{4.5, 5, 5, 5, 5.5}, new double[]{2.5, 2.2, 2.5, 2.8, 2.5}));
+    }
+
+    @Test
+    void matcherCountsIntoDoorFlows() {
+        MapLoadingModule loader = TaggingFixtures.loader(twoRooms(oneDoor()), 0);
+        RoomMatchingModule matcher = new RoomMatchingModule(loader);
+        double[] xs = {1, 4.5, 5, 5.5, 9, 5.5, 4.5, 1};
+        double[] ys = {2.5, 2.5, 2.5, 2.5, 2.5, 2.5, 2.5, 2.5};
+        DoorFlows flows = new DoorFlows();
+        matcher.labelTrack(loader.snapshot(), xs, ys, 0, xs.length, new int[xs.length], flows);
+        assertEquals(1, flows.counters().size());
+        DoorCounter c = flows.counters().get(0);
+        assertEquals("d", c.doorId);
+        assertEquals("A", c.fromRoom);
+        assertEquals("B", c.toRoom);
+        assertEquals(1, c.forward());
+        assertEquals(1, c.backward());
+    }
+
+    @Test
+    void badDoorwaysAreSkipped() {
+        List<Doorway> doors = oneDoor();
+        doors.add(null);
+        doors.add(TaggingFixtures.door(null, "A", "B", 5, 1, 5, 2));
+        doors.add(TaggingFixtures.door("d", "B", "A", 5, 3, 5, 4));
+        doors.add(TaggingFixtures.door("zero", "A", "B", 5, 1, 5, 1));
+        doors.add(TaggingFixtures.door("nan", "A", "B", 5, Double.NaN, 5, 1));
+        Doorway oneVertex = TaggingFixtures.door("one", "A", "B", 5, 1, 5, 2);
+        oneVertex.segment = new Vertex[]{new Vertex(5, 1)};
+        doors.add(oneVertex);
+
+        DoorIndex index = index(doors);
+        assertEquals(1, index.size());
+        assertEquals("d", index.id(0));
+        assertEquals("A", index.fromRoom(0));
+        // the duplicate at y 3..4 is not a door
+        assertEquals("", walk(index, new double[]{4.5, 5.5}, new double[]{3.5, 3.5}));
+
+        List<Doorway> allBad = new ArrayList<Doorway>();
+        allBad.add(TaggingFixtures.door("zero", "A", "B", 5, 1, 5, 1));
+        assertNull(index(allBad));
+        assertNull(index(null));
+    }
+
+    @Test
+    void noDoorsNoCounts() {
+        MapLoadingModule loader = TaggingFixtures.loader(twoRooms(null), 0);
+        DoorFlows flows = new DoorFlows();
+        new RoomMatchingModule(loader).labelTrack(loader.snapshot(), new double[]{4.5, 5.5}, new double[]{2.5, 2.5}, 0, 2, new int[2], flows);
+        assertTrue(flows.isEmpty());
+        assertFalse(flows.counters().iterator().hasNext());
+    }
+}
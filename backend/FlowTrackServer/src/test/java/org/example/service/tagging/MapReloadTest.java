@@ -0,0 +1,169 @@
+package org.example.service.tagging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.model.map.FloorMap;
+import org.example.model.map.Room;
+import org.example.model.map.Vertex;
+import org.example.repository.impl.LocalRepositoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** snapshot swap on reload: calls stay on the snapshot they took, a failed build keeps the old map */
+class MapReloadTest {
+
+    private static final String FILE = "floor.json";
+    private static final int POINTS = 2000;
+
+    @TempDir
+    Path mapDir;
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    /** one 10 x 10 m room, its id names the map version */
+    private void write(String roomId) throws Exception {
+        FloorMap m = new FloorMap();
+        m.map_id = "floor";
+        m.rooms = new ArrayList<Room>();
+        Room r = new Room();
+        r.id = roomId;
+        r.vertices = new ArrayList<Vertex>();
+        r.vertices.add(new Vertex(0, 0));
+        r.vertices.add(new Vertex(10, 0));
+        r.vertices.add(new Vertex(10, 10));
+        r.vertices.add(new Vertex(0, 10));
+        m.rooms.add(r);
+        om.writeValue(mapDir.resolve(FILE).toFile(), m);
+    }
+
+    /** a room with two vertices does not build */
+    private void writeBroken() throws Exception {
+        FloorMap m = new FloorMap();
+        m.map_id = "floor";
+        m.rooms = new ArrayList<Room>();
+        Room r = new Room();
+        r.id = "broken";
+        r.vertices = new ArrayList<Vertex>();
+        r.vertices.add(new Vertex(0, 0));
+        r.vertices.add(new Vertex(10, 0));
+        m.rooms.add(r);
+        om.writeValue(mapDir.resolve(FILE).toFile(), m);
+    }
+
+    private MapLoadingModule loader() {
+        return new MapLoadingModule(new LocalRepositoryImpl(), mapDir.toString(), FILE, 0);
+    }
+
+    /** rooms the points of one call were tagged with */
+    private static Set<String> rooms(RoomMatchingModule matcher, MapLoadingModule.Snapshot snapshot) {
+        double[][] p = TaggingFixtures.uniform(POINTS, 1, 9, 3);
+        int[] out = new int[POINTS];
+        matcher.labelTrack(snapshot, p[0], p[1], 0, POINTS, out);
+        Set<String> ids = new HashSet<String>();
+        for (int idx : out) ids.add(idx < 0 ? null : snapshot.room(idx).room.id);
+        return ids;
+    }
+
+    @Test
+    void callOnTheOldSnapshotFinishesOnIt() throws Exception {
+        write("v1");
+        MapLoadingModule loader = loader();
+        RoomMatchingModule matcher = new RoomMatchingModule(loader);
+        MapLoadingModule.Snapshot before = loader.snapshot();
+
+        write("v2");
+        MapLoadingModule.Snapshot after = loader.reload();
+        assertSame(after, loader.snapshot());
+        assertEquals(before.version + 1, after.version);
+        assertEquals(singleton("v1"), rooms(matcher, before));
+        assertEquals(singleton("v2"), rooms(matcher, after));
+    }
+
+    @Test
+    void concurrentCallsNeverMixTwoMaps() throws Exception {
+        write("v1");
+        MapLoadingModule loader = loader();
+        RoomMatchingModule matcher = new RoomMatchingModule(loader);
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            Set<Long> seen = Collections.synchronizedSet(new HashSet<Long>());
+            List<Future<?>> running = new ArrayList<Future<?>>();
+            for (int t = 0; t < 3; t++) {
+                running.add(callers.submit(() -> {
+                    while (!stop.get()) {
+                        MapLoadingModule.Snapshot s = loader.snapshot();
+                        Set<String> ids = rooms(matcher, s);
+                        // one call, one map: every point carries the room id of the snapshot it started on
+                        assertEquals(singleton("v" + s.version), ids);
+                        seen.add(s.version);
+                    }
+                    return null;
+                }));
+            }
+            for (int v = 2; v <= 20; v++) {
+                write("v" + v);
+                loader.reload();
+                Thread.sleep(5);
+            }
+            stop.set(true);
+            for (Future<?> f : running) f.get();
+            assertTrue(seen.size() > 1, "callers should have seen several versions");
+        } finally {
+            stop.set(true);
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    void failedBuildKeepsTheOldMap() throws Exception {
+        write("v1");
+        MapLoadingModule loader = loader();
+        MapRegistry maps = new MapRegistry(new LocalRepositoryImpl(), mapDir.toString(), 4, 0);
+        MapRegistry.LoadedMap cached = maps.get(FILE);
+        MapLoadingModule.Snapshot defaultBefore = loader.snapshot();
+        MapLoadingModule.Snapshot cachedBefore = cached.loader.snapshot();
+
+        writeBroken();
+        assertThrows(RuntimeException.class, loader::reload);
+        assertSame(defaultBefore, loader.snapshot());
+
+        MapReloader reloader = new MapReloader(loader, maps, false, 0);
+        String result = reloader.reload(FILE);
+        assertTrue(result.startsWith("failed"), result);
+        assertEquals(1, reloader.failures());
+        assertSame(defaultBefore, loader.snapshot());
+        assertSame(cachedBefore, cached.loader.snapshot());
+        assertEquals(singleton("v1"), rooms(cached.matcher, cached.loader.snapshot()));
+
+        // fixed again: both the default map and the cached one move on
+        write("v3");
+        assertEquals(MapReloader.RELOADED, reloader.reload(FILE));
+        assertEquals(singleton("v3"), rooms(new RoomMatchingModule(loader), loader.snapshot()));
+        assertEquals(singleton("v3"), rooms(cached.matcher, cached.loader.snapshot()));
+        assertFalse(cachedBefore == cached.loader.snapshot());
+        assertEquals(MapReloader.NOT_LOADED, reloader.reload("other.json"));
+    }
+
+    private static Set<String> singleton(String id) {
+        Set<String> s = new HashSet<String>();
+        s.add(id);
+        return s;
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.service.tagging;
+
+import org.example.model.map.RoomGeom;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** the bounded index query for the nearest room gives the room a scan over all rooms gives */
+class NearestRoomFallbackTest {
+
+    @Test
+    void indexedFallbackMatchesFullScanOnGridMap() {
+        assertSameAsFullScan(TaggingFixtures.gridMapLoader(0), TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX);
+    }
+
+    @Test
+    void indexedFallbackMatchesFullScanOnSampleMap() {
+        assertSameAsFullScan(TaggingFixtures.sampleMapLoader(0), -8, 12);
+    }
+
+    private static void assertSameAsFullScan(MapLoadingModule loader, double min, double max) {
+        RoomMatchingModule matcher = new RoomMatchingModule(loader);
+        double[][] p = TaggingFixtures.uniform(20000, min, max, 3);
+        int n = p[0].length;
+        int[] actual = new int[n];
+        matcher.labelRoomIndices(p[0], p[1], 0, n, actual);
+        for (int i = 0; i < n; i++) {
+            RoomGeom expected = fullScan(loader, p[0][i], p[1][i]);
+            RoomGeom got = actual[i] == RoomMatchingModule.NO_ROOM ? null : loader.room(actual[i]);
+            String at = "point " + p[0][i] + ", " + p[1][i];
+            if (expected == null || got == null || expected == got) {
+                assertEquals(expected == null ? null : expected.room.id, got == null ? null : got.room.id, at);
+                continue;
+            }
+            // two rooms at exactly the same distance: either is right, the index order decides
+            Point pt = loader.geometryFactory().createPoint(new Coordinate(p[0][i], p[1][i]));
+            assertEquals(expected.polygon.distance(pt), got.polygon.distance(pt), 0.0, at);
+        }
+    }
+
+    /** first index hit within the boundary buffer, else the nearest of all rooms within NEAREST_ROOM_M */
+    @SuppressWarnings("unchecked")
+    private static RoomGeom fullScan(MapLoadingModule loader, double x, double y) {
+        Point pt = loader.geometryFactory().createPoint(new Coordinate(x, y));
+        List<RoomGeom> hits = loader.index().query(new Envelope(x, x, y, y));
+        for (RoomGeom rg : hits) {
+            if (rg.prepared.covers(pt) || rg.polygon.distance(pt) <= RoomMatchingModule.EPS_BOUNDARY) return rg;
+        }
+        RoomGeom nearest = null;
+        double min = Double.MAX_VALUE;
+        for (RoomGeom rg : loader.rooms().values()) {
+            double d = rg.polygon.distance(pt);
+            if (d < min) {
+                min = d;
+                nearest = rg;
+            }
+        }
+        return min <= RoomMatchingModule.NEAREST_ROOM_M ? nearest : null;
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.service.tagging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** thread safety of RoomMatchingModule: chunked tagging and concurrent callers give the sequential result */
+class ParallelTaggingTest {
+
+    /** not a multiple of the chunk size, so the last chunk is a short one */
+    private static final int POINTS = 5 * RoomMatchingModule.PARALLEL_CHUNK + 123;
+
+    @Test
+    void parallelMatchesSequentialForAnyPoolSize() {
+        RoomMatchingModule matcher = new RoomMatchingModule(TaggingFixtures.gridMapLoader(0));
+        double[][] p = TaggingFixtures.walk(POINTS, TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX, 7);
+        int[] expected = new int[POINTS];
+        matcher.labelRoomIndices(p[0], p[1], 0, POINTS, expected);
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                int[] actual = new int[POINTS];
+                matcher.labelParallel(p[0], p[1], 0, POINTS, actual, pool);
+                assertArrayEquals(expected, actual, "pool of " + parallelism);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneMatcher() throws Exception {
+        RoomMatchingModule matcher = new RoomMatchingModule(TaggingFixtures.gridMapLoader(0));
+        double[][] p = TaggingFixtures.walk(POINTS, TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX, 11);
+        int[] expected = new int[POINTS];
+        matcher.labelRoomIndices(p[0], p[1], 0, POINTS, expected);
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+            for (int c = 0; c < 8; c++) {
+                final int caller = c;
+                results.add(callers.submit(() -> {
+                    int[] out = new int[POINTS];
+                    switch (caller % 3) {
+                        case 0: matcher.labelParallel(p[0], p[1], 0, POINTS, out, pool); break;
+                        case 1: matcher.labelTrack(p[0], p[1], 0, POINTS, out); break;
+                        default: matcher.labelRoomIndices(p[0], p[1], 0, POINTS, out); break;
+                    }
+                    return out;
+                }));
+            }
+            for (Future<int[]> f : results) assertArrayEquals(expected, f.get());
+        } finally {
+            callers.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void parallelDoorFlowsMatchSequential() {
+        MapLoadingModule loader = TaggingFixtures.doorMapLoader();
+        RoomMatchingModule matcher = new RoomMatchingModule(loader);
+        double[][] p = TaggingFixtures.walk(POINTS, 0.1, 49.9, 5);
+        DoorFlows sequential = new DoorFlows(), parallel = new DoorFlows();
+        matcher.labelTrack(loader.snapshot(), p[0], p[1], 0, POINTS, new int[POINTS], sequential);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            matcher.labelParallel(loader.snapshot(), p[0], p[1], 0, POINTS, new int[POINTS], pool, parallel);
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(sequential.isEmpty(), "the walk should cross doors");
+        assertEquals(counts(sequential), counts(parallel));
+    }
+
+    private static Map<String, String> counts(DoorFlows flows) {
+        Map<String, String> out = new TreeMap<String, String>();
+        for (DoorCounter c : flows.counters()) out.put(c.doorId, c.forward() + "/" + c.backward());
+        return out;
+    }
+}
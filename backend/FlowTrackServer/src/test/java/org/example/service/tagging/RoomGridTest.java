@@ -0,0 +1,37 @@
+package org.example.service.tagging;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** the lookup grid is a shortcut only: every point gets the room the geometry test gives it */
+class RoomGridTest {
+
+    @Test
+    void gridMatchesGeometryOnGridMap() {
+        assertSameRooms(TaggingFixtures.gridMapLoader(0), TaggingFixtures.gridMapLoader(0.25),
+                TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX);
+    }
+
+    @Test
+    void gridMatchesGeometryOnSampleMap() {
+        assertSameRooms(TaggingFixtures.sampleMapLoader(0), TaggingFixtures.sampleMapLoader(0.25), -8, 12);
+    }
+
+    @Test
+    void gridIsOnlyBuiltWhenConfigured() {
+        assertNull(TaggingFixtures.gridMapLoader(0).grid());
+        assertNotNull(TaggingFixtures.gridMapLoader(0.25).grid());
+    }
+
+    private static void assertSameRooms(MapLoadingModule exact, MapLoadingModule grid, double min, double max) {
+        double[][] p = TaggingFixtures.uniform(100000, min, max, 9);
+        int n = p[0].length;
+        int[] expected = new int[n], actual = new int[n];
+        new RoomMatchingModule(exact).labelRoomIndices(p[0], p[1], 0, n, expected);
+        new RoomMatchingModule(grid).labelRoomIndices(p[0], p[1], 0, n, actual);
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.service.tagging;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** a map dropped by its owner (registry eviction, reload) is not kept alive by the threads that tagged on it */
+class SnapshotRetentionTest {
+
+    @Test
+    void poolThreadsDoNotKeepATaggedMap() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            WeakReference<MapLoadingModule.Snapshot> map = tagAndDrop(pool);
+            for (int i = 0; i < 50 && map.get() != null; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertNull(map.get(), "snapshot still reachable after its loader and matcher were dropped");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** tags on the pool and the calling thread, returns the snapshot with every strong reference gone */
+    private static WeakReference<MapLoadingModule.Snapshot> tagAndDrop(ForkJoinPool pool) {
+        MapLoadingModule loader = TaggingFixtures.gridMapLoader(0);
+        RoomMatchingModule matcher = new RoomMatchingModule(loader);
+        int n = 4 * RoomMatchingModule.PARALLEL_CHUNK;
+        double[][] p = TaggingFixtures.walk(n, TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX, 1);
+        matcher.labelParallel(p[0], p[1], 0, n, new int[n], pool);
+        matcher.labelTrack(p[0], p[1], 0, n, new int[n]);
+        return new WeakReference<MapLoadingModule.Snapshot>(loader.snapshot());
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.service.tagging;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** trying the previous point's room first changes the work per point, not the room */
+class StickyTaggingTest {
+
+    @Test
+    void trackTaggingMatchesPointTaggingOnGridMap() {
+        assertSameRooms(new RoomMatchingModule(TaggingFixtures.gridMapLoader(0)), TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX);
+    }
+
+    @Test
+    void trackTaggingMatchesPointTaggingWithGrid() {
+        assertSameRooms(new RoomMatchingModule(TaggingFixtures.gridMapLoader(0.25)), TaggingFixtures.GRID_MAP_MIN, TaggingFixtures.GRID_MAP_MAX);
+    }
+
+    @Test
+    void trackTaggingMatchesPointTaggingOnSampleMap() {
+        assertSameRooms(new RoomMatchingModule(TaggingFixtures.sampleMapLoader(0)), -8, 12);
+    }
+
+    private static void assertSameRooms(RoomMatchingModule matcher, double min, double max) {
+        double[][] p = TaggingFixtures.walk(100000, min, max, 7);
+        int n = p[0].length;
+        int[] perPoint = new int[n], track = new int[n];
+        matcher.labelRoomIndices(p[0], p[1], 0, n, perPoint);
+        long lookups = matcher.stickyLookups();
+        matcher.labelTrack(p[0], p[1], 0, n, track);
+        assertArrayEquals(perPoint, track);
+        assertTrue(matcher.stickyLookups() > lookups, "the track call should try previous rooms");
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.service.tagging;
+
+import org.example.model.map.Doorway;
+import org.example.model.map.FloorMap;
+import org.example.model.map.Room;
+import org.example.model.map.Vertex;
+import org.example.repository.impl.LocalRepositoryImpl;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** maps and point sets shared by the tagging tests */
+final class TaggingFixtures {
+
+    /** 20 x 20 square rooms of 4 m with 1.5 m gaps: boundary bands and the nearest room fallback both matter */
+    static final double GRID_MAP_MIN = -5;
+    static final double GRID_MAP_MAX = 115;
+
+    private TaggingFixtures() {}
+
+    static FloorMap gridMap() {
+        FloorMap m = new FloorMap();
+        m.map_id = "grid";
+        m.rooms = new ArrayList<Room>();
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 20; j++) {
+                Room r = new Room();
+                r.id = "r" + i + "_" + j;
+                r.vertices = new ArrayList<Vertex>();
+                double x0 = i * 5.5, y0 = j * 5.5;
+                r.vertices.add(new Vertex(x0, y0));
+                r.vertices.add(new Vertex(x0 + 4, y0));
+                r.vertices.add(new Vertex(x0 + 4, y0 + 4));
+                r.vertices.add(new Vertex(x0, y0 + 4));
+                m.rooms.add(r);
+            }
+        }
+        return m;
+    }
+
+    /** 10 x 10 adjacent rooms of 5 m, a 1 m door in the middle of every inner wall */
+    static FloorMap doorMap() {
+        FloorMap m = new FloorMap();
+        m.map_id = "doors";
+        m.rooms = new ArrayList<Room>();
+        m.doorways = new ArrayList<Doorway>();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                Room r = new Room();
+                r.id = "r" + i + "_" + j;
+                r.vertices = new ArrayList<Vertex>();
+                r.vertices.add(new Vertex(i * 5, j * 5));
+                r.vertices.add(new Vertex(i * 5 + 5, j * 5));
+                r.vertices.add(new Vertex(i * 5 + 5, j * 5 + 5));
+                r.vertices.add(new Vertex(i * 5, j * 5 + 5));
+                m.rooms.add(r);
+                if (i < 9) m.doorways.add(door(r.id + "_e", r.id, "r" + (i + 1) + "_" + j, i * 5 + 5, j * 5 + 2, i * 5 + 5, j * 5 + 3));
+                if (j < 9) m.doorways.add(door(r.id + "_n", r.id, "r" + i + "_" + (j + 1), i * 5 + 2, j * 5 + 5, i * 5 + 3, j * 5 + 5));
+            }
+        }
+        return m;
+    }
+
+    static MapLoadingModule gridMapLoader(double gridCellM) {
+        return loader(gridMap(), gridCellM);
+    }
+
+    static MapLoadingModule doorMapLoader() {
+        return loader(doorMap(), 0);
+    }
+
+    static MapLoadingModule loader(FloorMap map, double gridCellM) {
+        LocalRepositoryImpl repo = new LocalRepositoryImpl() {
+            @Override
+            public FloorMap loadMapSetting(String mapDir, String fileName) {
+                return map;
+            }
+        };
+        return new MapLoadingModule(repo, gridCellM);
+    }
+
+    static Doorway door(String id, String from, String to, double ax, double ay, double bx, double by) {
+        Doorway d = new Doorway();
+        d.id = id;
+        d.from_room = from;
+        d.to_room = to;
+        d.segment = new Vertex[]{new Vertex(ax, ay), new Vertex(bx, by)};
+        return d;
+    }
+
+    /** the map shipped under localRepository/input/maps */
+    static MapLoadingModule sampleMapLoader(double gridCellM) {
+        return new MapLoadingModule(new LocalRepositoryImpl(), gridCellM);
+    }
+
+    /** uniform points over [min, max]^2, every fourth x on a 0.25 m line (grid cell edges) */
+    static double[][] uniform(int n, double min, double max, long seed) {
+        Random rnd = new Random(seed);
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = min + rnd.nextDouble() * (max - min);
+            ys[i] = min + rnd.nextDouble() * (max - min);
+            if (i % 4 == 0) xs[i] = Math.round(xs[i] * 4) / 4.0;
+        }
+        return new double[][]{xs, ys};
+    }
+
+    /** random walk with heading changes and stops, like a person moving through the rooms */
+    static double[][] walk(int n, double min, double max, long seed) {
+        Random rnd = new Random(seed);
+        double[] xs = new double[n], ys = new double[n];
+        double x = (min + max) / 2, y = (min + max) / 2, hx = 0, hy = 0;
+        for (int i = 0; i < n; i++) {
+            if (rnd.nextInt(30) == 0) {
+                double a = rnd.nextDouble() * 2 * Math.PI;
+                double v = rnd.nextInt(3) == 0 ? 0 : 1.2;
+                hx = Math.cos(a) * v;
+                hy = Math.sin(a) * v;
+            }
+            x = Math.max(min, Math.min(max, x + hx + rnd.nextGaussian() * 0.3));
+            y = Math.max(min, Math.min(max, y + hy + rnd.nextGaussian() * 0.3));
+            xs[i] = x;
+            ys[i] = y;
+        }
+        return new double[][]{xs, ys};
+    }
+}
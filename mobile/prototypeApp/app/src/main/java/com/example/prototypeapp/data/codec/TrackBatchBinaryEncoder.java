@@ -0,0 +1,89 @@
+package com.example.prototypeapp.data.codec;
+
+import com.example.prototypeapp.data.model.TrackBatch;
+import com.example.prototypeapp.data.model.TrackPoint;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * encode TrackBatch into the server's compact binary batch format
+ * - post with Content-Type application/x-flowtrack-batch, json upload keeps working as before
+ * - columnar, varint, delta time, x/y quantized to mm, velocity/rms/dt to 0.001
+ * - layout must match org.example.codec.BatchBinaryCodec on the server
+ */
+public class TrackBatchBinaryEncoder {
+
+    public static final String MEDIA_TYPE = "application/x-flowtrack-batch";
+
+    private static final byte[] MAGIC = {'F', 'T', 'B'};
+    private static final int VERSION = 1;
+    private static final int XY_SCALE = 1000;
+    private static final int AUX_SCALE = 1000;
+
+    public static byte[] encode(TrackBatch batch) {
+        List<TrackPoint> pts = batch.points != null ? batch.points : Collections.<TrackPoint>emptyList();
+        int n = pts.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + n * 12);
+
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+
+        string(out, batch.batchId);
+        string(out, batch.deviceId);
+        string(out, batch.sessionId);
+        string(out, batch.source);
+        string(out, batch.coordRef);
+        string(out, batch.buildingId);
+        string(out, batch.floorId);
+        string(out, batch.mapId);
+
+        zigzag(out, batch.startTimeMs);
+        zigzag(out, batch.endTimeMs);
+        zigzag(out, batch.count);
+        varint(out, n);
+
+        varint(out, XY_SCALE);
+        varint(out, AUX_SCALE);
+
+        long prev = 0;
+        for (TrackPoint p : pts) { zigzag(out, p.time - prev); prev = p.time; }
+        prev = 0;
+        for (TrackPoint p : pts) { long q = Math.round(p.x * XY_SCALE); zigzag(out, q - prev); prev = q; }
+        prev = 0;
+        for (TrackPoint p : pts) { long q = Math.round(p.y * XY_SCALE); zigzag(out, q - prev); prev = q; }
+        for (TrackPoint p : pts) { zigzag(out, Math.round(p.velocity * AUX_SCALE)); }
+        prev = 0;
+        for (TrackPoint p : pts) { long q = Math.round(p.rms * AUX_SCALE); zigzag(out, q - prev); prev = q; }
+        for (TrackPoint p : pts) { zigzag(out, Math.round(p.dt * AUX_SCALE)); }
+        for (TrackPoint p : pts) { zigzag(out, p.anchorsUsed); }
+
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            if (pts.get(i).accepted) bits |= 1 << (i & 7);
+            if ((i & 7) == 7 || i == n - 1) { out.write(bits); bits = 0; }
+        }
+        return out.toByteArray();
+    }
+
+    private static void varint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static void zigzag(ByteArrayOutputStream out, long v) {
+        varint(out, (v << 1) ^ (v >> 63));
+    }
+
+    private static void string(ByteArrayOutputStream out, String s) {
+        if (s == null) { varint(out, 0); return; }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        varint(out, b.length + 1L);
+        out.write(b, 0, b.length);
+    }
+}